@@ -4,11 +4,17 @@ import servlets.*;
 
 public class Main {
     public static void main(String[] args) throws Exception {
-        HTTPServer server = new MyHTTPServer(8080, 5);
+        // One virtual thread per connection so slow clients cannot stall the server
+        HTTPServer server = new MyHTTPServer(8080, MyHTTPServer.ExecutionMode.VIRTUAL_THREADS, 500);
 
         server.addServlet("GET", "/publish", new TopicDisplayer());
         server.addServlet("GET", "/graph", new GraphUpdateServlet());
+        server.addServlet("GET", "/values", new TopicValuesServlet());
+        // Each open /events stream or /ws session holds one of the 500 connection permits until it closes
+        server.addServlet("GET", "/events", new TopicEventsServlet());
+        server.addServlet("GET", "/ws", new TopicSocketServlet());
         server.addServlet("POST", "/upload", new ConfLoader());
+        server.addServlet("POST", "/ingest", new TopicIngestServlet());
         // Use relative path from project_biu directory to html_files
         server.addServlet("GET", "/app/", new HtmlLoader("./html_files"));
 
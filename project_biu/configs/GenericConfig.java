@@ -6,6 +6,7 @@ import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import graph.ParallelAgent;
 import graph.Agent;
@@ -13,11 +14,21 @@ import graph.Agent;
 /**
  * GenericConfig class that loads agent configurations from a file
  * and creates the corresponding agents wrapped in ParallelAgent instances.
+ * By default every ParallelAgent gets its own worker thread; setScheduler()
+ * makes them share an executor instead.
+ *
+ * The agents subscribe themselves to their topics in their constructors, so
+ * messages reach them directly on the publishing thread and the wrappers'
+ * mailboxes stay empty. The wrappers only own the threads (or scheduler) and
+ * close the agents. A scheduler therefore only changes how many threads the
+ * configuration starts; it drains messages only for ParallelAgents that are
+ * subscribed to topics directly.
  */
 public class GenericConfig implements Config {
     
     private String configFilePath;
     private List<ParallelAgent> agents;
+    private Executor scheduler;
     
     public GenericConfig() {
         this.agents = new ArrayList<>();
@@ -31,6 +42,18 @@ public class GenericConfig implements Config {
         this.configFilePath = configFile;
     }
     
+    /**
+     * Sets the executor that drains the agents' mailboxes, e.g.
+     * ParallelAgent.sharedScheduler() or ParallelAgent.virtualThreadScheduler().
+     * Pass null to use one thread per agent. Since the agents receive their
+     * messages directly (see the class comment), with a scheduler the
+     * configuration starts no threads at all.
+     * @param scheduler The executor shared by all agents of this configuration
+     */
+    public void setScheduler(Executor scheduler) {
+        this.scheduler = scheduler;
+    }
+    
     @Override
     public void create() {
         if (configFilePath == null) {
@@ -75,7 +98,9 @@ public class GenericConfig implements Config {
                         Agent agent = (Agent) constructor.newInstance(subs, pubs);
                         
                         // Wrap the agent in a ParallelAgent
-                        ParallelAgent parallelAgent = new ParallelAgent(agent, 100);
+                        ParallelAgent parallelAgent = scheduler == null
+                                ? new ParallelAgent(agent, 100)
+                                : new ParallelAgent(agent, 100, scheduler);
                         agents.add(parallelAgent);
                         
                     } catch (Exception e) {
@@ -4,5 +4,27 @@ public interface Agent {
     String getName();
     void reset();
     void callback(String topic, Message msg);
+
+    /**
+     * Called by Topic.publish with the topic object itself. Agents that bind to
+     * their Topic objects at construction can override this to dispatch on
+     * identity instead of comparing names; by default it forwards to the
+     * name-based callback.
+     */
+    default void callback(Topic topic, Message msg) {
+        callback(topic.name, msg);
+    }
+
+    /**
+     * Called by an ExecutionPlan once per wave with every input that changed
+     * during the wave, when there is more than one. By default the values are
+     * delivered one by one; agents that combine several inputs can override this
+     * to compute their result once, from all the new values.
+     */
+    default void callback(Topic[] topics, Message[] msgs) {
+        for (int i = 0; i < topics.length; i++) {
+            callback(topics[i], msgs[i]);
+        }
+    }
     void close();
 }
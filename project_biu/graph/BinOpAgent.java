@@ -16,6 +16,10 @@ public class BinOpAgent implements Agent {
     private String input2;
     // Output topic name
     private String output;
+    // Topics resolved once at construction
+    private Topic topic1;
+    private Topic topic2;
+    private Topic outputTopic;
     // Binary operation function to apply
     private BinaryOperator<Double> func;
 
@@ -58,10 +62,10 @@ public class BinOpAgent implements Agent {
      * Subscribe this agent to both input topics
      */
     private void subscribeToInputs() {
-        Topic topic1 = TopicManagerSingleton.get().getTopic(input1);
+        topic1 = TopicManagerSingleton.get().getTopic(input1);
         topic1.subscribe(this);
         
-        Topic topic2 = TopicManagerSingleton.get().getTopic(input2);
+        topic2 = TopicManagerSingleton.get().getTopic(input2);
         topic2.subscribe(this);
     }
 
@@ -69,7 +73,7 @@ public class BinOpAgent implements Agent {
      * Register this agent as publisher for the output topic
      */
     private void registerAsPublisher() {
-        Topic outputTopic = TopicManagerSingleton.get().getTopic(output);
+        outputTopic = TopicManagerSingleton.get().getTopic(output);
         outputTopic.addPublisher(this);
     }
 
@@ -96,6 +100,32 @@ public class BinOpAgent implements Agent {
         this.value2 = 0.0;
     }
 
+    /**
+     * Callback method invoked by the subscribed topics on publish
+     * @param topic The topic that received the message
+     * @param msg The message containing the data
+     */
+    @Override
+    public void callback(Topic topic, Message msg) {
+        // Topics are bound at construction, so identity tells the inputs apart
+        onInput(topic == topic1, topic == topic2, msg);
+    }
+
+    /**
+     * Callback method invoked by an ExecutionPlan with all inputs that changed in one wave
+     * @param topics The topics that received messages
+     * @param msgs The messages, parallel to topics
+     */
+    @Override
+    public void callback(Topic[] topics, Message[] msgs) {
+        // Store every new input first, so the operation runs once per wave
+        for (int i = 0; i < topics.length; i++) {
+            store(topics[i] == topic1, topics[i] == topic2, msgs[i]);
+        }
+        if (value1 != null && value2 != null)
+            performCalculation();
+    }
+
     /**
      * Callback method invoked when messages arrive on subscribed topics
      * @param topic The topic name that received the message
@@ -103,17 +133,31 @@ public class BinOpAgent implements Agent {
      */
     public void callback(String topic, Message msg) {
         // Check which input topic received the message
-        if (topic.equals(input1)) {
-            value1 = msg.asDouble;
-        } else if (topic.equals(input2)) {
-            value2 = msg.asDouble;
-        }
+        onInput(topic.equals(input1), topic.equals(input2), msg);
+    }
+
+    /**
+     * Store the received input and calculate once both inputs are available
+     */
+    private void onInput(boolean isInput1, boolean isInput2, Message msg) {
+        store(isInput1, isInput2, msg);
 
         // Execute operation only when both inputs are available
         if (value1 != null && value2 != null)
             performCalculation();
     }
 
+    /**
+     * Store a received input value
+     */
+    private void store(boolean isInput1, boolean isInput2, Message msg) {
+        if (isInput1) {
+            value1 = msg.asDouble;
+        } else if (isInput2) {
+            value2 = msg.asDouble;
+        }
+    }
+
     /**
      * Clean up resources when agent is closed
      */
@@ -126,7 +170,6 @@ public class BinOpAgent implements Agent {
      * @param result The computed result to publish
      */
     private void publishResult(Double result) {
-        Topic outputTopic = TopicManagerSingleton.get().getTopic(output);
-        outputTopic.publish(new Message(result));
+        outputTopic.publish(Message.of(result));
     }
 }
\ No newline at end of file
@@ -0,0 +1,654 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * An acyclic configuration compiled into levels, so that a batch of input values
+ * (a wave) is evaluated level by level instead of through nested Topic.publish calls.
+ *
+ * Topics published from outside are on level 0. Every agent is one level after its
+ * deepest input topic, and every topic is on the level of its deepest publisher.
+ * While a wave runs, messages that agents publish to their output topics are held
+ * by the plan instead of being delivered at once. When an agent's level comes, it
+ * receives the last value of each of its inputs that changed during the wave, in
+ * one call of {@link Agent#callback(Topic[], Message[])} if there are several.
+ * So every agent fires at most once per wave, after all of its inputs are final:
+ * in a diamond like MathExampleConfig's R1/R2 -> R3, "mul" runs once, with both
+ * new values. The stack depth of a wave does not grow with the length of agent chains.
+ *
+ * A {@link ParallelAgent} and the agent it wraps are one node of the plan, since the
+ * wrapper may be the subscriber while the wrapped agent is the publisher. The plan
+ * calls the wrapped agent on the wave's thread instead of queueing into the mailbox,
+ * so it too fires once per wave and its output is part of the wave.
+ *
+ * Agents on the same level do not depend on each other, so the agents of a level
+ * run in parallel on a ForkJoinPool, and the next level starts only when all of
+ * them are done. {@link #publish(List, List)} returns once the wave has fully
+ * propagated; {@link #submit(List, List)} returns a future that completes then.
+ *
+ * A plan describes the wiring at one structure version of the TopicManager;
+ * {@link #current()} keeps one up to date. Outside a wave, Topic.publish behaves
+ * as before.
+ */
+public final class ExecutionPlan {
+
+    // The wave running on this thread, if any; Topic.publish hands messages to it
+    private static final ThreadLocal<Wave> ACTIVE_WAVE = new ThreadLocal<>();
+
+    // Most wave arrays a plan keeps for reuse; waves beyond that allocate their own
+    private static final int POOLED_BUFFERS = 64;
+
+    // Plan for the last structure version seen by current()
+    private static volatile Compiled latest;
+
+    // Held while a new plan is compiled, so only one thread compiles it
+    private static final Object COMPILE_LOCK = new Object();
+
+    // Lazily created pool returned by wavePool()
+    private static ForkJoinPool wavePool;
+
+    private final Topic[] topics;
+    private final Map<Topic, Integer> topicIndex;
+    private final Agent[] agents;           // sorted by level
+    private final int[] agentLevel;
+    private final int levelCount;
+    private final int[] inputStart;         // input topics of agent a are inputTopics[inputStart[a] .. inputStart[a + 1])
+    private final int[] inputTopics;
+    private final int[] subscriberStart;    // subscribers of topic t are subscriberAgents[subscriberStart[t] .. subscriberStart[t + 1])
+    private final int[] subscriberAgents;
+    private final int[] minSubscriberLevel; // lowest level among the subscribers of each topic
+    private final ArrayBlockingQueue<WaveBuffers> freeBuffers = new ArrayBlockingQueue<>(POOLED_BUFFERS);
+
+    private ExecutionPlan(Topic[] topics, Map<Topic, Integer> topicIndex, Agent[] agents, int[] agentLevel,
+                          int levelCount, int[] inputStart, int[] inputTopics, int[] subscriberStart,
+                          int[] subscriberAgents, int[] minSubscriberLevel) {
+        this.topics = topics;
+        this.topicIndex = topicIndex;
+        this.agents = agents;
+        this.agentLevel = agentLevel;
+        this.levelCount = levelCount;
+        this.inputStart = inputStart;
+        this.inputTopics = inputTopics;
+        this.subscriberStart = subscriberStart;
+        this.subscriberAgents = subscriberAgents;
+        this.minSubscriberLevel = minSubscriberLevel;
+    }
+
+    /**
+     * Returns the plan for the current wiring of the TopicManager, compiling a new
+     * one only if topics or agents changed since the last call.
+     *
+     * @return the plan, or null if the configuration has a cycle and cannot be planned
+     */
+    public static ExecutionPlan current() {
+        TopicManagerSingleton.TopicManager manager = TopicManagerSingleton.get();
+        Compiled compiled = latest;
+        if (compiled != null && compiled.version == manager.getStructureVersion()) {
+            return compiled.plan;
+        }
+        synchronized (COMPILE_LOCK) {
+            // Threads that waited here find the plan the first one compiled
+            long version = manager.getStructureVersion();
+            compiled = latest;
+            if (compiled == null || compiled.version != version) {
+                // The version is read before compiling, so a change made meanwhile triggers another compile
+                ExecutionPlan plan;
+                try {
+                    plan = new Graph().compileExecutionPlan();
+                } catch (IllegalStateException e) {
+                    plan = null;
+                }
+                compiled = new Compiled(version, plan);
+                latest = compiled;
+            }
+            return compiled.plan;
+        }
+    }
+
+    /**
+     * Returns the process-wide pool the agents of a level run on. It has one
+     * daemon worker per available processor.
+     * @return the pool
+     */
+    public static synchronized ForkJoinPool wavePool() {
+        if (wavePool == null) {
+            wavePool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+        }
+        return wavePool;
+    }
+
+    /**
+     * Publishes values as one wave of the current plan, or one after the other
+     * through Topic.publish if the configuration has a cycle.
+     *
+     * @param inputs the topics to publish to
+     * @param messages the message for each topic, parallel to inputs
+     */
+    public static void publishWave(List<Topic> inputs, List<Message> messages) {
+        ExecutionPlan plan = current();
+        if (plan != null) {
+            plan.publish(inputs, messages);
+            return;
+        }
+        for (int i = 0; i < inputs.size(); i++) {
+            inputs.get(i).publish(messages.get(i));
+        }
+    }
+
+    /**
+     * Publishes a sequence of values so that subscribers see every one of them, in
+     * order. Consecutive values for different topics form one wave; a topic that
+     * repeats starts the next wave, instead of replacing its earlier value.
+     *
+     * @param inputs the topics to publish to
+     * @param messages the message for each topic, parallel to inputs
+     */
+    public static void publishInOrder(List<Topic> inputs, List<Message> messages) {
+        Set<Topic> inWave = Collections.newSetFromMap(new IdentityHashMap<>());
+        int start = 0;
+        for (int i = 0; i < inputs.size(); i++) {
+            if (!inWave.add(inputs.get(i))) {
+                publishWave(inputs.subList(start, i), messages.subList(start, i));
+                inWave.clear();
+                inWave.add(inputs.get(i));
+                start = i;
+            }
+        }
+        if (start < inputs.size()) {
+            publishWave(inputs.subList(start, inputs.size()), messages.subList(start, messages.size()));
+        }
+    }
+
+    /**
+     * Compiles the wiring of the given topics and of the agents that subscribe or
+     * publish to them.
+     *
+     * @param topicCollection the topics of the configuration
+     * @return the plan
+     * @throws IllegalStateException if topics and agents form a cycle
+     */
+    static ExecutionPlan compile(Collection<Topic> topicCollection) {
+        Topic[] topics = topicCollection.toArray(new Topic[0]);
+        int topicCount = topics.length;
+        Map<Topic, Integer> topicIndex = new IdentityHashMap<>(2 * topicCount);
+        for (int t = 0; t < topicCount; t++) {
+            topicIndex.put(topics[t], t);
+        }
+
+        // Agents in the order they are first seen, and the edges of the
+        // topic -> subscriber and publisher -> topic graph
+        Map<Agent, Integer> agentIndex = new IdentityHashMap<>();
+        List<Agent> found = new ArrayList<>();
+        int edgeCount = 0;
+        for (Topic topic : topics) {
+            edgeCount += topic.getSubscribers().size() + topic.getPublishers().size();
+        }
+        int[] subscribedTopic = new int[edgeCount];
+        int[] subscribedAgent = new int[edgeCount];
+        int[] publishingAgent = new int[edgeCount];
+        int[] publishedTopic = new int[edgeCount];
+        int subscriptions = 0;
+        int publications = 0;
+        for (int t = 0; t < topicCount; t++) {
+            for (Agent agent : topics[t].getSubscribers()) {
+                subscribedTopic[subscriptions] = t;
+                subscribedAgent[subscriptions] = indexOf(agent, agentIndex, found);
+                subscriptions++;
+            }
+            for (Agent agent : topics[t].getPublishers()) {
+                publishingAgent[publications] = indexOf(agent, agentIndex, found);
+                publishedTopic[publications] = t;
+                publications++;
+            }
+        }
+        int agentCount = agentIndex.size();
+
+        // Longest-path levels by Kahn's algorithm over topics [0, topicCount) and
+        // agents [topicCount, topicCount + agentCount)
+        int nodeCount = topicCount + agentCount;
+        int[] outStart = new int[nodeCount + 1];
+        int[] inDegree = new int[nodeCount];
+        for (int k = 0; k < subscriptions; k++) {
+            outStart[subscribedTopic[k] + 1]++;
+            inDegree[topicCount + subscribedAgent[k]]++;
+        }
+        for (int k = 0; k < publications; k++) {
+            outStart[topicCount + publishingAgent[k] + 1]++;
+            inDegree[publishedTopic[k]]++;
+        }
+        for (int v = 0; v < nodeCount; v++) {
+            outStart[v + 1] += outStart[v];
+        }
+        int[] outTarget = new int[subscriptions + publications];
+        int[] fill = Arrays.copyOf(outStart, nodeCount);
+        for (int k = 0; k < subscriptions; k++) {
+            outTarget[fill[subscribedTopic[k]]++] = topicCount + subscribedAgent[k];
+        }
+        for (int k = 0; k < publications; k++) {
+            outTarget[fill[topicCount + publishingAgent[k]]++] = publishedTopic[k];
+        }
+        int[] level = new int[nodeCount];
+        int[] queue = new int[nodeCount];
+        int head = 0;
+        int tail = 0;
+        for (int v = 0; v < nodeCount; v++) {
+            if (inDegree[v] == 0) {
+                queue[tail++] = v;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int k = outStart[v]; k < outStart[v + 1]; k++) {
+                int w = outTarget[k];
+                // An agent runs after its inputs; a topic is final once its last publisher ran
+                level[w] = Math.max(level[w], w >= topicCount ? level[v] + 1 : level[v]);
+                if (--inDegree[w] == 0) {
+                    queue[tail++] = w;
+                }
+            }
+        }
+        if (tail < nodeCount) {
+            throw new IllegalStateException("Topics and agents form a cycle");
+        }
+
+        // Agents sorted by level; agents without inputs never fire but still get level 1
+        int levelCount = 1;
+        for (int a = 0; a < agentCount; a++) {
+            level[topicCount + a] = Math.max(1, level[topicCount + a]);
+            levelCount = Math.max(levelCount, level[topicCount + a] + 1);
+        }
+        int[] levelStart = new int[levelCount + 1];
+        for (int a = 0; a < agentCount; a++) {
+            levelStart[level[topicCount + a] + 1]++;
+        }
+        for (int l = 0; l < levelCount; l++) {
+            levelStart[l + 1] += levelStart[l];
+        }
+        int[] sortedIndex = new int[agentCount];
+        Agent[] agents = new Agent[agentCount];
+        int[] agentLevel = new int[agentCount];
+        for (int a = 0; a < agentCount; a++) {
+            int l = level[topicCount + a];
+            int s = levelStart[l]++;
+            sortedIndex[a] = s;
+            agents[s] = found.get(a);
+            agentLevel[s] = l;
+        }
+
+        // Inputs per agent and subscribers per topic, in subscription order
+        int[] inputStart = new int[agentCount + 1];
+        int[] subscriberStart = new int[topicCount + 1];
+        for (int k = 0; k < subscriptions; k++) {
+            inputStart[sortedIndex[subscribedAgent[k]] + 1]++;
+            subscriberStart[subscribedTopic[k] + 1]++;
+        }
+        for (int a = 0; a < agentCount; a++) {
+            inputStart[a + 1] += inputStart[a];
+        }
+        for (int t = 0; t < topicCount; t++) {
+            subscriberStart[t + 1] += subscriberStart[t];
+        }
+        int[] inputTopics = new int[subscriptions];
+        int[] subscriberAgents = new int[subscriptions];
+        int[] inputFill = Arrays.copyOf(inputStart, agentCount);
+        int[] subscriberFill = Arrays.copyOf(subscriberStart, topicCount);
+        int[] minSubscriberLevel = new int[topicCount];
+        Arrays.fill(minSubscriberLevel, Integer.MAX_VALUE);
+        for (int k = 0; k < subscriptions; k++) {
+            int a = sortedIndex[subscribedAgent[k]];
+            int t = subscribedTopic[k];
+            inputTopics[inputFill[a]++] = t;
+            subscriberAgents[subscriberFill[t]++] = a;
+            minSubscriberLevel[t] = Math.min(minSubscriberLevel[t], agentLevel[a]);
+        }
+        return new ExecutionPlan(topics, topicIndex, agents, agentLevel, levelCount, inputStart, inputTopics,
+                subscriberStart, subscriberAgents, minSubscriberLevel);
+    }
+
+    // Returns the index of an agent, numbering agents in the order they are first seen.
+    // A ParallelAgent shares the index of the agent it wraps, and is what the plan keeps
+    private static int indexOf(Agent agent, Map<Agent, Integer> agentIndex, List<Agent> found) {
+        Agent key = unwrap(agent);
+        Integer a = agentIndex.get(key);
+        if (a == null) {
+            a = found.size();
+            agentIndex.put(key, a);
+            found.add(agent);
+        } else if (agent instanceof ParallelAgent) {
+            found.set(a, agent);
+        }
+        return a;
+    }
+
+    // Returns the agent a ParallelAgent wraps, or the agent itself
+    private static Agent unwrap(Agent agent) {
+        return agent instanceof ParallelAgent ? ((ParallelAgent) agent).getWrapped() : agent;
+    }
+
+    /**
+     * Returns the number of levels, counting level 0 of the input topics.
+     */
+    public int getLevelCount() {
+        return levelCount;
+    }
+
+    /**
+     * Returns the level an agent runs on, or -1 if it is not part of this plan.
+     * A ParallelAgent and the agent it wraps are on the same level.
+     *
+     * @param agent the agent
+     * @return its level, at least 1
+     */
+    public int getLevel(Agent agent) {
+        Agent key = unwrap(agent);
+        for (int a = 0; a < agents.length; a++) {
+            if (unwrap(agents[a]) == key) {
+                return agentLevel[a];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Publishes a single value as a wave.
+     *
+     * @param topic the topic to publish to
+     * @param message the message
+     */
+    public void publish(Topic topic, Message message) {
+        publish(List.of(topic), List.of(message));
+    }
+
+    /**
+     * Publishes values as one wave: all of them are stored first, then the agents
+     * that depend on them run level by level, each at most once. When a topic is
+     * given several values, the last one is what its subscribers receive. Topics
+     * that are not part of the plan are published to directly, as Topic.publish does.
+     * Returns when the wave is done: every agent it reached has run.
+     *
+     * @param inputs the topics to publish to
+     * @param messages the message for each topic, parallel to inputs
+     */
+    public void publish(List<Topic> inputs, List<Message> messages) {
+        if (inputs.size() != messages.size()) {
+            throw new IllegalArgumentException("Expected one message per topic");
+        }
+        WaveBuffers buffers = freeBuffers.poll();
+        Wave wave = new Wave(buffers != null ? buffers : new WaveBuffers(topics.length, agents.length, levelCount));
+        try {
+            for (int i = 0; i < inputs.size(); i++) {
+                Topic topic = inputs.get(i);
+                Message message = messages.get(i);
+                Integer t = topicIndex.get(topic);
+                if (t == null) {
+                    topic.publish(message);
+                } else {
+                    topic.setResult(message.asText);
+                    wave.store(t, message);
+                }
+            }
+            wave.run();
+        } finally {
+            wave.finish();
+        }
+    }
+
+    /**
+     * Starts a wave like {@link #publish(List, List)} without waiting for it.
+     * Agents wrapped in a ParallelAgent run inside the wave too, so when the
+     * future completes the topics they publish to hold their final values.
+     *
+     * @param inputs the topics to publish to
+     * @param messages the message for each topic, parallel to inputs
+     * @return a future that completes when the wave is done, or exceptionally
+     *         with what an agent threw
+     */
+    public CompletableFuture<Void> submit(List<Topic> inputs, List<Message> messages) {
+        return CompletableFuture.runAsync(() -> publish(inputs, messages), wavePool());
+    }
+
+    /**
+     * Called by Topic.publish: inside a wave, takes over the delivery of a message.
+     *
+     * @return true if the running wave will deliver the message, false if the
+     *         caller should deliver it itself
+     */
+    static boolean defer(Topic topic, Message message) {
+        Wave wave = ACTIVE_WAVE.get();
+        return wave != null && wave.defer(topic, message);
+    }
+
+    /**
+     * The state of one wave: the values published so far and the agents waiting
+     * to run, per level. The arrays are borrowed from the plan's pool of
+     * WaveBuffers, so request threads that live for one wave do not allocate
+     * them, and only the entries the wave used are touched and cleared, so a
+     * small wave on a large plan stays cheap.
+     */
+    private final class Wave {
+        final WaveBuffers buffers;
+        final Message[] latest;
+        final boolean[] scheduled;
+        final int[][] waiting;
+        final int[] waitingCount;
+        int lowLevel = Integer.MAX_VALUE;  // range of levels with scheduled agents
+        int highLevel = 0;
+        int level;
+
+        Wave(WaveBuffers buffers) {
+            this.buffers = buffers;
+            this.latest = buffers.latest;
+            this.scheduled = buffers.scheduled;
+            this.waiting = buffers.waiting;
+            this.waitingCount = buffers.waitingCount;
+        }
+
+        // Records a topic's value and schedules its subscribers; agents of one
+        // level publish concurrently, hence the lock
+        synchronized void store(int t, Message message) {
+            if (latest[t] == null) {
+                buffers.addChanged(t);
+            }
+            latest[t] = message;
+            for (int k = subscriberStart[t]; k < subscriberStart[t + 1]; k++) {
+                int a = subscriberAgents[k];
+                if (scheduled[a]) {
+                    continue;
+                }
+                scheduled[a] = true;
+                int l = agentLevel[a];
+                int[] list = waiting[l];
+                if (list == null) {
+                    list = waiting[l] = new int[4];
+                } else if (waitingCount[l] == list.length) {
+                    list = waiting[l] = Arrays.copyOf(list, 2 * list.length);
+                }
+                list[waitingCount[l]++] = a;
+                lowLevel = Math.min(lowLevel, l);
+                highLevel = Math.max(highLevel, l);
+            }
+        }
+
+        boolean defer(Topic topic, Message message) {
+            Integer t = topicIndex.get(topic);
+            // A topic the plan does not know, or one published by an agent that did not
+            // declare it, may have subscribers whose level has passed; deliver it directly
+            if (t == null || minSubscriberLevel[t] <= level) {
+                return false;
+            }
+            topic.setResult(message.asText);
+            store(t, message);
+            return true;
+        }
+
+        void run() {
+            ForkJoinPool pool = wavePool();
+            // Agents only schedule agents on later levels, so highLevel may grow meanwhile
+            for (level = lowLevel; level <= highLevel; level++) {
+                // Earlier levels are done, so this list is final
+                int count = waitingCount[level];
+                if (count == 0) {
+                    continue;
+                }
+                if (count == 1 || pool.getParallelism() == 1) {
+                    fireAll(waiting[level], 0, count);
+                    continue;
+                }
+                // About four tasks per worker; joining the level task is the barrier
+                int grain = Math.max(1, count / (4 * pool.getParallelism()));
+                LevelTask task = new LevelTask(waiting[level], 0, count, grain);
+                if (ForkJoinTask.getPool() == pool) {
+                    task.invoke();
+                } else {
+                    pool.invoke(task);
+                }
+            }
+        }
+
+        // Clears the entries this wave used and returns the arrays to the plan's pool
+        void finish() {
+            for (int i = 0; i < buffers.changedCount; i++) {
+                latest[buffers.changed[i]] = null;
+            }
+            buffers.changedCount = 0;
+            for (int l = lowLevel; l <= highLevel; l++) {
+                for (int k = 0; k < waitingCount[l]; k++) {
+                    scheduled[waiting[l][k]] = false;
+                }
+                waitingCount[l] = 0;
+            }
+            freeBuffers.offer(buffers);
+        }
+
+        // Fires agents[from, to) of a level on the calling thread, with this wave active on it
+        void fireAll(int[] levelAgents, int from, int to) {
+            Wave outer = ACTIVE_WAVE.get();
+            ACTIVE_WAVE.set(this);
+            try {
+                for (int k = from; k < to; k++) {
+                    fire(levelAgents[k]);
+                }
+            } finally {
+                if (outer == null) {
+                    ACTIVE_WAVE.remove();
+                } else {
+                    ACTIVE_WAVE.set(outer);
+                }
+            }
+        }
+
+        // Splits the agents of a level in halves until a part is at most grain agents
+        private final class LevelTask extends RecursiveAction {
+            private static final long serialVersionUID = 1L;
+
+            private final int[] levelAgents;
+            private final int from;
+            private final int to;
+            private final int grain;
+
+            LevelTask(int[] levelAgents, int from, int to, int grain) {
+                this.levelAgents = levelAgents;
+                this.from = from;
+                this.to = to;
+                this.grain = grain;
+            }
+
+            @Override
+            protected void compute() {
+                if (to - from <= grain) {
+                    fireAll(levelAgents, from, to);
+                    return;
+                }
+                int middle = (from + to) >>> 1;
+                invokeAll(new LevelTask(levelAgents, from, middle, grain),
+                        new LevelTask(levelAgents, middle, to, grain));
+            }
+        }
+
+        // Hands an agent the new value of every input that changed, in one call, on
+        // this thread even if the agent is a ParallelAgent
+        void fire(int a) {
+            int changed = 0;
+            int only = -1;
+            for (int k = inputStart[a]; k < inputStart[a + 1]; k++) {
+                if (latest[inputTopics[k]] != null) {
+                    changed++;
+                    only = inputTopics[k];
+                }
+            }
+            Agent agent = agents[a];
+            if (changed == 1) {
+                if (agent instanceof ParallelAgent) {
+                    ((ParallelAgent) agent).callbackNow(topics[only], latest[only]);
+                } else {
+                    agent.callback(topics[only], latest[only]);
+                }
+                return;
+            }
+            Topic[] changedTopics = new Topic[changed];
+            Message[] changedMessages = new Message[changed];
+            int i = 0;
+            for (int k = inputStart[a]; k < inputStart[a + 1]; k++) {
+                int t = inputTopics[k];
+                if (latest[t] != null) {
+                    changedTopics[i] = topics[t];
+                    changedMessages[i] = latest[t];
+                    i++;
+                }
+            }
+            if (agent instanceof ParallelAgent) {
+                ((ParallelAgent) agent).callbackNow(changedTopics, changedMessages);
+            } else {
+                agent.callback(changedTopics, changedMessages);
+            }
+        }
+    }
+
+    // Arrays indexed by topic, agent and level that waves of one plan borrow in
+    // turn; changed lists the topics that have a value in latest
+    private static final class WaveBuffers {
+        final Message[] latest;
+        final boolean[] scheduled;
+        final int[][] waiting;
+        final int[] waitingCount;
+        int[] changed = new int[16];
+        int changedCount;
+
+        WaveBuffers(int topicCount, int agentCount, int levelCount) {
+            latest = new Message[topicCount];
+            scheduled = new boolean[agentCount];
+            waiting = new int[levelCount][];
+            waitingCount = new int[levelCount];
+        }
+
+        void addChanged(int t) {
+            if (changedCount == changed.length) {
+                changed = Arrays.copyOf(changed, 2 * changed.length);
+            }
+            changed[changedCount++] = t;
+        }
+    }
+
+    // A plan together with the structure version it was compiled at; plan is null for a cyclic configuration
+    private static final class Compiled {
+        final long version;
+        final ExecutionPlan plan;
+
+        Compiled(long version, ExecutionPlan plan) {
+            this.version = version;
+            this.plan = plan;
+        }
+    }
+}
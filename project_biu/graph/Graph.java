@@ -3,6 +3,9 @@ package graph;
 import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 
 import org.w3c.dom.Document;
@@ -25,6 +28,9 @@ public class Graph extends ArrayList<Node>{
     // Counter for generating unique vertex identifiers
     // private Integer vertexCount = 1;
     
+    // Marks a node whose edges have all been explored by findCycle
+    private static final int DONE = -1;
+    
     /**
      * Adds a node to the graph
      * @param node the node to add
@@ -39,13 +45,74 @@ public class Graph extends ArrayList<Node>{
      * @return true if cycles are detected, false otherwise
      */
     public boolean hasCycles() {
-        // Iterate through each vertex in the graph
-        for(Node vertex : this) {
-            // Check if this vertex is part of a cycle
-            if(vertex.hasCycles() == true)
-                return true;
+        return !findCycle().isEmpty();
+    }
+    
+    /**
+     * Finds a cycle with one depth-first search over the whole graph, so it takes
+     * time linear in the number of nodes and edges. The search keeps its own stack
+     * instead of recursing, so long chains of agents cannot overflow the call stack.
+     * Edges to nodes that are not in the graph are followed too.
+     * @return the nodes of one cycle in order, each with an edge to the next and the
+     *         last with an edge to the first; an empty list if there are no cycles
+     */
+    public List<Node> findCycle() {
+        // Position on the current path of each node being explored, DONE once finished
+        Map<Node, Integer> state = new IdentityHashMap<>();
+        List<Node> path = new ArrayList<>();
+        List<Iterator<Node>> pendingEdges = new ArrayList<>();
+        
+        for (Node root : this) {
+            if (state.containsKey(root)) {
+                continue;
+            }
+            state.put(root, 0);
+            path.add(root);
+            pendingEdges.add(root.getEdges().iterator());
+            
+            while (!path.isEmpty()) {
+                int top = path.size() - 1;
+                Iterator<Node> edges = pendingEdges.get(top);
+                if (!edges.hasNext()) {
+                    // Every edge of this node is explored; backtrack
+                    state.put(path.remove(top), DONE);
+                    pendingEdges.remove(top);
+                    continue;
+                }
+                Node next = edges.next();
+                Integer position = state.get(next);
+                if (position == null) {
+                    state.put(next, path.size());
+                    path.add(next);
+                    pendingEdges.add(next.getEdges().iterator());
+                } else if (position != DONE) {
+                    // An edge back to a node on the current path closes a cycle
+                    return new ArrayList<>(path.subList(position, path.size()));
+                }
+            }
+        }
+        return new ArrayList<>();
+    }
+    
+    /**
+     * Compiles the current topics and agents of the TopicManager into an execution
+     * plan that evaluates them level by level (see ExecutionPlan). This graph is
+     * filled from the topics first, as createFromTopics does, to check for cycles.
+     * @return the plan
+     * @throws IllegalStateException if the configuration has a cycle, naming its nodes
+     */
+    public ExecutionPlan compileExecutionPlan() {
+        createFromTopics();
+        List<Node> cycle = findCycle();
+        if (!cycle.isEmpty()) {
+            StringBuilder names = new StringBuilder();
+            for (Node node : cycle) {
+                names.append(node.getName()).append(" -> ");
+            }
+            names.append(cycle.get(0).getName());
+            throw new IllegalStateException("Cannot plan a configuration with a cycle: " + names);
         }
-        return false;
+        return ExecutionPlan.compile(TopicManagerSingleton.get().getTopics());
     }
     
     /**
@@ -7,28 +7,30 @@ package graph;
  */
 public class IncAgent implements Agent {
     
-    private String[] subs;  // Topics to subscribe to
-    private String[] pubs;  // Topics to publish to
     private String name;    // Agent name
     
+    // Topics resolved once at construction (null when subs/pubs are empty)
+    private Topic inTopic;
+    private Topic outTopic;
+    
     /**
      * Constructor for IncAgent
      * @param subs Array of topic names to subscribe to (expects at least 1)
      * @param pubs Array of topic names to publish to (expects at least 1)
      */
     public IncAgent(String[] subs, String[] pubs) {
-        this.subs = subs;
-        this.pubs = pubs;
         this.name = "IncAgent";
         
         // Subscribe to the first topic from subs array
         if (subs.length >= 1) {
-            TopicManagerSingleton.get().getTopic(subs[0]).subscribe(this);
+            this.inTopic = TopicManagerSingleton.get().getTopic(subs[0]);
+            inTopic.subscribe(this);
         }
         
         // Register as publisher for the first topic in pubs array
         if (pubs.length >= 1) {
-            TopicManagerSingleton.get().getTopic(pubs[0]).addPublisher(this);
+            this.outTopic = TopicManagerSingleton.get().getTopic(pubs[0]);
+            outTopic.addPublisher(this);
         }
     }
 
@@ -42,17 +44,35 @@ public class IncAgent implements Agent {
         // No internal state to reset for IncAgent
     }
 
+    @Override
+    public void callback(Topic topic, Message msg) {
+        // The input topic is bound at construction, so identity identifies it
+        if (topic == inTopic) {
+            onInput(msg);
+        }
+    }
+
     @Override
     public void callback(String topic, Message msg) {
+        if (inTopic != null && topic.equals(inTopic.name)) {
+            onInput(msg);
+        }
+    }
+
+    /**
+     * Publishes the input plus one if the message contains a valid number.
+     * @param msg The received message
+     */
+    private void onInput(Message msg) {
         // Check if the message contains a valid number
         if (!Double.isNaN(msg.asDouble)) {
             // Increment the value by 1
             double result = msg.asDouble + 1.0;
-            Message resultMsg = new Message(result);
+            Message resultMsg = Message.of(result);
             
             // Publish to the first topic in pubs array
-            if (pubs.length >= 1) {
-                TopicManagerSingleton.get().getTopic(pubs[0]).publish(resultMsg);
+            if (outTopic != null) {
+                outTopic.publish(resultMsg);
             }
         }
     }
@@ -61,13 +81,13 @@ public class IncAgent implements Agent {
     public void close() {
         // Clean up resources if needed
         // Unsubscribe from topics
-        if (subs.length >= 1) {
-            TopicManagerSingleton.get().getTopic(subs[0]).unsubscribe(this);
+        if (inTopic != null) {
+            inTopic.unsubscribe(this);
         }
         
         // Remove as publisher
-        if (pubs.length >= 1) {
-            TopicManagerSingleton.get().getTopic(pubs[0]).removePublisher(this);
+        if (outTopic != null) {
+            outTopic.removePublisher(this);
         }
     }
 }
@@ -1,5 +1,6 @@
 package graph;
 
+import java.nio.charset.StandardCharsets;
 import java.util.Date;
 
 /**
@@ -8,6 +9,14 @@ import java.util.Date;
  * to allow flexible message handling across different types of agents.
  * 
  * The Message class is immutable - all fields are final and cannot be modified after creation.
+ * 
+ * Numeric messages (the common case for agents) are built directly from the double value:
+ * the text form is formatted once and never parsed back, and the binary form is encoded
+ * without a charset lookup since Double.toString only produces ASCII.
+ * 
+ * Agents that publish a number on every hop use {@link #of(double)}, which takes the text
+ * of recently seen values from a small cache instead of formatting them again. Only the
+ * immutable String is shared; every message still gets its own byte array and Date.
  */
 public class Message {
 
@@ -34,27 +43,27 @@ public class Message {
      * The timestamp when this message was created.
      * Automatically set to the current date and time during message construction.
      */
-    public final Date date;    /**
+    public final Date date;
+
+    /**
+     * Number of slots in the cache of numeric texts used by of(double); a power of two.
+     */
+    private static final int NUMBER_CACHE_SIZE = 256;
+
+    /**
+     * Text of recently formatted values, indexed by a hash of the value's bits.
+     * Entries are immutable, so a slot replaced by another thread is at worst a miss.
+     */
+    private static final CachedNumber[] NUMBER_CACHE = new CachedNumber[NUMBER_CACHE_SIZE];
+
+    /**
      * Creates a new Message from a string input.
      * This is the primary constructor that initializes all message representations.
      * 
      * @param newMessage The string content of the message
      */
     public Message(String newMessage) {
-        this.asText = newMessage;
-
-        // Attempt to parse the string as a double for numeric operations
-        // If parsing fails, asDouble will be set to NaN to indicate non-numeric content
-        double tempDouble;
-        try {
-            tempDouble = Double.parseDouble(newMessage);
-        } catch (NumberFormatException e) {
-            tempDouble = Double.NaN;
-        }
-
-        this.asDouble = tempDouble;
-        this.date = new Date(); // Capture the current timestamp
-        this.data = newMessage.getBytes(); // Convert to binary representation
+        this(newMessage, parseNumber(newMessage), newMessage.getBytes());
     }
 
     /**
@@ -69,12 +78,94 @@ public class Message {
 
     /**
      * Creates a new Message from a numeric input.
-     * This constructor converts the double to its string representation and delegates 
-     * to the string constructor. The asDouble field will contain the original numeric value.
+     * The asDouble field holds the original value as-is; the text and binary forms are
+     * derived from Double.toString without a round trip through Double.parseDouble.
      * 
      * @param newMessage The numeric value to create the message from
      */
     public Message(double newMessage) {
-        this(Double.toString(newMessage));
+        this(Double.toString(newMessage), newMessage);
+    }
+
+    /**
+     * Numeric fast path: the text is known to be the ASCII rendering of value.
+     */
+    private Message(String text, double value) {
+        this(text, value, text.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Initializes all representations from already computed values.
+     */
+    private Message(String text, double value, byte[] bytes) {
+        this.asText = text;
+        this.asDouble = value;
+        this.date = new Date(); // Capture the current timestamp
+        this.data = bytes;
+    }
+
+    /**
+     * Returns a message for a numeric value, like new Message(value), but reusing the
+     * text of a recently seen equal value instead of formatting it again.
+     * 
+     * @param value The numeric value of the message
+     * @return A message whose asDouble is value
+     */
+    public static Message of(double value) {
+        long bits = Double.doubleToLongBits(value);
+        // Fibonacci hashing: small whole numbers differ only in their high bits
+        int slot = (Long.hashCode(bits) * 0x9E3779B9) >>> (32 - Integer.numberOfTrailingZeros(NUMBER_CACHE_SIZE));
+        CachedNumber cached = NUMBER_CACHE[slot];
+        if (cached == null || cached.bits != bits) {
+            cached = new CachedNumber(bits, Double.toString(value));
+            NUMBER_CACHE[slot] = cached;
+        }
+        return new Message(cached.text, value);
+    }
+
+    /**
+     * Attempts to parse the string as a double for numeric operations.
+     * If parsing fails, NaN is returned to indicate non-numeric content.
+     * 
+     * Text that cannot start a number is rejected up front so that ordinary
+     * text messages do not pay for a NumberFormatException.
+     * 
+     * @param text The message text
+     * @return The numeric value, or Double.NaN if the text is not a number
+     */
+    private static double parseNumber(String text) {
+        // Double.parseDouble ignores leading whitespace, so skip it here as well
+        int i = 0;
+        while (i < text.length() && text.charAt(i) <= ' ') {
+            i++;
+        }
+        if (i == text.length()) {
+            return Double.NaN;
+        }
+        char first = text.charAt(i);
+        boolean mayBeNumber = (first >= '0' && first <= '9')
+                || first == '+' || first == '-' || first == '.'
+                || first == 'N' || first == 'I'; // NaN, Infinity
+        if (!mayBeNumber) {
+            return Double.NaN;
+        }
+        try {
+            return Double.parseDouble(text);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * The text of one double value, keyed by its bits.
+     */
+    private static final class CachedNumber {
+        final long bits;
+        final String text;
+
+        CachedNumber(long bits, String text) {
+            this.bits = bits;
+            this.text = text;
+        }
     }
 }
@@ -83,50 +83,13 @@ public class Node {
     }
 
     /**
-     * Determines if this node is part of any cycle in the graph.
-     * Uses depth-first search with recursion stack tracking.
+     * Determines if a cycle can be reached from this node.
+     * Uses the iterative search of {@link Graph#findCycle()}, starting at this node.
      * @return true if a cycle is detected, false otherwise
      */
     public boolean hasCycles() {
-        // Track all nodes visited during the entire search
-        Set<Node> visitedNodes = new HashSet<>();
-        // Track nodes in the current recursive path
-        Set<Node> currentPath = new HashSet<>();
-
-        // Use depth-first search to detect cycles
-        return detectCycle(this, visitedNodes, currentPath);
-    }
-
-    /**
-     * Helper method that performs depth-first search to detect cycles.
-     * A cycle exists if we encounter a node that's already in our current path.
-     * @param node The current node being processed
-     * @param visitedNodes Set of all nodes visited so far
-     * @param currentPath Set of nodes in the current recursive path
-     * @return true if a cycle is found, false otherwise
-     */
-    private boolean detectCycle(Node node, Set<Node> visitedNodes, Set<Node> currentPath) {
-        // Mark current node as visited and add to current path
-        visitedNodes.add(node);
-        currentPath.add(node);
-
-        // Check all connected nodes
-        for (Node connectedNode : node.getEdges()) {
-            // If connected node hasn't been visited, continue DFS
-            if (!visitedNodes.contains(connectedNode)) {
-                if (detectCycle(connectedNode, visitedNodes, currentPath)) {
-                    return true; // Cycle found in recursive call
-                }
-            }
-            // If connected node is in current path, cycle found
-            else if (currentPath.contains(connectedNode)) {
-                return true; // Back edge detected - cycle exists
-            }
-        }
-
-        // Remove current node from path before backtracking
-        // This is crucial for proper cycle detection
-        currentPath.remove(node);
-        return false; // No cycle found from this path
+        Graph reachable = new Graph();
+        reachable.add(this);
+        return !reachable.findCycle().isEmpty();
     }
 }
\ No newline at end of file
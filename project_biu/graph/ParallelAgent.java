@@ -2,37 +2,117 @@ package graph;
 
 import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * Decorates an agent with a bounded mailbox so that callbacks are processed
+ * asynchronously and in arrival order.
+ *
+ * The mailbox is drained either by a dedicated worker thread (the default) or
+ * by a shared scheduler passed to the constructor. With a shared scheduler at
+ * most one drain task per agent is queued or running at any time, so the
+ * wrapped agent still sees its messages one at a time in FIFO order, while
+ * thousands of agents share a handful of pool threads. On a runtime with
+ * virtual threads, virtualThreadScheduler() gives every drain task its own
+ * virtual thread instead.
+ *
+ * The mailbox only receives messages when this ParallelAgent, rather than the
+ * agent it wraps, is subscribed to a topic. Agents that subscribe themselves,
+ * as the agents GenericConfig loads do, are called directly by Topic.publish.
+ *
+ * An ExecutionPlan does not use the mailbox: inside a wave it calls the
+ * wrapped agent on the wave's own thread (see callbackNow), so the agent
+ * fires once per wave with all of its changed inputs and what it publishes
+ * stays part of the wave. Mailbox deliveries and wave calls hold the same
+ * lock, so the wrapped agent still sees one message at a time.
+ */
 public class ParallelAgent implements Agent {
-    
+
+    // Maximum number of messages handled per drain task before yielding the
+    // pool thread to other agents
+    private static final int DRAIN_BATCH = 64;
+
+    // Lazily created pool returned by sharedScheduler()
+    private static ForkJoinPool sharedPool;
+
+    // Lazily created executor returned by virtualThreadScheduler()
+    private static Executor virtualPool;
+
     private final Agent agent;
     private final BlockingQueue<MessageTask> queue;
-    private final Thread workerThread;
+    private final Thread workerThread;      // null when a scheduler is used
+    private final Executor scheduler;       // null when a worker thread is used
+    private final AtomicBoolean scheduled;  // true while a drain task is pending
+    private final Object deliverLock;       // held while the wrapped agent handles a message
     private volatile boolean running;
-    
+
     // Inner class to hold the message and topic together
+    // (resolvedTopic is set when the message came from Topic.publish)
     private static class MessageTask {
         final String topic;
+        final Topic resolvedTopic;
         final Message message;
-        
-        MessageTask(String topic, Message message) {
+
+        MessageTask(String topic, Topic resolvedTopic, Message message) {
             this.topic = topic;
+            this.resolvedTopic = resolvedTopic;
             this.message = message;
         }
     }
-    
+
+    // Lets a ForkJoinPool add a spare worker while a pool thread waits on a
+    // full mailbox, so a chain of busy agents cannot starve the pool
+    private static class PutBlocker implements ForkJoinPool.ManagedBlocker {
+        private final BlockingQueue<MessageTask> queue;
+        private final MessageTask task;
+        private boolean done;
+
+        PutBlocker(BlockingQueue<MessageTask> queue, MessageTask task) {
+            this.queue = queue;
+            this.task = task;
+        }
+
+        @Override
+        public boolean block() throws InterruptedException {
+            if (!done) {
+                queue.put(task);
+                done = true;
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return done || (done = queue.offer(task));
+        }
+    }
+
+    /**
+     * Creates a ParallelAgent backed by its own worker thread.
+     * @param agent The agent to decorate
+     * @param capacity The mailbox capacity
+     */
     public ParallelAgent(Agent agent, int capacity) {
         this.agent = agent;
         this.queue = new ArrayBlockingQueue<>(capacity);
+        this.scheduler = null;
+        this.scheduled = null;
+        this.deliverLock = new Object();
         this.running = true;
-        
+
         // Create and start the worker thread
         this.workerThread = new Thread(() -> {
             while (running) {
                 try {
                     MessageTask task = queue.take();
                     if (task != null) {
-                        agent.callback(task.topic, task.message);
+                        synchronized (deliverLock) {
+                            deliver(task);
+                        }
                     }
                 } catch (InterruptedException e) {
                     // Thread was interrupted, exit gracefully
@@ -41,37 +121,191 @@ public class ParallelAgent implements Agent {
                 }
             }
         });
-        
+
         this.workerThread.start();
     }
-    
+
+    /**
+     * Creates a ParallelAgent whose mailbox is drained by the given scheduler
+     * instead of a dedicated thread. No thread is started by this constructor.
+     * @param agent The agent to decorate
+     * @param capacity The mailbox capacity
+     * @param scheduler The executor that runs drain tasks, e.g. sharedScheduler()
+     */
+    public ParallelAgent(Agent agent, int capacity, Executor scheduler) {
+        if (scheduler == null) {
+            throw new IllegalArgumentException("scheduler must not be null");
+        }
+        this.agent = agent;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.workerThread = null;
+        this.scheduler = scheduler;
+        this.scheduled = new AtomicBoolean(false);
+        this.deliverLock = new Object();
+        this.running = true;
+    }
+
+    /**
+     * Returns the process-wide work-stealing pool used to drain ParallelAgent
+     * mailboxes. It has one daemon worker per available processor and runs
+     * drain tasks in FIFO order; idle workers are retired automatically.
+     * @return The shared scheduler
+     */
+    public static synchronized Executor sharedScheduler() {
+        if (sharedPool == null) {
+            sharedPool = new ForkJoinPool(Runtime.getRuntime().availableProcessors(),
+                    ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        }
+        return sharedPool;
+    }
+
+    /**
+     * Returns a process-wide executor that runs each drain task on a new
+     * virtual thread. Virtual threads are looked up reflectively, so the
+     * class still runs on older runtimes; there the shared work-stealing
+     * pool of sharedScheduler() is returned instead.
+     * @return The virtual thread scheduler, or the shared scheduler
+     */
+    public static synchronized Executor virtualThreadScheduler() {
+        if (virtualPool == null) {
+            try {
+                virtualPool = (Executor) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                virtualPool = sharedScheduler();
+            }
+        }
+        return virtualPool;
+    }
+
     @Override
     public String getName() {
         return agent.getName();
     }
-    
+
     @Override
     public void reset() {
         agent.reset();
     }
-    
+
     @Override
     public void callback(String topic, Message msg) {
+        enqueue(new MessageTask(topic, null, msg));
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        enqueue(new MessageTask(topic.name, topic, msg));
+    }
+
+    /**
+     * Returns the agent this ParallelAgent decorates.
+     */
+    Agent getWrapped() {
+        return agent;
+    }
+
+    /**
+     * Called by an ExecutionPlan wave: hands a message to the wrapped agent on
+     * the calling thread instead of queueing it, once no mailbox message is
+     * being delivered. Does nothing after close().
+     */
+    void callbackNow(Topic topic, Message msg) {
+        synchronized (deliverLock) {
+            if (running) {
+                agent.callback(topic, msg);
+            }
+        }
+    }
+
+    /**
+     * Called by an ExecutionPlan wave: hands the changed inputs of a wave to
+     * the wrapped agent in one call, on the calling thread. Does nothing after
+     * close().
+     */
+    void callbackNow(Topic[] topics, Message[] msgs) {
+        synchronized (deliverLock) {
+            if (running) {
+                agent.callback(topics, msgs);
+            }
+        }
+    }
+
+    private void enqueue(MessageTask task) {
         try {
-            queue.put(new MessageTask(topic, msg));
+            if (scheduler == null) {
+                queue.put(task);
+                return;
+            }
+            if (!running) {
+                return;
+            }
+            ForkJoinPool.managedBlock(new PutBlocker(queue, task));
+            schedule();
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
     }
-    
+
+    private void deliver(MessageTask task) {
+        if (task.resolvedTopic != null) {
+            agent.callback(task.resolvedTopic, task.message);
+        } else {
+            agent.callback(task.topic, task.message);
+        }
+    }
+
+    // Submits a drain task unless one is already pending for this agent
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                scheduler.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                scheduled.set(false);
+                throw e;
+            }
+        }
+    }
+
+    // Delivers up to DRAIN_BATCH messages, then reschedules if more arrived
+    private void drain() {
+        try {
+            synchronized (deliverLock) {
+                for (int i = 0; i < DRAIN_BATCH && running; i++) {
+                    MessageTask task = queue.poll();
+                    if (task == null) {
+                        break;
+                    }
+                    deliver(task);
+                }
+            }
+        } finally {
+            scheduled.set(false);
+        }
+        // A message may have been enqueued after the last poll but before the
+        // flag was cleared; its sender saw scheduled == true and did not submit
+        if (running && !queue.isEmpty()) {
+            schedule();
+        }
+    }
+
     @Override
     public void close() {
         running = false;
-        workerThread.interrupt();
-        try {
-            workerThread.join();
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
+        if (workerThread != null) {
+            workerThread.interrupt();
+            try {
+                workerThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        } else {
+            queue.clear();
+            // Wait for a drain task that is already delivering to finish
+            synchronized (deliverLock) {
+                // nothing to do
+            }
         }
         agent.close();
     }
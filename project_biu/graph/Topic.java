@@ -1,7 +1,10 @@
 package graph;
 
-import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a communication topic in a publish-subscribe messaging system.
@@ -14,6 +17,13 @@ import java.util.List;
  * 
  * This implementation follows the Observer pattern, where the topic notifies
  * all subscribers when a new message is published.
+ * 
+ * Subscribers and publishers are held in copy-on-write arrays: mutators build a
+ * new array and swap it in under the topic's lock, while publish() reads the
+ * current snapshot with a single volatile load and never blocks. A publish that
+ * races with subscribe/unsubscribe delivers to either the old or the new set,
+ * never a torn one. Storing the published value takes no lock either; see
+ * storeResult.
  */
 public class Topic {
 
@@ -24,31 +34,54 @@ public class Topic {
     public final String name;
     
     /**
-     * List of agents that are subscribed to receive messages from this topic.
-     * When a message is published, all subscribers in this list will be notified.
+     * Change sequence reported while a new result is being stored, so readers
+     * that compare it with an earlier sequence number always include the topic.
+     */
+    private static final long STORING = Long.MAX_VALUE;
+
+    /**
+     * Shared empty snapshot used for topics with no subscribers or publishers.
+     */
+    private static final Agent[] NO_AGENTS = new Agent[0];
+
+    /**
+     * Immutable snapshot of the agents subscribed to this topic.
+     * The array is never modified in place; subscribe/unsubscribe replace it.
      */
-    private List<Agent> subscribers;
+    private volatile Agent[] subscribers = NO_AGENTS;
     
     /**
-     * List of agents that are authorized to publish messages to this topic.
+     * Immutable snapshot of the agents that publish to this topic.
      * This list is maintained for tracking and potential access control purposes.
      */
-    private List<Agent> publishers;
+    private volatile Agent[] publishers = NO_AGENTS;
 
     /**
      * Stores the text content of the most recently published message.
      * This allows quick access to the lagraph state/value of the topic.
      */
-    private String result = "";    /**
+    private volatile String result = "";
+
+    /**
+     * The highest TopicManager value sequence number stamped on a change to
+     * result, or 0 if it was never set.
+     */
+    private final AtomicLong changeSequence = new AtomicLong();
+
+    /**
+     * Number of storeResult calls that are between writing result and stamping it.
+     * While it is not 0 the topic reports STORING as its change sequence.
+     */
+    private final AtomicInteger storing = new AtomicInteger();
+
+    /**
      * Creates a new Topic with the specified name.
-     * Initializes empty lists for subscribers and publishers.
+     * Subscribers and publishers start out empty.
      * 
      * @param name The unique identifier for this topic
      */
     Topic(String name){
         this.name = name;
-        this.subscribers = new ArrayList<Agent>();
-        this.publishers = new ArrayList<Agent>();
     }
 
     // ==================== Subscription Management ====================
@@ -59,8 +92,9 @@ public class Topic {
      * 
      * @param agent The agent to subscribe to this topic
      */
-    public void subscribe(Agent agent){
-        this.subscribers.add(agent);
+    public synchronized void subscribe(Agent agent){
+        this.subscribers = append(this.subscribers, agent);
+        TopicManagerSingleton.get().structureChanged();
     }
     
     /**
@@ -69,8 +103,9 @@ public class Topic {
      * 
      * @param agent The agent to unsubscribe from this topic
      */
-    public void unsubscribe(Agent agent){
-        this.subscribers.remove(agent);
+    public synchronized void unsubscribe(Agent agent){
+        this.subscribers = remove(this.subscribers, agent);
+        TopicManagerSingleton.get().structureChanged();
     }
 
     // ==================== Message Publishing ====================
@@ -81,17 +116,27 @@ public class Topic {
      * 1. Updates the topic's result with the message content
      * 2. Notifies all subscribed agents about the new message
      * 
-     * Each subscriber's callback method is invoked with the topic name and message.
+     * Each subscriber's callback method is invoked with this topic and the message.
+     * While an {@link ExecutionPlan} wave runs on the calling thread, the plan
+     * stores the message and delivers it itself.
      * 
      * @param message The message to publish to all subscribers
      */
     public void publish(Message message){
+        // Inside a wave of an ExecutionPlan, the plan delivers the message when
+        // the subscribers' level comes
+        if(ExecutionPlan.defer(this, message)){
+            return;
+        }
+
         // Store the lagraph message content for quick access
         setResult(message.asText);
 
-        // Notify all subscribers about the new message
-        for(Agent agent : this.subscribers){
-            agent.callback(this.name, message);
+        // Notify all subscribers in the current snapshot; later changes
+        // to the subscription set do not affect this delivery
+        Agent[] snapshot = this.subscribers;
+        for(int i = 0; i < snapshot.length; i++){
+            snapshot[i].callback(this, message);
         }
     }
 
@@ -103,8 +148,9 @@ public class Topic {
      * 
      * @param agent The agent to add as a publisher
      */
-    public void addPublisher(Agent agent){
-        this.publishers.add(agent);
+    public synchronized void addPublisher(Agent agent){
+        this.publishers = append(this.publishers, agent);
+        TopicManagerSingleton.get().structureChanged();
     }
 
     /**
@@ -112,28 +158,33 @@ public class Topic {
      * 
      * @param agent The agent to remove as a publisher
      */
-    public void removePublisher(Agent agent){
-        this.publishers.remove(agent);
+    public synchronized void removePublisher(Agent agent){
+        this.publishers = remove(this.publishers, agent);
+        TopicManagerSingleton.get().structureChanged();
     }
 
     // ==================== Getter Methods ====================
     
     /**
      * Returns a list of all agents that are authorized to publish to this topic.
+     * The list is a read-only view of the current snapshot and does not change
+     * when publishers are added or removed later.
      * 
      * @return List of publisher agents
      */
     public List<Agent> getPublishers(){
-        return this.publishers;
+        return Collections.unmodifiableList(Arrays.asList(this.publishers));
     }
     
     /**
      * Returns a list of all agents that are subscribed to receive messages from this topic.
+     * The list is a read-only view of the current snapshot and does not change
+     * when subscribers are added or removed later.
      * 
      * @return List of subscriber agents
      */
     public List<Agent> getSubscribers(){
-        return this.subscribers;
+        return Collections.unmodifiableList(Arrays.asList(this.subscribers));
     }
 
     /**
@@ -153,6 +204,82 @@ public class Topic {
      * @param anyResult The string content to store as the lagraph result
      */
     public void setResult(String anyResult){
-        this.result = anyResult;
+        TopicManagerSingleton.get().recordValue(this, anyResult);
+    }
+
+    /**
+     * Returns the value sequence number of the last change to this topic's result.
+     * Compare it with {@link TopicManagerSingleton.TopicManager#getValueSequence()}
+     * to find topics that changed since an earlier point.
+     * 
+     * @return The sequence number of the last result change, 0 if never set, or
+     *         Long.MAX_VALUE while a new result is being stored
+     */
+    public long getChangeSequence() {
+        // Read storing first: once it is back to 0, every stamp taken before is in changeSequence
+        if (this.storing.get() != 0) {
+            return STORING;
+        }
+        return this.changeSequence.get();
+    }
+
+    /**
+     * Stores a result and stamps it with the next number of the TopicManager's
+     * value sequence, without taking a lock. The result is written before the
+     * number is taken, so a reader that saw the number also sees the result, and
+     * until the stamp is in changeSequence the topic reports STORING. Concurrent
+     * publishers of the same topic raise changeSequence to the highest stamp with
+     * a CAS loop, so it never goes back.
+     */
+    void storeResult(String anyResult, AtomicLong sequence){
+        this.storing.incrementAndGet();
+        try {
+            this.result = anyResult;
+            long stamp = sequence.incrementAndGet();
+            long current = this.changeSequence.get();
+            while (current < stamp && !this.changeSequence.compareAndSet(current, stamp)) {
+                current = this.changeSequence.get();
+            }
+        } finally {
+            this.storing.decrementAndGet();
+        }
+    }
+
+    // ==================== Copy-on-write Helpers ====================
+
+    /**
+     * Returns a new array holding the given agents followed by the added agent.
+     * 
+     * @param agents The current snapshot
+     * @param agent The agent to append
+     * @return A new snapshot including the agent
+     */
+    private static Agent[] append(Agent[] agents, Agent agent){
+        Agent[] updated = Arrays.copyOf(agents, agents.length + 1);
+        updated[agents.length] = agent;
+        return updated;
+    }
+
+    /**
+     * Returns a new array without the first occurrence of the given agent,
+     * matching the semantics of List.remove(Object).
+     * 
+     * @param agents The current snapshot
+     * @param agent The agent to remove
+     * @return A new snapshot without the agent, or the same array if it was not present
+     */
+    private static Agent[] remove(Agent[] agents, Agent agent){
+        for(int i = 0; i < agents.length; i++){
+            if(agents[i] == agent || (agent != null && agent.equals(agents[i]))){
+                if(agents.length == 1){
+                    return NO_AGENTS;
+                }
+                Agent[] updated = new Agent[agents.length - 1];
+                System.arraycopy(agents, 0, updated, 0, i);
+                System.arraycopy(agents, i + 1, updated, i, agents.length - i - 1);
+                return updated;
+            }
+        }
+        return agents;
     }
 }
\ No newline at end of file
@@ -2,6 +2,10 @@ package graph;
 
 import java.util.Collection;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Singleton wrapper class that provides global access to the TopicManager instance.
@@ -33,6 +37,28 @@ public class TopicManagerSingleton {
          */
         private ConcurrentHashMap<String, Topic> map;
 
+        /**
+         * Counts changes to the wiring of the system: topics created or cleared and
+         * agents subscribing, unsubscribing, or registering as publishers. Views that
+         * derive a graph from the topics can cache it until this number changes.
+         */
+        private final AtomicLong structureVersion = new AtomicLong();
+
+        /**
+         * Sequence number handed out to each topic value change, so clients can ask
+         * for the values that changed since a sequence number they saw earlier.
+         * Each topic stamps its own change with the next number; see Topic.storeResult.
+         */
+        private final AtomicLong valueSequence = new AtomicLong();
+
+        /**
+         * One-shot gate that threads in awaitValueChange() wait on, or null while
+         * nobody waits. The first value change after a waiter installs it opens it
+         * and clears it, so a burst of changes wakes each waiter once and other
+         * publishers only read this field.
+         */
+        private final AtomicReference<CountDownLatch> valueGate = new AtomicReference<>();
+
         /**
          * Private constructor to prevent external instantiation (Singleton pattern).
          * Initializes the thread-safe map for storing topics.
@@ -47,13 +73,50 @@ public class TopicManagerSingleton {
          * This method is thread-safe and uses the ConcurrentHashMap's computeIfAbsent
          * method to ensure that topic creation is atomic. If multiple threads request
          * the same topic simultaneously, only one topic will be created.
+         * The structure version is bumped after the new topic is in the map, so a
+         * view built for the new version always contains it.
          * 
          * @param topicName The name of the topic to retrieve or create
          * @return The Topic object associated with the given name
          */
         public Topic getTopic(String topicName) {
+            Topic topic = map.get(topicName);
+            if (topic != null) {
+                return topic;
+            }
             // Use computeIfAbsent for thread-safe lazy initialization of topics
-            return map.computeIfAbsent(topicName, name -> new Topic(name));
+            boolean[] created = new boolean[1];
+            topic = map.computeIfAbsent(topicName, name -> {
+                created[0] = true;
+                return new Topic(name);
+            });
+            if (created[0]) {
+                structureChanged();
+            }
+            return topic;
+        }
+
+        /**
+         * Returns the topic with the given name if it exists, without creating it.
+         * 
+         * Unlike {@link #getTopic(String)} this has no side effects, so it is the
+         * lookup to use for names that come from clients.
+         * 
+         * @param topicName The name of the topic to look up
+         * @return The Topic with that name, or null if there is none
+         */
+        public Topic findTopic(String topicName) {
+            return map.get(topicName);
+        }
+
+        /**
+         * Checks whether a topic with the given name exists, without creating it.
+         * 
+         * @param topicName The name of the topic to look for
+         * @return true if the topic exists
+         */
+        public boolean containsTopic(String topicName) {
+            return map.containsKey(topicName);
         }
 
         /**
@@ -78,6 +141,81 @@ public class TopicManagerSingleton {
          */
         public void clear(){
             map.clear();
+            structureChanged();
+        }
+
+        /**
+         * Returns the current structure version. The value increases whenever a topic
+         * is created, the manager is cleared, or an agent subscribes to, unsubscribes
+         * from, or is added to or removed from the publishers of a topic. Publishing
+         * messages does not change it.
+         * 
+         * @return A number that changes whenever the topic/agent wiring changes
+         */
+        public long getStructureVersion() {
+            return structureVersion.get();
+        }
+
+        /**
+         * Returns the sequence number of the latest topic value change. Every topic
+         * whose {@link Topic#getChangeSequence()} is greater than a number returned
+         * earlier has changed since then. A change numbered at or below the returned
+         * number is either visible to the caller already, or its topic still reports
+         * a change sequence above the number until it is.
+         * 
+         * @return The latest value sequence number, or 0 if no value was set yet
+         */
+        public long getValueSequence() {
+            return valueSequence.get();
+        }
+
+        /**
+         * Stores a new value in a topic under the next value sequence number.
+         */
+        void recordValue(Topic topic, String value) {
+            topic.storeResult(value, valueSequence);
+            CountDownLatch gate = valueGate.get();
+            if (gate != null && valueGate.compareAndSet(gate, null)) {
+                gate.countDown();
+            }
+        }
+
+        /**
+         * Blocks until a topic value changes after the given sequence number, or
+         * until the timeout elapses. Returns immediately if a change already happened.
+         * 
+         * @param since A sequence number from {@link #getValueSequence()}
+         * @param timeoutMillis The longest time to wait, in milliseconds
+         * @return The current value sequence; equal to since if the wait timed out
+         * @throws InterruptedException if the thread is interrupted while waiting
+         */
+        public long awaitValueChange(long since, long timeoutMillis) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            long remaining = timeoutMillis;
+            while (valueSequence.get() <= since && remaining > 0) {
+                CountDownLatch gate = valueGate.get();
+                if (gate == null) {
+                    gate = new CountDownLatch(1);
+                    if (!valueGate.compareAndSet(null, gate)) {
+                        continue;
+                    }
+                }
+                // Checking again after the gate is in place pairs with recordValue(),
+                // which increments the sequence before opening the gate: one sees the other
+                if (valueSequence.get() > since) {
+                    break;
+                }
+                gate.await(remaining, TimeUnit.MILLISECONDS);
+                remaining = deadline - System.currentTimeMillis();
+            }
+            return getValueSequence();
+        }
+
+        /**
+         * Records a change to the topic/agent wiring.
+         */
+        void structureChanged() {
+            structureVersion.incrementAndGet();
         }
     }
 
@@ -0,0 +1,158 @@
+package graph;
+
+import java.util.function.DoubleBinaryOperator;
+
+/**
+ * Base class for the agents that combine two input values x and y.
+ * It subscribes to the first two topics from the subs array and publishes
+ * the result of its operation to the first topic in the pubs array,
+ * once both operands have arrived.
+ */
+public abstract class TwoOperandAgent implements Agent {
+    
+    // Input topic names, kept only for the name-based callback(String, Message)
+    private String[] subs;
+    private String name;    // Agent name
+    private DoubleBinaryOperator operation;  // Combines the two operands
+    
+    // Topics resolved once at construction, so callbacks and publishing
+    // need no name lookups (null when subs/pubs are too short)
+    private Topic xTopic;
+    private Topic yTopic;
+    private Topic outTopic;
+    
+    // Internal values for the two operands
+    private double x = 0.0;
+    private double y = 0.0;
+    
+    // Flags to track if values have been received
+    private boolean xReceived = false;
+    private boolean yReceived = false;
+    
+    /**
+     * Constructor for the concrete agents
+     * @param name Agent name
+     * @param subs Array of topic names to subscribe to (expects at least 2)
+     * @param pubs Array of topic names to publish to (expects at least 1)
+     * @param operation Computes the result from the operands x and y
+     */
+    protected TwoOperandAgent(String name, String[] subs, String[] pubs, DoubleBinaryOperator operation) {
+        this.subs = subs;
+        this.name = name;
+        this.operation = operation;
+        
+        // Subscribe to the first two topics from subs array
+        if (subs.length >= 2) {
+            this.xTopic = TopicManagerSingleton.get().getTopic(subs[0]);
+            this.yTopic = TopicManagerSingleton.get().getTopic(subs[1]);
+            xTopic.subscribe(this);
+            yTopic.subscribe(this);
+        }
+        
+        // Register as publisher for the first topic in pubs array
+        if (pubs.length >= 1) {
+            this.outTopic = TopicManagerSingleton.get().getTopic(pubs[0]);
+            outTopic.addPublisher(this);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return this.name;
+    }
+
+    @Override
+    public void reset() {
+        this.x = 0.0;
+        this.y = 0.0;
+        this.xReceived = false;
+        this.yReceived = false;
+    }
+
+    @Override
+    public void callback(Topic topic, Message msg) {
+        // The input topics are bound at construction, so identity tells the operands apart
+        onInput(topic == xTopic, topic == yTopic, msg);
+    }
+
+    @Override
+    public void callback(String topic, Message msg) {
+        // Determine which operand to update based on the topic name
+        if (subs.length >= 2) {
+            onInput(topic.equals(subs[0]), topic.equals(subs[1]), msg);
+        }
+    }
+
+    @Override
+    public void callback(Topic[] topics, Message[] messages) {
+        // Both operands can change in one wave; store them all, then publish once
+        boolean stored = false;
+        for (int i = 0; i < topics.length; i++) {
+            stored |= store(topics[i] == xTopic, topics[i] == yTopic, messages[i]);
+        }
+        if (stored) {
+            publishResult();
+        }
+    }
+
+    /**
+     * Stores an operand and publishes the result once both operands have arrived.
+     * @param isX true if the message arrived on the first input topic
+     * @param isY true if the message arrived on the second input topic
+     * @param msg The received message
+     */
+    private void onInput(boolean isX, boolean isY, Message msg) {
+        if (store(isX, isY, msg)) {
+            publishResult();
+        }
+    }
+
+    /**
+     * Stores an operand if the message contains a valid number.
+     * @return true if the message was a number
+     */
+    private boolean store(boolean isX, boolean isY, Message msg) {
+        // Check if the message contains a valid number
+        if (Double.isNaN(msg.asDouble)) {
+            return false;
+        }
+        if (isX) {
+            this.x = msg.asDouble;
+            this.xReceived = true;
+        } else if (isY) {
+            this.y = msg.asDouble;
+            this.yReceived = true;
+        }
+        return true;
+    }
+
+    /**
+     * Publishes the result if both operands have arrived.
+     */
+    private void publishResult() {
+        // If both values are received and valid, calculate and publish result
+        if (xReceived && yReceived) {
+            double result = operation.applyAsDouble(x, y);
+            
+            // Publish to the first topic in pubs array
+            if (outTopic != null) {
+                outTopic.publish(Message.of(result));
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // Clean up resources if needed
+        // Unsubscribe from topics
+        if (xTopic != null) {
+            xTopic.unsubscribe(this);
+            yTopic.unsubscribe(this);
+        }
+        
+        // Remove as publisher
+        if (outTopic != null) {
+            outTopic.removePublisher(this);
+        }
+    }
+}
@@ -195,6 +195,26 @@ public class MyTestsEX1 {
             System.out.println("Test 10 failed!");
         }
 
+        // Test 11: Numeric factory - same forms as new Message(double), cached text for repeats,
+        // and no mutable field shared between messages
+        System.out.println("\nTest 11: Numeric factory");
+        boolean sameForms = true;
+        for (double value : new double[]{0.0, -0.0, 1.0, 2.5, -7.0, Double.NaN, Double.MAX_VALUE}) {
+            Message built = new Message(value);
+            Message cached = Message.of(value);
+            sameForms &= built.asText.equals(cached.asText)
+                    && java.util.Arrays.equals(built.data, cached.data)
+                    && Double.compare(built.asDouble, cached.asDouble) == 0
+                    && cached.date != null;
+        }
+        Message first = Message.of(42.0);
+        Message again = Message.of(42.0);
+        if (sameForms && first.asText == again.asText && first.data != again.data && first.date != again.date) {
+            System.out.println("Test 11 successful!");
+        } else {
+            System.out.println("Test 11 failed!");
+        }
+
         // Cleanup
         agent1.close();
         agent2.close();
@@ -2,7 +2,10 @@
     Advanced Programming EX 1
     Name & ID: Yuval Harary 315112367
 */
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
 import java.util.concurrent.TimeUnit;
 
 import graph.*;
@@ -132,6 +135,226 @@ public class MyTestsEX2 {
         parallelAgent3.close();
         System.out.println("ParallelAgent handled large capacity successfully.");
 
-    
+        testSchedulerFifo();
+        testSchedulerFullMailbox();
+        testSchedulerClose();
+
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 7: On a shared scheduler every agent sees its messages one at a time, in the order they were sent
+    public static void testSchedulerFifo() {
+        System.out.println("\nTest 7: Scheduler FIFO order");
+        int agentCount = 8;
+        int perAgent = 2000;
+        CountDownLatch done = new CountDownLatch(agentCount);
+        OrderAgent[] agents = new OrderAgent[agentCount];
+        ParallelAgent[] wrapped = new ParallelAgent[agentCount];
+        for (int a = 0; a < agentCount; a++) {
+            agents[a] = new OrderAgent(perAgent, done);
+            wrapped[a] = new ParallelAgent(agents[a], 16, ParallelAgent.sharedScheduler());
+        }
+        // One producer per agent, all running at once
+        for (int a = 0; a < agentCount; a++) {
+            ParallelAgent target = wrapped[a];
+            new Thread(() -> {
+                for (int i = 0; i < perAgent; i++) {
+                    target.callback("Topic1", new Message(i));
+                }
+            }).start();
+        }
+
+        boolean finished = false;
+        try {
+            finished = done.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        boolean ordered = true;
+        boolean overlapped = false;
+        for (OrderAgent agent : agents) {
+            ordered &= agent.inOrder;
+            overlapped |= agent.overlapped;
+        }
+        for (ParallelAgent agent : wrapped) {
+            agent.close();
+        }
+        if (finished && ordered && !overlapped) {
+            System.out.println("Test 7 successful!");
+        } else {
+            System.out.println("Test 7 failed!");
+            System.out.println("Finished: " + finished + ", in order: " + ordered + ", overlapping callbacks: " + overlapped);
+        }
+    }
+
+    // Test 8: A drain task that blocks on a full mailbox does not starve a one-thread pool
+    public static void testSchedulerFullMailbox() {
+        System.out.println("\nTest 8: Scheduler full mailbox");
+        // Without ForkJoinPool.managedBlock, the only pool thread would wait on the
+        // consumer's full mailbox while the consumer waits for a pool thread
+        ForkJoinPool pool = new ForkJoinPool(1, ForkJoinPool.defaultForkJoinWorkerThreadFactory, null, true);
+        int messages = 50;
+        CountDownLatch received = new CountDownLatch(messages);
+        ParallelAgent consumer = new ParallelAgent(new SlowAgent(received), 1, pool);
+        ParallelAgent producer = new ParallelAgent(new FanOutAgent(consumer, messages), 1, pool);
+        producer.callback("Topic1", new Message(1));
+
+        boolean finished = false;
+        try {
+            finished = received.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        producer.close();
+        consumer.close();
+        pool.shutdown();
+        if (finished) {
+            System.out.println("Test 8 successful!");
+        } else {
+            System.out.println("Test 8 failed!");
+            System.out.println("Messages still missing: " + received.getCount());
+        }
+    }
+
+    // Test 9: close() waits for the callback in progress, drops queued messages and closes the agent
+    public static void testSchedulerClose() {
+        System.out.println("\nTest 9: Scheduler close");
+        CountDownLatch received = new CountDownLatch(1);
+        SlowAgent agent = new SlowAgent(received);
+        ParallelAgent wrapped = new ParallelAgent(agent, 100, ParallelAgent.sharedScheduler());
+        for (int i = 0; i < 20; i++) {
+            wrapped.callback("Topic1", new Message(i));
+        }
+        try {
+            received.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        wrapped.close();
+        boolean idleAtClose = !agent.inCallback;
+        int countAtClose = agent.count;
+        wrapped.callback("Topic1", new Message(99));
+        try {
+            Thread.sleep(200);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (agent.closed && idleAtClose && agent.count == countAtClose && countAtClose < 20) {
+            System.out.println("Test 9 successful!");
+        } else {
+            System.out.println("Test 9 failed!");
+            System.out.println("Agent closed: " + agent.closed + ", idle at close: " + idleAtClose
+                    + ", callbacks at close: " + countAtClose + ", after: " + agent.count);
+        }
+    }
+
+    // Helper agent that checks its messages arrive in order and never concurrently
+    public static class OrderAgent implements Agent {
+        private final int expected;
+        private final CountDownLatch done;
+        private final List<Double> seen = new ArrayList<>();
+        private volatile boolean inCallback;
+        volatile boolean inOrder = true;
+        volatile boolean overlapped;
+
+        OrderAgent(int expected, CountDownLatch done) {
+            this.expected = expected;
+            this.done = done;
+        }
+
+        @Override
+        public String getName() {
+            return "OrderAgent";
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (inCallback) {
+                overlapped = true;
+            }
+            inCallback = true;
+            if (msg.asDouble != seen.size()) {
+                inOrder = false;
+            }
+            seen.add(msg.asDouble);
+            inCallback = false;
+            if (seen.size() == expected) {
+                done.countDown();
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Helper agent that takes a few milliseconds per message
+    public static class SlowAgent implements Agent {
+        private final CountDownLatch received;
+        volatile boolean inCallback;
+        volatile boolean closed;
+        volatile int count;
+
+        SlowAgent(CountDownLatch received) {
+            this.received = received;
+        }
+
+        @Override
+        public String getName() {
+            return "SlowAgent";
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public void callback(String topic, Message msg) {
+            inCallback = true;
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            count++;
+            inCallback = false;
+            received.countDown();
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+
+    // Helper agent that sends a number of messages to another agent for each message it gets
+    public static class FanOutAgent implements Agent {
+        private final Agent target;
+        private final int messages;
+
+        FanOutAgent(Agent target, int messages) {
+            this.target = target;
+            this.messages = messages;
+        }
+
+        @Override
+        public String getName() {
+            return "FanOutAgent";
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public void callback(String topic, Message msg) {
+            for (int i = 0; i < messages; i++) {
+                target.callback("Topic2", new Message(i));
+            }
+        }
+
+        @Override
+        public void close() {}
     }
 }
\ No newline at end of file
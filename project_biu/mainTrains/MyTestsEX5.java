@@ -0,0 +1,268 @@
+import server.ByteRequestParser;
+import server.RequestParser.RequestInfo;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+public class MyTestsEX5 {
+
+    public static void main(String[] args) {
+        System.out.println("Running MyTestsEX5...");
+
+        testGetWithQuery();
+        testContentLengthBody();
+        testChunkedBody();
+        testPipelinedRequests();
+        testByteByByte();
+        testOversizedHeaders();
+        testLargestChunkedBody();
+        testLargeContentLengthShortBody();
+
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 1: Request line, headers and percent-decoded query parameters
+    public static void testGetWithQuery() {
+        System.out.println("\nTest 1: GET With Query");
+
+        RequestInfo ri = parseOne("GET /publish?topic=A%20B&message=1+2 HTTP/1.1\r\nHost: x\r\n\r\n");
+
+        if (ri != null && "GET".equals(ri.getHttpCommand())
+                && "A B".equals(ri.getParameters().get("topic"))
+                && "1 2".equals(ri.getParameters().get("message"))
+                && "x".equals(ri.getHeader("Host"))) {
+            System.out.println("Test 1 successful!");
+        } else {
+            System.out.println("Test 1 failed!");
+            System.out.println("Actual parameters: " + (ri != null ? ri.getParameters() : "null"));
+        }
+    }
+
+    // Test 2: A Content-Length body keeps its exact bytes, bare LF line endings included
+    public static void testContentLengthBody() {
+        System.out.println("\nTest 2: Content-Length Body");
+
+        byte[] body = {0, (byte) 0xff, '\r', '\n', 'a'};
+        byte[] head = ("POST /ingest HTTP/1.1\nContent-Length: " + body.length + "\n\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        RequestInfo ri = parseOne(concat(head, body));
+
+        if (ri != null && Arrays.equals(body, ri.getContent())) {
+            System.out.println("Test 2 successful!");
+        } else {
+            System.out.println("Test 2 failed!");
+            System.out.println("Expected body: " + Arrays.toString(body));
+            System.out.println("Actual body: " + (ri != null ? Arrays.toString(ri.getContent()) : "null"));
+        }
+    }
+
+    // Test 3: Chunked bodies are decoded and their trailers skipped
+    public static void testChunkedBody() {
+        System.out.println("\nTest 3: Chunked Body");
+
+        RequestInfo ri = parseOne("POST /ingest HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "4\r\nA 1\n\r\n5;ext=1\r\nB 22\n\r\n0\r\nX-Trailer: t\r\n\r\n");
+
+        String content = ri != null ? new String(ri.getContent(), StandardCharsets.US_ASCII) : null;
+        if ("A 1\nB 22\n".equals(content)) {
+            System.out.println("Test 3 successful!");
+        } else {
+            System.out.println("Test 3 failed!");
+            System.out.println("Expected body: A 1\\nB 22\\n");
+            System.out.println("Actual body: " + content);
+        }
+    }
+
+    // Test 4: Bytes after a request stay buffered for the next one
+    public static void testPipelinedRequests() {
+        System.out.println("\nTest 4: Pipelined Requests");
+
+        ByteRequestParser parser = new ByteRequestParser();
+        InputStream in = stream("GET /a HTTP/1.1\r\n\r\nGET /b HTTP/1.1\r\n\r\n");
+        try {
+            RequestInfo first = parser.readRequest(in);
+            RequestInfo second = parser.readRequest(in);
+            RequestInfo end = parser.readRequest(in);
+
+            if (first != null && "/a".equals(first.getUri())
+                    && second != null && "/b".equals(second.getUri()) && end == null) {
+                System.out.println("Test 4 successful!");
+            } else {
+                System.out.println("Test 4 failed!");
+                System.out.println("Actual URIs: " + (first != null ? first.getUri() : "null")
+                        + ", " + (second != null ? second.getUri() : "null") + ", " + end);
+            }
+        } catch (IOException e) {
+            System.out.println("Test 4 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 5: No request is returned until its last byte has arrived
+    public static void testByteByByte() {
+        System.out.println("\nTest 5: Byte By Byte");
+
+        byte[] request = "POST /x HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc".getBytes(StandardCharsets.US_ASCII);
+        ByteRequestParser parser = new ByteRequestParser();
+        boolean early = false;
+        RequestInfo ri = null;
+        try {
+            for (int i = 0; i < request.length; i++) {
+                parser.fill(new ByteArrayInputStream(request, i, 1));
+                ri = parser.tryParse();
+                if (ri != null && i < request.length - 1) {
+                    early = true;
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Test 5 failed! " + e.getMessage());
+            return;
+        }
+
+        if (!early && ri != null && "abc".equals(new String(ri.getContent(), StandardCharsets.US_ASCII))
+                && !parser.hasBufferedBytes()) {
+            System.out.println("Test 5 successful!");
+        } else {
+            System.out.println("Test 5 failed!");
+            System.out.println("Returned before the last byte: " + early);
+        }
+    }
+
+    // Test 6: A header section over the limit is refused instead of buffered forever
+    public static void testOversizedHeaders() {
+        System.out.println("\nTest 6: Oversized Headers");
+
+        StringBuilder sb = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (sb.length() <= ByteRequestParser.MAX_HEADER_BYTES) {
+            sb.append("X-Filler: 0123456789012345678901234567890123456789\r\n");
+        }
+        try {
+            new ByteRequestParser().readRequest(stream(sb.toString()));
+            System.out.println("Test 6 failed!");
+            System.out.println("Expected an IOException for " + sb.length() + " header bytes");
+        } catch (IOException e) {
+            System.out.println("Test 6 successful!");
+        }
+    }
+
+    // Test 7: A chunked body of exactly the body limit, arriving in small reads, is accepted
+    public static void testLargestChunkedBody() {
+        System.out.println("\nTest 7: Largest Chunked Body");
+
+        ByteArrayOutputStream raw = new ByteArrayOutputStream();
+        byte[] head = "POST /ingest HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        raw.write(head, 0, head.length);
+        byte[] chunk = new byte[4096];
+        for (int sent = 0; sent < ByteRequestParser.MAX_BODY_BYTES; sent += chunk.length) {
+            byte[] size = "1000\r\n".getBytes(StandardCharsets.US_ASCII);
+            raw.write(size, 0, size.length);
+            raw.write(chunk, 0, chunk.length);
+            raw.write('\r');
+            raw.write('\n');
+        }
+        byte[] end = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+        raw.write(end, 0, end.length);
+        byte[] request = raw.toByteArray();
+
+        ByteRequestParser parser = new ByteRequestParser();
+        RequestInfo ri = null;
+        try {
+            for (int offset = 0; offset < request.length && ri == null; offset += 1500) {
+                parser.fill(new ByteArrayInputStream(request, offset, Math.min(1500, request.length - offset)));
+                ri = parser.tryParse();
+            }
+        } catch (IOException e) {
+            System.out.println("Test 7 failed! " + e.getMessage());
+            return;
+        }
+
+        if (ri != null && ri.getContent().length == ByteRequestParser.MAX_BODY_BYTES && !parser.hasBufferedBytes()) {
+            System.out.println("Test 7 successful!");
+        } else {
+            System.out.println("Test 7 failed!");
+            System.out.println("Actual body length: " + (ri != null ? ri.getContent().length : "no request"));
+        }
+    }
+
+    // Test 8: A large Content-Length costs memory only for the body bytes that arrived,
+    // and the body still comes out whole once the rest of it is read
+    public static void testLargeContentLengthShortBody() {
+        System.out.println("\nTest 8: Large Content-Length Short Body");
+
+        byte[] head = ("POST /ingest HTTP/1.1\r\nContent-Length: " + ByteRequestParser.MAX_BODY_BYTES + "\r\n\r\n")
+                .getBytes(StandardCharsets.US_ASCII);
+        byte[] start = concat(head, "0123456789".getBytes(StandardCharsets.US_ASCII));
+
+        // 256 such requests would need 4 GB if every body were allocated up front
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        long before = runtime.totalMemory() - runtime.freeMemory();
+        ByteRequestParser[] parsers = new ByteRequestParser[256];
+        long grown;
+        try {
+            for (int i = 0; i < parsers.length; i++) {
+                parsers[i] = new ByteRequestParser();
+                parsers[i].fill(new ByteArrayInputStream(start));
+                if (parsers[i].tryParse() != null) {
+                    System.out.println("Test 8 failed! A request was returned before its body arrived");
+                    return;
+                }
+            }
+            System.gc();
+            grown = runtime.totalMemory() - runtime.freeMemory() - before;
+        } catch (IOException | OutOfMemoryError e) {
+            System.out.println("Test 8 failed! " + e);
+            return;
+        }
+
+        // Send the rest of one body in small reads
+        ByteRequestParser parser = parsers[0];
+        parsers = null;
+        byte[] rest = new byte[ByteRequestParser.MAX_BODY_BYTES - 10];
+        RequestInfo ri = null;
+        try {
+            for (int offset = 0; offset < rest.length && ri == null; offset += 1500) {
+                parser.fill(new ByteArrayInputStream(rest, offset, Math.min(1500, rest.length - offset)));
+                ri = parser.tryParse();
+            }
+        } catch (IOException e) {
+            System.out.println("Test 8 failed! " + e.getMessage());
+            return;
+        }
+
+        if (grown < 64L * 1024 * 1024 && ri != null && ri.getContent().length == ByteRequestParser.MAX_BODY_BYTES
+                && ri.getContent()[9] == '9' && !parser.hasBufferedBytes()) {
+            System.out.println("Test 8 successful!");
+        } else {
+            System.out.println("Test 8 failed!");
+            System.out.println("Heap growth for 256 pending requests: " + grown / 1024 + " KB");
+            System.out.println("Actual body length: " + (ri != null ? ri.getContent().length : "no request"));
+        }
+    }
+
+    private static RequestInfo parseOne(String request) {
+        return parseOne(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static RequestInfo parseOne(byte[] request) {
+        try {
+            return new ByteRequestParser().readRequest(new ByteArrayInputStream(request));
+        } catch (IOException e) {
+            System.out.println("Unexpected exception: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static InputStream stream(String s) {
+        return new ByteArrayInputStream(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] result = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, result, a.length, b.length);
+        return result;
+    }
+}
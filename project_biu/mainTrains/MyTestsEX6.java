@@ -0,0 +1,214 @@
+import server.ByteRequestParser;
+import server.RequestParser.RequestInfo;
+import servlets.ResponseWriter;
+import servlets.ResponseWriter.Encoding;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+public class MyTestsEX6 {
+
+    public static void main(String[] args) {
+        System.out.println("Running MyTestsEX6...");
+
+        testNegotiate();
+        testChunkedGzip();
+        testContentLengthIdentity();
+        testContentLengthDeflate();
+        testFinishTwice();
+
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 1: Accept-Encoding negotiation honours q-values and "*"
+    public static void testNegotiate() {
+        System.out.println("\nTest 1: Negotiate");
+
+        boolean ok = ResponseWriter.negotiate(null) == Encoding.IDENTITY
+                && ResponseWriter.negotiate("gzip, deflate") == Encoding.GZIP
+                && ResponseWriter.negotiate("gzip;q=0, deflate") == Encoding.DEFLATE
+                && ResponseWriter.negotiate("deflate;q=1, gzip;q=0.5") == Encoding.DEFLATE
+                && ResponseWriter.negotiate("*;q=0.5") == Encoding.GZIP
+                && ResponseWriter.negotiate("br") == Encoding.IDENTITY
+                && ResponseWriter.negotiate("gzip;q=0") == Encoding.IDENTITY;
+
+        if (ok) {
+            System.out.println("Test 1 successful!");
+        } else {
+            System.out.println("Test 1 failed!");
+        }
+    }
+
+    // Test 2: HTTP/1.1 bodies are gzipped and sent as several chunks
+    public static void testChunkedGzip() {
+        System.out.println("\nTest 2: Chunked Gzip");
+
+        String body = sampleBody();
+        try {
+            byte[] response = respond("HTTP/1.1", "gzip", body);
+            String headers = headersOf(response);
+            byte[] decoded = gunzip(dechunk(response, headers.length()));
+
+            if (headers.contains("Transfer-Encoding: chunked\r\n")
+                    && headers.contains("Content-Encoding: gzip\r\n")
+                    && !headers.contains("Content-Length")
+                    && body.equals(new String(decoded, StandardCharsets.UTF_8))) {
+                System.out.println("Test 2 successful!");
+            } else {
+                System.out.println("Test 2 failed!");
+                System.out.println("Headers: " + headers.replace("\r\n", " | "));
+            }
+        } catch (IOException e) {
+            System.out.println("Test 2 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 3: HTTP/1.0 cannot take chunks, so the body is sent with a Content-Length
+    public static void testContentLengthIdentity() {
+        System.out.println("\nTest 3: Content-Length Identity");
+
+        String body = sampleBody();
+        try {
+            byte[] response = respond("HTTP/1.0", null, body);
+            String headers = headersOf(response);
+            String sent = new String(response, headers.length(), response.length - headers.length(), StandardCharsets.UTF_8);
+
+            if (headers.contains("Content-Length: " + body.getBytes(StandardCharsets.UTF_8).length + "\r\n")
+                    && !headers.contains("Transfer-Encoding")
+                    && !headers.contains("Content-Encoding")
+                    && body.equals(sent)) {
+                System.out.println("Test 3 successful!");
+            } else {
+                System.out.println("Test 3 failed!");
+                System.out.println("Headers: " + headers.replace("\r\n", " | "));
+            }
+        } catch (IOException e) {
+            System.out.println("Test 3 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 4: A compressed HTTP/1.0 body is buffered and its compressed length sent
+    public static void testContentLengthDeflate() {
+        System.out.println("\nTest 4: Content-Length Deflate");
+
+        String body = sampleBody();
+        try {
+            byte[] response = respond("HTTP/1.0", "deflate", body);
+            String headers = headersOf(response);
+            int length = response.length - headers.length();
+            byte[] compressed = new byte[length];
+            System.arraycopy(response, headers.length(), compressed, 0, length);
+            byte[] decoded = new InflaterInputStream(new ByteArrayInputStream(compressed)).readAllBytes();
+
+            if (headers.contains("Content-Length: " + length + "\r\n")
+                    && headers.contains("Content-Encoding: deflate\r\n")
+                    && length < body.length()
+                    && body.equals(new String(decoded, StandardCharsets.UTF_8))) {
+                System.out.println("Test 4 successful!");
+            } else {
+                System.out.println("Test 4 failed!");
+                System.out.println("Headers: " + headers.replace("\r\n", " | "));
+            }
+        } catch (IOException e) {
+            System.out.println("Test 4 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 5: A second finish() writes nothing
+    public static void testFinishTwice() {
+        System.out.println("\nTest 5: Finish Twice");
+
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ResponseWriter response = new ResponseWriter(request("HTTP/1.1", "gzip"), out, "text/plain");
+            response.getWriter().print("hello");
+            response.finish();
+            int size = out.size();
+            response.finish();
+
+            if (out.size() == size) {
+                System.out.println("Test 5 successful!");
+            } else {
+                System.out.println("Test 5 failed!");
+                System.out.println("Bytes after the first finish: " + size + ", after the second: " + out.size());
+            }
+        } catch (IOException e) {
+            System.out.println("Test 5 failed! " + e.getMessage());
+        }
+    }
+
+    // Three compressor buffers' worth of text, so the body spans several chunks
+    private static String sampleBody() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; sb.length() < 3 * 8192; i++) {
+            sb.append("topic ").append(i).append(" = ").append(i * 31 % 977).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] respond(String version, String acceptEncoding, String body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ResponseWriter response = new ResponseWriter(request(version, acceptEncoding), out, "text/plain; charset=UTF-8");
+        response.getWriter().print(body);
+        response.finish();
+        return out.toByteArray();
+    }
+
+    private static RequestInfo request(String version, String acceptEncoding) throws IOException {
+        String raw = "GET /values " + version + "\r\n"
+                + (acceptEncoding != null ? "Accept-Encoding: " + acceptEncoding + "\r\n" : "")
+                + "\r\n";
+        return new ByteRequestParser().readRequest(new ByteArrayInputStream(raw.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    // Returns the status line and headers, including the empty line that ends them
+    private static String headersOf(byte[] response) throws IOException {
+        String text = new String(response, StandardCharsets.ISO_8859_1);
+        int end = text.indexOf("\r\n\r\n");
+        if (end == -1) {
+            throw new IOException("No end of headers");
+        }
+        return text.substring(0, end + 4);
+    }
+
+    private static byte[] dechunk(byte[] response, int offset) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        int pos = offset;
+        int chunks = 0;
+        while (true) {
+            int lineEnd = indexOf(response, pos);
+            int size = Integer.parseInt(new String(response, pos, lineEnd - pos, StandardCharsets.US_ASCII), 16);
+            pos = lineEnd + 2;
+            if (size == 0) {
+                break;
+            }
+            body.write(response, pos, size);
+            pos += size + 2;
+            chunks++;
+        }
+        if (chunks < 2 || pos + 2 != response.length) {
+            throw new IOException("Expected several chunks and a final empty line, got " + chunks + " chunks");
+        }
+        return body.toByteArray();
+    }
+
+    private static int indexOf(byte[] data, int from) throws IOException {
+        for (int i = from; i + 1 < data.length; i++) {
+            if (data[i] == '\r' && data[i + 1] == '\n') {
+                return i;
+            }
+        }
+        throw new IOException("Truncated chunk");
+    }
+
+    private static byte[] gunzip(byte[] data) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+}
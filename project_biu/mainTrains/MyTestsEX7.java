@@ -0,0 +1,160 @@
+import graph.*;
+import server.ByteRequestParser;
+import server.RequestParser.RequestInfo;
+import servlets.TopicIngestServlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class MyTestsEX7 {
+
+    public static void main(String[] args) {
+        System.out.println("Running MyTestsEX7...");
+
+        testTextBody();
+        testBinaryBody();
+        testTruncatedBinaryBody();
+
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 1: Every text line reaches its topic in order, repeated topics included, and bad lines are reported
+    public static void testTextBody() {
+        System.out.println("\nTest 1: Text Body");
+
+        RecordAgent recorderA = new RecordAgent("IngestA");
+        RecordAgent recorderB = new RecordAgent("IngestB");
+        String body = "IngestA 1\nIngestA 2\r\n\nIngestB hello world\nbad\nIngestZ 3\nIngestA 3\n";
+        String response = ingest("text/plain", body.getBytes(StandardCharsets.UTF_8));
+
+        List<String> expectedA = List.of("IngestA=1", "IngestA=2", "IngestA=3");
+        List<String> expectedB = List.of("IngestB=hello world");
+        if (response.contains("{\"published\":4,\"failed\":2,")
+                && response.contains("{\"record\":4,")
+                && response.contains("Topic IngestZ does not exist")
+                && expectedA.equals(recorderA.seen) && expectedB.equals(recorderB.seen)) {
+            System.out.println("Test 1 successful!");
+        } else {
+            System.out.println("Test 1 failed!");
+            System.out.println("Expected values: " + expectedA + " " + expectedB);
+            System.out.println("Actual values: " + recorderA.seen + " " + recorderB.seen);
+            System.out.println("Response: " + response);
+        }
+        recorderA.close();
+        recorderB.close();
+    }
+
+    // Test 2: Binary records keep their exact bytes, spaces and newlines included
+    public static void testBinaryBody() {
+        System.out.println("\nTest 2: Binary Body");
+
+        RecordAgent recorder = new RecordAgent("IngestC");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeRecord(body, "IngestC", "1 2\n3");
+        writeRecord(body, "IngestC", "");
+        writeRecord(body, "IngestC", "4.5");
+        String response = ingest("application/octet-stream", body.toByteArray());
+
+        List<String> expected = List.of("IngestC=1 2\n3", "IngestC=", "IngestC=4.5");
+        if (response.contains("{\"published\":3,\"failed\":0}") && expected.equals(recorder.seen)) {
+            System.out.println("Test 2 successful!");
+        } else {
+            System.out.println("Test 2 failed!");
+            System.out.println("Expected values: " + expected);
+            System.out.println("Actual values: " + recorder.seen);
+            System.out.println("Response: " + response);
+        }
+        recorder.close();
+    }
+
+    // Test 3: A binary body that is cut short is refused as a whole
+    public static void testTruncatedBinaryBody() {
+        System.out.println("\nTest 3: Truncated Binary Body");
+
+        RecordAgent recorder = new RecordAgent("IngestD");
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        writeRecord(body, "IngestD", "1");
+        writeRecord(body, "IngestD", "2");
+        byte[] truncated = body.toByteArray();
+        String response = ingest("application/octet-stream", Arrays.copyOf(truncated, truncated.length - 1));
+
+        if (response.startsWith("HTTP/1.1 400") && response.contains("Record 2 is cut short")
+                && recorder.seen.isEmpty()) {
+            System.out.println("Test 3 successful!");
+        } else {
+            System.out.println("Test 3 failed!");
+            System.out.println("Actual values: " + recorder.seen);
+            System.out.println("Response: " + response);
+        }
+        recorder.close();
+    }
+
+    private static String ingest(String contentType, byte[] body) {
+        try {
+            String head = "POST /ingest HTTP/1.1\r\nContent-Type: " + contentType
+                    + "\r\nContent-Length: " + body.length + "\r\n\r\n";
+            ByteArrayOutputStream raw = new ByteArrayOutputStream();
+            raw.write(head.getBytes(StandardCharsets.US_ASCII));
+            raw.write(body);
+            RequestInfo ri = new ByteRequestParser().readRequest(new ByteArrayInputStream(raw.toByteArray()));
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            new TopicIngestServlet().handle(ri, out);
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        } catch (Exception e) {
+            return "Unexpected exception: " + e;
+        }
+    }
+
+    private static void writeRecord(ByteArrayOutputStream out, String topic, String value) {
+        byte[] name = topic.getBytes(StandardCharsets.UTF_8);
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.write(name.length >> 8);
+        out.write(name.length);
+        out.write(name, 0, name.length);
+        out.write(bytes.length >> 24);
+        out.write(bytes.length >> 16);
+        out.write(bytes.length >> 8);
+        out.write(bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    // Helper agent that records every value of the topics it subscribes to, in arrival order
+    public static class RecordAgent implements Agent {
+        public final List<String> seen = new ArrayList<>();
+        private final String[] topics;
+
+        public RecordAgent(String... topics) {
+            this.topics = topics;
+            for (String topic : topics) {
+                TopicManagerSingleton.get().getTopic(topic).subscribe(this);
+            }
+        }
+
+        @Override
+        public String getName() {
+            return "RecordAgent";
+        }
+
+        @Override
+        public void reset() {
+            seen.clear();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            seen.add(topic + "=" + msg.asText);
+        }
+
+        @Override
+        public void close() {
+            for (String topic : topics) {
+                TopicManagerSingleton.get().getTopic(topic).unsubscribe(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,446 @@
+import configs.GenericConfig;
+import graph.*;
+import graph.TopicManagerSingleton.TopicManager;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+public class MyTestsEX8 {
+
+    public static void main(String[] args) {
+        System.out.println("Running MyTestsEX8...");
+
+        testDiamondFiresOnce();
+        testLongChain();
+        testCyclicFallback();
+        testSubmitWaitsForLastLevel();
+        testWrappedConfigFiresOnce();
+        testSubmitWrappedConfig();
+
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 1: In MathExampleConfig's diamond, "mul" runs once per wave, with both new values
+    public static void testDiamondFiresOnce() {
+        System.out.println("\nTest 1: Diamond Fires Once");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        new MathExampleConfig().create();
+        CountAgent mulInputs = new CountAgent("R3");
+
+        ExecutionPlan.publishWave(List.of(tm.getTopic("A"), tm.getTopic("B")),
+                List.of(new Message(5), new Message(3)));
+        int firstWave = mulInputs.count;
+        ExecutionPlan.publishWave(List.of(tm.getTopic("A")), List.of(new Message(7)));
+
+        // (5 + 3) * (5 - 3) = 16, then (7 + 3) * (7 - 3) = 40
+        if (firstWave == 1 && mulInputs.count == 2 && mulInputs.last == 40.0) {
+            System.out.println("Test 1 successful!");
+        } else {
+            System.out.println("Test 1 failed!");
+            System.out.println("Expected R3 to be published once per wave, ending at 40.0");
+            System.out.println("Actual: " + mulInputs.count + " times, last " + mulInputs.last);
+        }
+        tm.clear();
+    }
+
+    // Test 2: A wave through a long chain runs on a small stack, where nested publishing would overflow it
+    public static void testLongChain() {
+        System.out.println("\nTest 2: Long Chain");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        int length = 5000;
+        for (int i = 0; i < length; i++) {
+            new IncAgent(new String[]{"Chain" + i}, new String[]{"Chain" + (i + 1)});
+        }
+        Throwable[] thrown = new Throwable[1];
+        Thread thread = new Thread(null, () -> {
+            try {
+                ExecutionPlan.publishWave(List.of(tm.getTopic("Chain0")), List.of(new Message(0)));
+            } catch (Throwable t) {
+                thrown[0] = t;
+            }
+        }, "chain", 256 * 1024);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        String end = tm.getTopic("Chain" + length).getResult();
+        if (thrown[0] == null && String.valueOf((double) length).equals(end)) {
+            System.out.println("Test 2 successful!");
+        } else {
+            System.out.println("Test 2 failed!");
+            System.out.println("Expected result: " + (double) length);
+            System.out.println("Actual result: " + end + (thrown[0] != null ? ", thrown " + thrown[0] : ""));
+        }
+        tm.clear();
+    }
+
+    // Test 3: A configuration with a cycle has no plan, and its values go through Topic.publish
+    public static void testCyclicFallback() {
+        System.out.println("\nTest 3: Cyclic Fallback");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        new LimitAgent("LoopX", "LoopY", 4);
+        new LimitAgent("LoopY", "LoopX", 4);
+        CountAgent loopValues = new CountAgent("LoopX");
+
+        ExecutionPlan plan = ExecutionPlan.current();
+        ExecutionPlan.publishWave(List.of(tm.getTopic("LoopX")), List.of(new Message(0)));
+
+        // 0 -> LoopY 1 -> LoopX 2 -> LoopY 3 -> LoopX 4, where both agents stop
+        String end = tm.getTopic("LoopX").getResult();
+        if (plan == null && loopValues.count == 3 && "4.0".equals(end)) {
+            System.out.println("Test 3 successful!");
+        } else {
+            System.out.println("Test 3 failed!");
+            System.out.println("Expected no plan and LoopX set to 0, 2 and 4");
+            System.out.println("Actual: plan " + plan + ", " + loopValues.count + " values, LoopX " + end);
+        }
+        tm.clear();
+    }
+
+    // Test 4: The future of submit() completes only after the agents of the last level ran
+    public static void testSubmitWaitsForLastLevel() {
+        System.out.println("\nTest 4: Submit Waits For Last Level");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        // Eight slow agents on level 1, and one on level 2 that needs all of their outputs
+        List<String> outputs = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            new SlowAgent(new String[]{"Fan"}, "Fan" + i);
+            outputs.add("Fan" + i);
+        }
+        new SlowAgent(outputs.toArray(new String[0]), "FanEnd");
+
+        String end = null;
+        boolean completed;
+        try {
+            CompletableFuture<Void> done = ExecutionPlan.current()
+                    .submit(List.of(tm.getTopic("Fan")), List.of(new Message(1)));
+            done.get(10, TimeUnit.SECONDS);
+            end = tm.getTopic("FanEnd").getResult();
+            completed = true;
+        } catch (Exception e) {
+            completed = false;
+        }
+
+        if (completed && "17.0".equals(end)) {
+            System.out.println("Test 4 successful!");
+        } else {
+            System.out.println("Test 4 failed!");
+            System.out.println("Expected FanEnd to be 17.0 when the future completes");
+            System.out.println("Actual: " + (completed ? "FanEnd " + end : "the future did not complete"));
+        }
+        tm.clear();
+    }
+
+    // Test 5: Agents loaded through GenericConfig are wrapped in ParallelAgents, and a
+    // ParallelAgent subscribed in place of its agent is called by the wave, not through
+    // its mailbox: both leaves of the diamond fire once per wave and are final on return
+    public static void testWrappedConfigFiresOnce() {
+        System.out.println("\nTest 5: Wrapped Config Fires Once");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        GenericConfig config = loadDiamond();
+        if (config == null) {
+            System.out.println("Test 5 failed! Could not write the configuration file");
+            return;
+        }
+        ParallelAgent wrapped = subscribeWrapped(new ProductAgent("R1", "R2", "R4"));
+        CountAgent mulInputs = new CountAgent("R3");
+        CountAgent wrappedInputs = new CountAgent("R4");
+
+        ExecutionPlan.publishWave(List.of(tm.getTopic("A"), tm.getTopic("B")),
+                List.of(new Message(5), new Message(3)));
+        int firstWave = mulInputs.count;
+        int firstWrapped = wrappedInputs.count;
+        String firstR4 = tm.getTopic("R4").getResult();
+        ExecutionPlan.publishWave(List.of(tm.getTopic("A")), List.of(new Message(7)));
+
+        // (5 + 3) * max(5, 3) = 40, then (7 + 3) * max(7, 3) = 70
+        if (firstWave == 1 && mulInputs.count == 2 && mulInputs.last == 70.0
+                && firstWrapped == 1 && wrappedInputs.count == 2 && "40.0".equals(firstR4)
+                && "70.0".equals(tm.getTopic("R4").getResult())) {
+            System.out.println("Test 5 successful!");
+        } else {
+            System.out.println("Test 5 failed!");
+            System.out.println("Expected R3 and R4 to be published once per wave, ending at 70.0");
+            System.out.println("Actual: R3 " + mulInputs.count + " times, last " + mulInputs.last
+                    + "; R4 " + wrappedInputs.count + " times, first " + firstR4
+                    + ", last " + tm.getTopic("R4").getResult());
+        }
+        wrapped.close();
+        config.close();
+        tm.clear();
+    }
+
+    // Test 6: With agents wrapped in ParallelAgents, the future of submit() completes only
+    // after the wrapped agents of the last level ran, not when their mailboxes were fed
+    public static void testSubmitWrappedConfig() {
+        System.out.println("\nTest 6: Submit Wrapped Config");
+
+        TopicManager tm = TopicManagerSingleton.get();
+        tm.clear();
+        GenericConfig config = loadDiamond();
+        if (config == null) {
+            System.out.println("Test 6 failed! Could not write the configuration file");
+            return;
+        }
+        // A slow wrapped agent on the level after the diamond
+        ParallelAgent wrapped = subscribeWrapped(new ProductAgent("R3", "R1", "R5", 100));
+
+        String r3 = null;
+        String r5 = null;
+        boolean completed;
+        try {
+            ExecutionPlan.current()
+                    .submit(List.of(tm.getTopic("A"), tm.getTopic("B")), List.of(new Message(5), new Message(3)))
+                    .get(10, TimeUnit.SECONDS);
+            r3 = tm.getTopic("R3").getResult();
+            r5 = tm.getTopic("R5").getResult();
+            completed = true;
+        } catch (Exception e) {
+            completed = false;
+        }
+
+        // R3 = (5 + 3) * max(5, 3) = 40, R5 = 40 * 8 = 320
+        if (completed && "40.0".equals(r3) && "320.0".equals(r5)) {
+            System.out.println("Test 6 successful!");
+        } else {
+            System.out.println("Test 6 failed!");
+            System.out.println("Expected R3 40.0 and R5 320.0 when the future completes");
+            System.out.println("Actual: " + (completed ? "R3 " + r3 + ", R5 " + r5 : "the future did not complete"));
+        }
+        wrapped.close();
+        config.close();
+        tm.clear();
+    }
+
+    // Writes the diamond R1 = A + B, R2 = max(A, B), R3 = R1 * R2 to a file and loads it
+    // through GenericConfig, which wraps every agent in a ParallelAgent; null if writing failed
+    private static GenericConfig loadDiamond() {
+        try {
+            Path file = Files.createTempFile("diamond", ".conf");
+            file.toFile().deleteOnExit();
+            Files.write(file, List.of(
+                    "graph.PlusAgent", "A,B", "R1",
+                    "graph.MaxAgent", "A,B", "R2",
+                    "graph.MultiplyAgent", "R1,R2", "R3"));
+            GenericConfig config = new GenericConfig();
+            config.setConfFile(file.toString());
+            config.create();
+            return config;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    // Wraps an agent in a ParallelAgent and subscribes the wrapper to the agent's inputs
+    private static ParallelAgent subscribeWrapped(ProductAgent agent) {
+        ParallelAgent wrapped = new ParallelAgent(agent, 10);
+        agent.x.subscribe(wrapped);
+        agent.y.subscribe(wrapped);
+        return wrapped;
+    }
+
+    // Helper agent that counts the values published to a topic
+    public static class CountAgent implements Agent {
+        public int count;
+        public double last = Double.NaN;
+
+        public CountAgent(String topic) {
+            TopicManagerSingleton.get().getTopic(topic).subscribe(this);
+        }
+
+        @Override
+        public String getName() {
+            return "CountAgent";
+        }
+
+        @Override
+        public void reset() {
+            count = 0;
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            count++;
+            last = msg.asDouble;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Helper agent that waits a little, then publishes the sum of its inputs' latest values plus one
+    public static class SlowAgent implements Agent {
+        private final String[] inputs;
+        private final Topic out;
+
+        public SlowAgent(String[] inputs, String out) {
+            this.inputs = inputs;
+            this.out = TopicManagerSingleton.get().getTopic(out);
+            for (String input : inputs) {
+                TopicManagerSingleton.get().getTopic(input).subscribe(this);
+            }
+            this.out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "SlowAgent";
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public void callback(Topic[] topics, Message[] msgs) {
+            publishSum();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            publishSum();
+        }
+
+        private void publishSum() {
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            double sum = 1;
+            for (String input : inputs) {
+                sum += new Message(TopicManagerSingleton.get().getTopic(input).getResult()).asDouble;
+            }
+            out.publish(new Message(sum));
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Helper agent that publishes the product of its two inputs once both arrived, after
+    // an optional delay. It does not subscribe itself, so a ParallelAgent can be subscribed
+    // in its place
+    public static class ProductAgent implements Agent {
+        private final Topic x;
+        private final Topic y;
+        private final Topic out;
+        private final long delayMillis;
+        private double xValue = Double.NaN;
+        private double yValue = Double.NaN;
+
+        public ProductAgent(String x, String y, String out) {
+            this(x, y, out, 0);
+        }
+
+        public ProductAgent(String x, String y, String out, long delayMillis) {
+            this.delayMillis = delayMillis;
+            this.x = TopicManagerSingleton.get().getTopic(x);
+            this.y = TopicManagerSingleton.get().getTopic(y);
+            this.out = TopicManagerSingleton.get().getTopic(out);
+            this.out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "ProductAgent";
+        }
+
+        @Override
+        public void reset() {
+            xValue = Double.NaN;
+            yValue = Double.NaN;
+        }
+
+        @Override
+        public void callback(Topic[] topics, Message[] msgs) {
+            for (int i = 0; i < topics.length; i++) {
+                store(topics[i], msgs[i]);
+            }
+            publishProduct();
+        }
+
+        @Override
+        public void callback(Topic topic, Message msg) {
+            store(topic, msg);
+            publishProduct();
+        }
+
+        @Override
+        public void callback(String topic, Message msg) {
+            callback(TopicManagerSingleton.get().getTopic(topic), msg);
+        }
+
+        private void store(Topic topic, Message msg) {
+            if (topic == x) {
+                xValue = msg.asDouble;
+            } else if (topic == y) {
+                yValue = msg.asDouble;
+            }
+        }
+
+        private void publishProduct() {
+            if (!Double.isNaN(xValue) && !Double.isNaN(yValue)) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                out.publish(new Message(xValue * yValue));
+            }
+        }
+
+        @Override
+        public void close() {
+            out.removePublisher(this);
+        }
+    }
+
+    // Helper agent that publishes its input plus one, until the input reaches a limit
+    public static class LimitAgent implements Agent {
+        private final Topic out;
+        private final double limit;
+
+        public LimitAgent(String in, String out, double limit) {
+            this.out = TopicManagerSingleton.get().getTopic(out);
+            this.limit = limit;
+            TopicManagerSingleton.get().getTopic(in).subscribe(this);
+            this.out.addPublisher(this);
+        }
+
+        @Override
+        public String getName() {
+            return "LimitAgent";
+        }
+
+        @Override
+        public void reset() {}
+
+        @Override
+        public void callback(String topic, Message msg) {
+            if (msg.asDouble < limit) {
+                out.publish(new Message(msg.asDouble + 1));
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+}
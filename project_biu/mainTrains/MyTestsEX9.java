@@ -0,0 +1,314 @@
+import graph.Message;
+import graph.TopicManagerSingleton;
+import server.NioHTTPServer;
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+import servlets.TopicEventsServlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+public class MyTestsEX9 {
+
+    public static void main(String[] args) {
+        System.out.println("Running MyTestsEX9...");
+
+        int port;
+        try (ServerSocket probe = new ServerSocket(0)) {
+            port = probe.getLocalPort();
+        } catch (IOException e) {
+            System.out.println("No free port: " + e.getMessage());
+            return;
+        }
+        NioHTTPServer server = new NioHTTPServer(port, 2, 4);
+        TopicEventsServlet events = new TopicEventsServlet();
+        server.addServlet("GET", "/echo", new EchoServlet());
+        server.addServlet("POST", "/echo", new EchoServlet());
+        server.addServlet("GET", "/large", new LargeServlet());
+        server.addServlet("GET", "/events", events);
+        server.start();
+
+        testGet(port);
+        testKeepAlivePair(server, port);
+        testChunkedPost(port);
+        testLargeResponse(port);
+        testStreamsDoNotHoldWorkers(port, 4);
+        testEventStream(port, events);
+
+        server.close();
+        System.out.println("\nAll tests completed.");
+    }
+
+    // Test 1: A GET request is routed to its servlet and answered
+    public static void testGet(int port) {
+        System.out.println("\nTest 1: GET");
+
+        try (Socket socket = connect(port)) {
+            send(socket, "GET /echo/a?x=1 HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+            String response = readResponse(socket.getInputStream());
+
+            if (response != null && response.startsWith("HTTP/1.1 200 OK\r\n") && response.endsWith("GET /echo/a?x=1 ")) {
+                System.out.println("Test 1 successful!");
+            } else {
+                System.out.println("Test 1 failed!");
+                System.out.println("Actual response: " + response);
+            }
+        } catch (IOException e) {
+            System.out.println("Test 1 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 2: Two requests sent at once on one connection are both answered, in order
+    public static void testKeepAlivePair(NioHTTPServer server, int port) {
+        System.out.println("\nTest 2: Keep-Alive Pair");
+
+        try (Socket socket = connect(port)) {
+            send(socket, "GET /echo/first HTTP/1.1\r\nHost: x\r\n\r\nGET /echo/second HTTP/1.1\r\nHost: x\r\n\r\n");
+            String first = readResponse(socket.getInputStream());
+            long accepted = server.getAcceptedConnections();
+            String second = readResponse(socket.getInputStream());
+
+            if (first != null && first.endsWith("GET /echo/first ")
+                    && second != null && second.endsWith("GET /echo/second ")
+                    && server.getAcceptedConnections() == accepted) {
+                System.out.println("Test 2 successful!");
+            } else {
+                System.out.println("Test 2 failed!");
+                System.out.println("Actual responses: " + first + " / " + second);
+            }
+        } catch (IOException e) {
+            System.out.println("Test 2 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 3: A chunked request body reaches the servlet decoded
+    public static void testChunkedPost(int port) {
+        System.out.println("\nTest 3: Chunked POST");
+
+        try (Socket socket = connect(port)) {
+            send(socket, "POST /echo HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: chunked\r\nConnection: close\r\n\r\n"
+                    + "5\r\nhello\r\n6\r\n world\r\n0\r\n\r\n");
+            String response = readResponse(socket.getInputStream());
+
+            if (response != null && response.endsWith("POST /echo hello world")) {
+                System.out.println("Test 3 successful!");
+            } else {
+                System.out.println("Test 3 failed!");
+                System.out.println("Actual response: " + response);
+            }
+        } catch (IOException e) {
+            System.out.println("Test 3 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 4: A response many times the pending chunk limit arrives whole while the client reads slowly
+    public static void testLargeResponse(int port) {
+        System.out.println("\nTest 4: Large Response");
+
+        try (Socket socket = connect(port)) {
+            send(socket, "GET /large HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            ByteArrayOutputStream received = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                received.write(buffer, 0, n);
+                if (received.size() < 64 * 1024) {
+                    sleep(10);
+                }
+            }
+            String response = new String(received.toByteArray(), StandardCharsets.US_ASCII);
+            int bodyStart = response.indexOf("\r\n\r\n") + 4;
+
+            if (response.startsWith("HTTP/1.1 200 OK\r\n") && response.length() - bodyStart == LargeServlet.SIZE) {
+                System.out.println("Test 4 successful!");
+            } else {
+                System.out.println("Test 4 failed!");
+                System.out.println("Expected " + LargeServlet.SIZE + " body bytes, got " + (response.length() - bodyStart));
+            }
+        } catch (IOException e) {
+            System.out.println("Test 4 failed! " + e.getMessage());
+        }
+    }
+
+    // Test 5: More open event streams than worker threads do not hold up a plain GET
+    public static void testStreamsDoNotHoldWorkers(int port, int nWorkers) {
+        System.out.println("\nTest 5: Streams Do Not Hold Workers");
+
+        TopicManagerSingleton.get().clear();
+        TopicManagerSingleton.get().getTopic("NioS").publish(new Message(1));
+        Socket[] streams = new Socket[nWorkers + 1];
+        try {
+            for (int i = 0; i < streams.length; i++) {
+                streams[i] = connect(port);
+                send(streams[i], "GET /events?topics=NioS HTTP/1.1\r\nHost: x\r\n\r\n");
+                if (readUntil(streams[i].getInputStream(), "\n\n", "\"NioS\":\"1.0\"") == null) {
+                    System.out.println("Test 5 failed! Stream " + i + " ended early");
+                    return;
+                }
+            }
+            try (Socket socket = connect(port)) {
+                send(socket, "GET /echo/free HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n");
+                String response = readResponse(socket.getInputStream());
+
+                if (response != null && response.endsWith("GET /echo/free ")) {
+                    System.out.println("Test 5 successful!");
+                } else {
+                    System.out.println("Test 5 failed!");
+                    System.out.println("Actual response: " + response);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Test 5 failed! " + e.getMessage());
+        } finally {
+            for (Socket stream : streams) {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // already closed
+                    }
+                }
+            }
+        }
+    }
+
+    // Test 6: A server-sent event stream delivers its first event and later changes as they happen
+    public static void testEventStream(int port, TopicEventsServlet events) {
+        System.out.println("\nTest 6: Event Stream");
+
+        TopicManagerSingleton.get().clear();
+        TopicManagerSingleton.get().getTopic("NioA").publish(new Message(1));
+        try (Socket socket = connect(port)) {
+            send(socket, "GET /events?topics=NioA HTTP/1.1\r\nHost: x\r\n\r\n");
+            InputStream in = socket.getInputStream();
+            String first = readUntil(in, "\n\n", "\"NioA\":\"1.0\"");
+            TopicManagerSingleton.get().getTopic("NioA").publish(new Message(2));
+            String second = readUntil(in, "\n\n", "\"NioA\":\"2.0\"");
+
+            if (first != null && first.contains("text/event-stream") && second != null) {
+                System.out.println("Test 6 successful!");
+            } else {
+                System.out.println("Test 6 failed!");
+                System.out.println("Actual stream: " + first + " / " + second);
+            }
+        } catch (IOException e) {
+            System.out.println("Test 6 failed! " + e.getMessage());
+        }
+        // Let the stream end at the next value instead of at the server's shutdown timeout
+        try {
+            events.close();
+        } catch (IOException e) {
+            // nothing to release
+        }
+        TopicManagerSingleton.get().getTopic("NioA").publish(new Message(3));
+        TopicManagerSingleton.get().clear();
+    }
+
+    // Connects to the server, retrying while it is still starting
+    private static Socket connect(int port) throws IOException {
+        for (int attempt = 0; ; attempt++) {
+            try {
+                Socket socket = new Socket("127.0.0.1", port);
+                socket.setSoTimeout(5000);
+                return socket;
+            } catch (IOException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                sleep(50);
+            }
+        }
+    }
+
+    private static void send(Socket socket, String request) throws IOException {
+        OutputStream out = socket.getOutputStream();
+        out.write(request.getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+
+    // Reads one response framed by Content-Length; null if the stream ends first
+    private static String readResponse(InputStream in) throws IOException {
+        StringBuilder response = new StringBuilder();
+        while (response.indexOf("\r\n\r\n") == -1) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            response.append((char) b);
+        }
+        int lengthStart = response.indexOf("Content-Length: ") + "Content-Length: ".length();
+        int length = Integer.parseInt(response.substring(lengthStart, response.indexOf("\r\n", lengthStart)));
+        for (int i = 0; i < length; i++) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            response.append((char) b);
+        }
+        return response.toString();
+    }
+
+    // Reads until a block ending in the separator contains the expected text; null if the stream ends first
+    private static String readUntil(InputStream in, String separator, String expected) throws IOException {
+        StringBuilder text = new StringBuilder();
+        while (!(text.indexOf(expected) != -1 && text.lastIndexOf(separator) > text.indexOf(expected))) {
+            int b = in.read();
+            if (b == -1) {
+                return null;
+            }
+            text.append((char) b);
+        }
+        return text.toString();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Helper servlet that answers with the method, URI and body of the request
+    public static class EchoServlet implements Servlet {
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            byte[] body = (ri.getHttpCommand() + " " + ri.getUri() + " "
+                    + new String(ri.getContent(), StandardCharsets.US_ASCII)).getBytes(StandardCharsets.US_ASCII);
+            toClient.write(("HTTP/1.1 200 OK\r\nContent-Length: " + body.length + "\r\n\r\n")
+                    .getBytes(StandardCharsets.US_ASCII));
+            toClient.write(body);
+        }
+
+        @Override
+        public boolean supportsKeepAlive() {
+            return true;
+        }
+
+        @Override
+        public void close() {}
+    }
+
+    // Helper servlet that writes a large body in small pieces
+    public static class LargeServlet implements Servlet {
+        static final int SIZE = 1024 * 1024;
+
+        @Override
+        public void handle(RequestInfo ri, OutputStream toClient) throws IOException {
+            toClient.write(("HTTP/1.1 200 OK\r\nContent-Length: " + SIZE + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            byte[] piece = new byte[1000];
+            for (int sent = 0; sent < SIZE; sent += piece.length) {
+                toClient.write(piece, 0, Math.min(piece.length, SIZE - sent));
+            }
+        }
+
+        @Override
+        public void close() {}
+    }
+}
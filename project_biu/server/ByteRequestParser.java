@@ -0,0 +1,583 @@
+package server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * ByteRequestParser is an incremental, byte-level HTTP/1.1 request parser.
+ * Unlike {@link RequestParser}, which reads text lines from a BufferedReader, it works
+ * on raw bytes in a single reusable {@link ByteBuffer}, so request bodies keep their
+ * exact binary content and no time is spent waiting for data that is not coming.
+ *
+ * <p>One instance is used per connection. Bytes are appended with {@link #fill(InputStream)}
+ * or {@link #fill(ReadableByteChannel)}, and {@link #tryParse()} returns the next request
+ * once all of its bytes have arrived. Any bytes beyond that request (for example a
+ * pipelined request) stay in the buffer for the next call. Once the header section
+ * of a request is parsed, its body bytes are moved out of the buffer as they arrive
+ * and the decoding state is kept between calls, so the buffer only has to hold a
+ * header section and a large body costs one pass over its bytes.</p>
+ *
+ * <p>The parser supports:</p>
+ * <ul>
+ * <li>CRLF and bare LF line endings</li>
+ * <li>Bodies framed by Content-Length, read exactly</li>
+ * <li>Bodies sent with Transfer-Encoding: chunked, including trailers</li>
+ * <li>Percent-decoded query parameters, and form parameters from
+ * application/x-www-form-urlencoded bodies</li>
+ * </ul>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@code
+ * ByteRequestParser parser = new ByteRequestParser();
+ * RequestInfo requestInfo;
+ * while ((requestInfo = parser.readRequest(socket.getInputStream())) != null) {
+ *     // handle requestInfo
+ * }
+ * }
+ * </pre>
+ *
+ * @author Almog Sharoni Yuval Harary
+ * @version 1.0
+ * @since 1.0
+ */
+public class ByteRequestParser {
+
+    /** Initial size of the receive buffer, which it shrinks back to after each request */
+    private static final int INITIAL_BUFFER_SIZE = 8 * 1024;
+
+    /** Largest request line plus headers accepted, in bytes */
+    public static final int MAX_HEADER_BYTES = 64 * 1024;
+
+    /** Largest request body accepted, in bytes */
+    public static final int MAX_BODY_BYTES = 16 * 1024 * 1024;
+
+    /** Received bytes not yet consumed; always in write mode, holding data in [0, position) */
+    private ByteBuffer buffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+
+    /** Offset from which the search for the end of the header section resumes */
+    private int scanFrom = 0;
+
+    /** The request whose header section is parsed but whose body is still arriving, or null */
+    private PendingRequest pending;
+
+    /**
+     * Returns true if bytes of a further request are already buffered.
+     *
+     * @return true if the buffer holds unconsumed bytes
+     */
+    public boolean hasBufferedBytes() {
+        return buffer.position() > 0;
+    }
+
+    /**
+     * Returns true if no byte of a further request has arrived yet, i.e. the
+     * parser waits for the start of the next request line.
+     *
+     * @return true if nothing is buffered and no request is partly parsed
+     */
+    public boolean isBetweenRequests() {
+        return pending == null && buffer.position() == 0;
+    }
+
+    /**
+     * Removes and returns the buffered bytes that follow the last parsed request.
+     * Used when a connection switches protocols and its remaining bytes no longer
+     * belong to HTTP.
+     *
+     * @return the unconsumed bytes, possibly empty
+     */
+    public byte[] takeBufferedBytes() {
+        byte[] rest = new byte[buffer.position()];
+        System.arraycopy(buffer.array(), buffer.arrayOffset(), rest, 0, rest.length);
+        buffer.clear();
+        scanFrom = 0;
+        pending = null;
+        return rest;
+    }
+
+    /**
+     * Reads available bytes from a blocking stream into the buffer.
+     *
+     * @param in the stream to read from
+     * @return the number of bytes read, or -1 at end of stream
+     * @throws IOException if reading fails or the request exceeds the size limits
+     */
+    public int fill(InputStream in) throws IOException {
+        ensureSpace();
+        int read = in.read(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+        if (read > 0) {
+            buffer.position(buffer.position() + read);
+        }
+        return read;
+    }
+
+    /**
+     * Reads available bytes from a channel into the buffer. For non-blocking
+     * channels this may read nothing.
+     *
+     * @param channel the channel to read from
+     * @return the number of bytes read, or -1 at end of stream
+     * @throws IOException if reading fails or the request exceeds the size limits
+     */
+    public int fill(ReadableByteChannel channel) throws IOException {
+        ensureSpace();
+        return channel.read(buffer);
+    }
+
+    /**
+     * Blocks until a complete request has been read from the stream.
+     *
+     * @param in the stream to read from
+     * @return the next request, or null if the stream ended before any byte of it
+     * @throws IOException if the request is malformed, too large, or the stream ends mid-request
+     */
+    public RequestInfo readRequest(InputStream in) throws IOException {
+        RequestInfo requestInfo;
+        while ((requestInfo = tryParse()) == null) {
+            if (fill(in) == -1) {
+                if (hasBufferedBytes() || pending != null) {
+                    throw new IOException("Connection closed in the middle of a request");
+                }
+                return null;
+            }
+        }
+        return requestInfo;
+    }
+
+    /**
+     * Parses the next request if all of its bytes are buffered, and consumes them.
+     * The bytes of a request that is still incomplete are consumed as far as they
+     * go, and parsing resumes there on the next call.
+     *
+     * @return the parsed request, or null if more bytes are needed
+     * @throws IOException if the request is malformed or exceeds the size limits
+     */
+    public RequestInfo tryParse() throws IOException {
+        if (pending == null && !parseHead()) {
+            return null;
+        }
+        int used = pending.chunked ? readChunkedBody() : readBody();
+        consume(used);
+        if (!pending.complete) {
+            return null;
+        }
+        PendingRequest request = pending;
+        pending = null;
+        shrink();
+        byte[] content = request.chunked ? request.chunkedBody.toByteArray() : request.content;
+        return buildRequestInfo(request.httpCommand, request.uri, request.httpVersion, request.headers, content);
+    }
+
+    /**
+     * Parses the request line and headers if the whole header section is buffered,
+     * consumes them and starts a pending request.
+     *
+     * @return true if a pending request was started, false if more bytes are needed
+     * @throws IOException if the header section is malformed or too large
+     */
+    private boolean parseHead() throws IOException {
+        byte[] data = buffer.array();
+        int base = buffer.arrayOffset();
+        int length = buffer.position();
+
+        // Tolerate empty lines before the request line (RFC 9112, section 2.2)
+        int start = 0;
+        while (start < length && (data[base + start] == '\r' || data[base + start] == '\n')) {
+            start++;
+        }
+        if (start > 0) {
+            consume(start);
+            length -= start;
+        }
+        if (length == 0) {
+            return false;
+        }
+
+        int headerEnd = findHeaderEnd(data, base, length);
+        if (headerEnd == -1) {
+            if (length > MAX_HEADER_BYTES) {
+                throw new RequestTooLargeException("Request header section exceeds " + MAX_HEADER_BYTES + " bytes");
+            }
+            scanFrom = Math.max(0, length - 3);
+            return false;
+        }
+
+        // Header bytes are ASCII; ISO-8859-1 maps each byte to one char
+        String head = new String(data, base, headerEnd, StandardCharsets.ISO_8859_1);
+        List<String> lines = splitLines(head);
+        String requestLine = lines.get(0);
+        String[] requestParts = requestLine.split(" ");
+        if (requestParts.length != 3) {
+            throw new IOException("Invalid request line: " + requestLine);
+        }
+
+        Map<String, String> headers = new HashMap<>();
+        for (int i = 1; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int colon = line.indexOf(':');
+            if (colon <= 0) {
+                throw new IOException("Invalid header line: " + line);
+            }
+            String name = line.substring(0, colon).trim().toLowerCase();
+            String value = line.substring(colon + 1).trim();
+            headers.merge(name, value, (a, b) -> a + ", " + b);
+        }
+
+        // Determine the body framing
+        PendingRequest request = new PendingRequest(requestParts[0], requestParts[1], requestParts[2], headers);
+        String transferEncoding = headers.get("transfer-encoding");
+        if (transferEncoding != null && transferEncoding.toLowerCase().contains("chunked")) {
+            request.chunked = true;
+            request.chunkedBody = new ByteArrayOutputStream();
+        } else {
+            // The body array grows as bytes arrive, so a large Content-Length alone costs nothing
+            request.contentLength = parseContentLength(headers.get("content-length"));
+            request.content = new byte[Math.min(request.contentLength, INITIAL_BUFFER_SIZE)];
+        }
+        consume(headerEnd);
+        pending = request;
+        return true;
+    }
+
+    /**
+     * Copies the buffered bytes of a Content-Length body into the pending request,
+     * doubling its body array as needed, up to the declared length.
+     *
+     * @return the number of buffered bytes used
+     */
+    private int readBody() {
+        int used = Math.min(buffer.position(), pending.contentLength - pending.received);
+        if (pending.received + used > pending.content.length) {
+            int newLength = (int) Math.min(pending.contentLength,
+                    Math.max(2L * pending.content.length, pending.received + used));
+            pending.content = Arrays.copyOf(pending.content, newLength);
+        }
+        System.arraycopy(buffer.array(), buffer.arrayOffset(), pending.content, pending.received, used);
+        pending.received += used;
+        pending.complete = pending.received == pending.contentLength;
+        return used;
+    }
+
+    /**
+     * Decodes the buffered part of a chunked body into the pending request, going on
+     * from where the previous call stopped.
+     *
+     * @return the number of buffered bytes used
+     * @throws IOException if a chunk size is malformed, a line is too long, or the body is too large
+     */
+    private int readChunkedBody() throws IOException {
+        byte[] data = buffer.array();
+        int base = buffer.arrayOffset();
+        int length = buffer.position();
+        int pos = 0;
+        while (!pending.complete) {
+            if (pending.chunkRemaining > 0) {
+                // Chunk data, possibly split over several reads
+                int size = Math.min(length - pos, pending.chunkRemaining);
+                pending.chunkedBody.write(data, base + pos, size);
+                pos += size;
+                pending.chunkRemaining -= size;
+                if (pending.chunkRemaining > 0) {
+                    return pos;
+                }
+                pending.chunkState = ChunkState.DATA_END;
+                continue;
+            }
+            int lineEnd = indexOfLineEnd(data, base, pos, length);
+            if (lineEnd == -1) {
+                if (length - pos > MAX_HEADER_BYTES) {
+                    throw new RequestTooLargeException("Chunk line exceeds " + MAX_HEADER_BYTES + " bytes");
+                }
+                return pos;
+            }
+            switch (pending.chunkState) {
+                case SIZE:
+                    String sizeLine = new String(data, base + pos, lineEnd - pos, StandardCharsets.ISO_8859_1).trim();
+                    int semicolon = sizeLine.indexOf(';');
+                    if (semicolon != -1) {
+                        sizeLine = sizeLine.substring(0, semicolon).trim(); // ignore chunk extensions
+                    }
+                    int size;
+                    try {
+                        size = Integer.parseInt(sizeLine, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size: " + sizeLine);
+                    }
+                    if (size < 0 || pending.chunkedBody.size() + (long) size > MAX_BODY_BYTES) {
+                        throw new RequestTooLargeException("Request body exceeds " + MAX_BODY_BYTES + " bytes");
+                    }
+                    pending.chunkRemaining = size;
+                    // A zero-size chunk ends the data; trailer fields follow
+                    pending.chunkState = size == 0 ? ChunkState.TRAILERS : ChunkState.DATA;
+                    break;
+                case DATA_END:
+                    if (lineEnd != pos) {
+                        throw new IOException("Chunk data is longer than its declared size");
+                    }
+                    pending.chunkState = ChunkState.SIZE;
+                    break;
+                case TRAILERS:
+                    // Skip trailer fields up to and including the terminating empty line
+                    pending.complete = lineEnd == pos;
+                    break;
+                default:
+                    break;
+            }
+            pos = skipLineEnd(data, base, lineEnd);
+        }
+        return pos;
+    }
+
+    /**
+     * Finds the end of the header section, i.e. the offset just past the empty line.
+     *
+     * @return the offset of the first body byte, or -1 if the header section is incomplete
+     */
+    private int findHeaderEnd(byte[] data, int base, int length) {
+        for (int i = scanFrom; i < length; i++) {
+            if (data[base + i] != '\n') {
+                continue;
+            }
+            if (i + 1 < length && data[base + i + 1] == '\n') {
+                return i + 2;
+            }
+            if (i + 2 < length && data[base + i + 1] == '\r' && data[base + i + 2] == '\n') {
+                return i + 3;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset of the line ending ('\r' of CRLF, or a bare '\n') at or after pos,
+     * or -1 if the line is not yet complete.
+     */
+    private static int indexOfLineEnd(byte[] data, int base, int pos, int length) {
+        for (int i = pos; i < length; i++) {
+            if (data[base + i] == '\n') {
+                return (i > pos && data[base + i - 1] == '\r') ? i - 1 : i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the offset just past the line ending found by indexOfLineEnd.
+     */
+    private static int skipLineEnd(byte[] data, int base, int lineEnd) {
+        return data[base + lineEnd] == '\r' ? lineEnd + 2 : lineEnd + 1;
+    }
+
+    /**
+     * Splits the header section into lines, dropping line endings and the final empty line.
+     */
+    private static List<String> splitLines(String head) {
+        List<String> lines = new ArrayList<>();
+        int start = 0;
+        while (start < head.length()) {
+            int end = head.indexOf('\n', start);
+            if (end == -1) {
+                end = head.length();
+            }
+            String line = head.substring(start, end > start && head.charAt(end - 1) == '\r' ? end - 1 : end);
+            if (line.isEmpty()) {
+                break;
+            }
+            lines.add(line);
+            start = end + 1;
+        }
+        return lines;
+    }
+
+    /**
+     * Parses a Content-Length header value.
+     *
+     * @param value the header value, or null if absent
+     * @return the body length in bytes (0 if absent)
+     * @throws IOException if the value is not a valid length or exceeds the limit
+     */
+    private static int parseContentLength(String value) throws IOException {
+        if (value == null) {
+            return 0;
+        }
+        long contentLength;
+        try {
+            contentLength = Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid Content-Length: " + value);
+        }
+        if (contentLength < 0) {
+            throw new IOException("Invalid Content-Length: " + value);
+        }
+        if (contentLength > MAX_BODY_BYTES) {
+            throw new RequestTooLargeException("Request body exceeds " + MAX_BODY_BYTES + " bytes");
+        }
+        return (int) contentLength;
+    }
+
+    /**
+     * Builds the RequestInfo for a fully received request.
+     */
+    private static RequestInfo buildRequestInfo(String httpCommand, String uri, String httpVersion,
+                                                Map<String, String> headers, byte[] content) {
+        String path = uri;
+        Map<String, String> parameters = new HashMap<>();
+        int queryIndex = uri.indexOf('?');
+        if (queryIndex != -1) {
+            path = uri.substring(0, queryIndex);
+            parseParameters(uri.substring(queryIndex + 1), parameters);
+        }
+
+        // Form posts carry their parameters in the body
+        String contentType = headers.get("content-type");
+        if (contentType != null && contentType.toLowerCase().startsWith("application/x-www-form-urlencoded")) {
+            parseParameters(new String(content, StandardCharsets.ISO_8859_1), parameters);
+        }
+
+        List<String> segments = new ArrayList<>();
+        for (String segment : path.split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(segment);
+            }
+        }
+
+        return new RequestInfo(httpCommand, uri, segments.toArray(new String[0]), parameters, content, httpVersion, headers);
+    }
+
+    /**
+     * Parses "key=value" pairs separated by '&' into the given map, percent-decoding
+     * keys and values. Keys without a value map to an empty string.
+     */
+    private static void parseParameters(String query, Map<String, String> parameters) {
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) {
+                continue;
+            }
+            int eq = pair.indexOf('=');
+            if (eq == -1) {
+                parameters.put(decode(pair), "");
+            } else {
+                parameters.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+            }
+        }
+    }
+
+    /**
+     * Percent-decodes a query component as UTF-8, returning it unchanged if it is malformed.
+     */
+    private static String decode(String component) {
+        if (component.indexOf('%') == -1 && component.indexOf('+') == -1) {
+            return component;
+        }
+        try {
+            return URLDecoder.decode(component, StandardCharsets.UTF_8.name());
+        } catch (IllegalArgumentException | UnsupportedEncodingException e) {
+            return component;
+        }
+    }
+
+    /**
+     * Drops the first n buffered bytes, keeping any that follow.
+     */
+    private void consume(int n) {
+        buffer.flip();
+        buffer.position(n);
+        buffer.compact();
+        scanFrom = 0;
+    }
+
+    /**
+     * Shrinks the buffer back to its initial size after a request, unless the bytes
+     * buffered for the next one do not fit, so one large request does not pin memory
+     * for the rest of the connection.
+     */
+    private void shrink() {
+        if (buffer.capacity() > INITIAL_BUFFER_SIZE && buffer.position() <= INITIAL_BUFFER_SIZE) {
+            ByteBuffer smaller = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+            buffer.flip();
+            smaller.put(buffer);
+            buffer = smaller;
+        }
+    }
+
+    /**
+     * Makes room for more bytes, doubling the buffer when it is full. Bodies are moved
+     * out as they arrive, so the buffer only has to hold a header section or a chunk
+     * line of up to {@link #MAX_HEADER_BYTES}, plus the bytes that show it is too long.
+     *
+     * @throws IOException if the buffer would grow beyond twice the header size limit
+     */
+    private void ensureSpace() throws IOException {
+        if (buffer.hasRemaining()) {
+            return;
+        }
+        int newCapacity = buffer.capacity() * 2;
+        if (newCapacity > 2 * MAX_HEADER_BYTES) {
+            throw new RequestTooLargeException("Request header section exceeds " + MAX_HEADER_BYTES + " bytes");
+        }
+        ByteBuffer larger = ByteBuffer.allocate(newCapacity);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+
+    /** Where the decoding of a chunked body stands */
+    private enum ChunkState {
+        SIZE,       // expecting a chunk size line
+        DATA,       // inside chunk data; chunkRemaining bytes are left
+        DATA_END,   // expecting the line ending after chunk data
+        TRAILERS    // after the last chunk, expecting trailer fields or the final empty line
+    }
+
+    /**
+     * A request whose header section is parsed and whose body is still arriving.
+     */
+    private static final class PendingRequest {
+        final String httpCommand;
+        final String uri;
+        final String httpVersion;
+        final Map<String, String> headers;
+        boolean chunked;
+        int contentLength;                          // declared Content-Length
+        byte[] content;                             // Content-Length body so far, filled up to received
+        int received;
+        ByteArrayOutputStream chunkedBody;          // decoded chunk data so far
+        ChunkState chunkState = ChunkState.SIZE;
+        int chunkRemaining;
+        boolean complete;
+
+        PendingRequest(String httpCommand, String uri, String httpVersion, Map<String, String> headers) {
+            this.httpCommand = httpCommand;
+            this.uri = uri;
+            this.httpVersion = httpVersion;
+            this.headers = headers;
+        }
+    }
+
+    /**
+     * Thrown when a request exceeds {@link #MAX_HEADER_BYTES} or {@link #MAX_BODY_BYTES},
+     * so servers can answer 413 rather than 400.
+     */
+    public static class RequestTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        public RequestTooLargeException(String message) {
+            super(message);
+        }
+    }
+}
@@ -2,10 +2,12 @@ package server;
 
 import server.RequestParser.RequestInfo;
 import servlets.Servlet;
+import servlets.UpgradeServlet;
 
 import java.io.*;
 import java.net.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * MyHTTPServer is a concrete implementation of the HTTPServer interface.
@@ -13,7 +15,9 @@ import java.util.concurrent.*;
  * by routing them to registered servlets based on URI patterns.
  * 
  * <p>The server uses a thread pool to handle concurrent requests efficiently and supports
- * servlet registration/removal at runtime. It performs longest-prefix matching for URI routing
+ * servlet registration/removal at runtime. The pool is either a fixed number of platform
+ * threads or one virtual thread per connection (see {@link ExecutionMode}), optionally
+ * with a cap on the number of connections handled at once. It performs longest-prefix matching for URI routing
  * and includes comprehensive error handling and logging capabilities.</p>
  * 
  * <p>Example usage:</p>
@@ -22,6 +26,9 @@ import java.util.concurrent.*;
  * MyHTTPServer server = new MyHTTPServer(8080, 10);
  * server.addServlet("GET", "/api", new ApiServlet());
  * server.start();
+ *
+ * // one virtual thread per connection, at most 1000 in flight
+ * MyHTTPServer vServer = new MyHTTPServer(8081, MyHTTPServer.ExecutionMode.VIRTUAL_THREADS, 1000);
  * }
  * </pre>
  * 
@@ -31,26 +38,61 @@ import java.util.concurrent.*;
  */
 public class MyHTTPServer extends Thread implements HTTPServer{
     
+    /**
+     * Selects how accepted connections are executed.
+     */
+    public enum ExecutionMode {
+        /** A fixed pool of platform threads; at most that many connections are served at once */
+        FIXED_POOL,
+        /**
+         * A new virtual thread per connection, so slow clients do not tie up OS threads.
+         * On runtimes without virtual threads (before Java 21) a cached pool of platform
+         * threads is used instead.
+         */
+        VIRTUAL_THREADS
+    }
+    
     /** The port number on which the server listens for incoming connections */
     private int port;
     
     /** The number of threads in the thread pool for handling concurrent requests */
     private int numberOfThreads = 0;
     
+    /** How accepted connections are executed */
+    private final ExecutionMode executionMode;
+    
+    /** Maximum number of connections handled at once, or 0 for no limit beyond the pool itself */
+    private final int maxInFlight;
+    
+    /** Permits for in-flight connections; null when maxInFlight is 0 */
+    private Semaphore inFlight;
+    
     /** The server socket that accepts incoming client connections */
     private ServerSocket serverSocket;
     
-    /** The thread pool executor for handling client requests concurrently */
-    private ExecutorService threadPool;
+    /** Requested length of the kernel's pending-connection queue (0 uses the platform default) */
+    private volatile int backlog = 0;
+    
+    /** Number of connections accepted since the server started */
+    private final AtomicLong acceptedConnections = new AtomicLong();
+    
+    /** Time the server started accepting, in nanoseconds (System.nanoTime) */
+    private volatile long acceptStartNanos;
     
-    /** Map storing servlets registered to handle GET requests, keyed by URI pattern */
-    private ConcurrentHashMap<String, Servlet> getHttpCommandMap = new ConcurrentHashMap<String, Servlet>();
+    /** How long a persistent connection may stay idle between requests, in milliseconds */
+    private volatile int keepAliveTimeoutMillis = 5000;
     
-    /** Map storing servlets registered to handle POST requests, keyed by URI pattern */
-    private ConcurrentHashMap<String, Servlet> postHttpCommandMap = new ConcurrentHashMap<String, Servlet>();
+    /** How long a read may wait for the bytes of a request, including the first one, in milliseconds */
+    private volatile int requestTimeoutMillis = 30000;
+    
+    /** Maximum number of requests served on one connection before it is closed */
+    private volatile int maxRequestsPerConnection = 100;
+    
+    /** The thread pool executor for handling client requests concurrently */
+    private ExecutorService threadPool;
     
-    /** Map storing servlets registered to handle DELETE requests, keyed by URI pattern */
-    private ConcurrentHashMap<String, Servlet> deleteHttpCommandMap = new ConcurrentHashMap<String, Servlet>();
+    /** Servlets registered per HTTP method, keyed by URI pattern */
+    private final ServletRoutes routes = new ServletRoutes();
     
     /**
      * Constructs a new MyHTTPServer instance with the specified port and thread pool size.
@@ -62,6 +104,104 @@ public class MyHTTPServer extends Thread implements HTTPServer{
     public MyHTTPServer(int port, int nThreads){
         this.port = port;
         this.numberOfThreads = nThreads;
+        this.executionMode = ExecutionMode.FIXED_POOL;
+        this.maxInFlight = 0;
+    }
+
+    /**
+     * Constructs a new MyHTTPServer instance with the specified execution mode.
+     * 
+     * <p>With {@link ExecutionMode#FIXED_POOL} the pool has {@code maxInFlight} threads.
+     * With {@link ExecutionMode#VIRTUAL_THREADS} each connection gets its own virtual
+     * thread and {@code maxInFlight} bounds how many are served at once; when the limit
+     * is reached the server stops accepting until a connection finishes.</p>
+     * 
+     * @param port the port number on which the server should listen (1-65535)
+     * @param mode how accepted connections are executed
+     * @param maxInFlight the maximum number of connections handled at once (must be positive)
+     * @throws IllegalArgumentException if mode is null or maxInFlight is not positive
+     */
+    public MyHTTPServer(int port, ExecutionMode mode, int maxInFlight){
+        if (mode == null) {
+            throw new IllegalArgumentException("Execution mode must not be null");
+        }
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.port = port;
+        this.numberOfThreads = maxInFlight;
+        this.executionMode = mode;
+        this.maxInFlight = maxInFlight;
+    }
+
+    /**
+     * Sets the length of the queue of pending connections passed to the server socket.
+     * Must be called before the server is started; values of 0 or less use the
+     * platform default.
+     * 
+     * @param backlog the requested maximum number of pending connections
+     * @throws IllegalStateException if the server has already been started
+     */
+    public void setBacklog(int backlog) {
+        if (serverSocket != null) {
+            throw new IllegalStateException("Backlog must be set before the server is started");
+        }
+        this.backlog = backlog;
+    }
+
+    /**
+     * Configures HTTP/1.1 persistent connections. A connection is kept open after a
+     * response only if the request did not ask for "Connection: close", the servlet
+     * reports {@link Servlet#supportsKeepAlive()}, fewer than
+     * {@code maxRequestsPerConnection} requests have been served on it, and the next
+     * request arrives within {@code idleTimeoutMillis}.
+     * 
+     * <p>Note that with {@link ExecutionMode#FIXED_POOL} an idle persistent connection
+     * keeps its pool thread until the idle timeout expires.</p>
+     * 
+     * @param idleTimeoutMillis idle time allowed between requests; 0 or less disables keep-alive
+     * @param maxRequestsPerConnection requests served per connection; 1 or less disables keep-alive
+     */
+    public void setKeepAlive(int idleTimeoutMillis, int maxRequestsPerConnection) {
+        this.keepAliveTimeoutMillis = idleTimeoutMillis;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    /**
+     * Sets how long the server waits for the bytes of a request: for the first
+     * request of a connection from the moment it is accepted, and for later ones
+     * once their first byte has arrived. A connection that stays silent that long is
+     * closed, so it does not hold its thread and in-flight permit forever.
+     * 
+     * @param timeoutMillis the longest wait for a read, in milliseconds; 0 waits forever
+     */
+    public void setRequestTimeout(int timeoutMillis) {
+        this.requestTimeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Returns the number of connections accepted since the server started.
+     * 
+     * @return the total accepted connection count
+     */
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    /**
+     * Returns the average number of connections accepted per second since the
+     * server started, or 0 if it has not started yet. Callers wanting a recent
+     * rate can sample {@link #getAcceptedConnections()} at intervals instead.
+     * 
+     * @return accepted connections per second
+     */
+    public double getAcceptRate() {
+        long start = acceptStartNanos;
+        if (start == 0) {
+            return 0.0;
+        }
+        double seconds = (System.nanoTime() - start) / 1_000_000_000.0;
+        return seconds > 0 ? acceptedConnections.get() / seconds : 0.0;
     }
 
     /**
@@ -75,19 +215,7 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      * @throws NullPointerException if any parameter is null
      */
     public void addServlet(String httpCommand, String uri, Servlet s){
-        switch(httpCommand.toUpperCase()) {
-            case "GET":
-                this.getHttpCommandMap.put(uri, s);
-                break;
-            case "POST":
-                this.postHttpCommandMap.put(uri, s);
-                break;
-            case "DELETE":
-                this.deleteHttpCommandMap.put(uri, s);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
-        }
+        routes.add(httpCommand, uri, s);
     }
 
     /**
@@ -99,19 +227,7 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      * @throws NullPointerException if any parameter is null
      */
     public void removeServlet(String httpCommand, String uri){
-        switch(httpCommand.toUpperCase()) {
-            case "GET":
-                this.getHttpCommandMap.remove(uri);
-                break;
-            case "POST":
-                this.postHttpCommandMap.remove(uri);
-                break;
-            case "DELETE":
-                this.deleteHttpCommandMap.remove(uri);
-                break;
-            default:
-                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
-        }
+        routes.remove(httpCommand, uri);
     }
 
     /**
@@ -122,7 +238,7 @@ public class MyHTTPServer extends Thread implements HTTPServer{
      * <p>The server runs in its own thread and performs the following:</p>
      * <ul>
      * <li>Sets up error logging to server_error.log</li>
-     * <li>Creates a ServerSocket on the specified port</li>
+     * <li>Creates a ServerSocket on the specified port with the configured backlog</li>
      * <li>Initializes the thread pool with the specified number of threads</li>
      * <li>Accepts incoming connections and delegates them to worker threads</li>
      * </ul>
@@ -148,16 +264,48 @@ public class MyHTTPServer extends Thread implements HTTPServer{
             } catch (SecurityException e) {
                 System.out.println("Permission denied creating log file: " + e.getMessage());
             }
-            serverSocket = new ServerSocket(port);
-            threadPool = Executors.newFixedThreadPool(numberOfThreads);
+            serverSocket = new ServerSocket(port, backlog);
+            threadPool = createThreadPool();
+            // The fixed pool already bounds concurrency; only the virtual thread mode needs permits
+            if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+                inFlight = new Semaphore(maxInFlight);
+            }
             System.out.println("HTTP server started on port " + port);
+            acceptStartNanos = System.nanoTime();
             
+            // Accept connections as fast as the kernel hands them over
             while (!serverSocket.isClosed()) {
                 try {
-                    Thread.sleep(1000);
-                    Socket clientSocket = serverSocket.accept();
+                    // Wait for a free slot before accepting, so excess clients queue in the backlog
+                    if (inFlight != null) {
+                        inFlight.acquire();
+                    }
+                    Socket clientSocket;
+                    try {
+                        clientSocket = serverSocket.accept();
+                    } catch (IOException e) {
+                        releaseSlot();
+                        throw e;
+                    }
+                    acceptedConnections.incrementAndGet();
                     // Handle client
-                    threadPool.execute(() -> handleRequest(clientSocket));
+                    try {
+                        threadPool.execute(() -> {
+                            try {
+                                handleRequest(clientSocket);
+                            } finally {
+                                releaseSlot();
+                            }
+                        });
+                    } catch (RejectedExecutionException e) {
+                        // The pool is shutting down; drop the connection and give its slot back
+                        releaseSlot();
+                        try {
+                            clientSocket.close();
+                        } catch (IOException closeError) {
+                            // Nothing more to do for this client
+                        }
+                    }
                 } catch (IOException e) {
                     if (serverSocket.isClosed()) {
                         System.out.println("Server socket closed.");
@@ -173,6 +321,36 @@ public class MyHTTPServer extends Thread implements HTTPServer{
         }
     }
 
+    /**
+     * Creates the executor for client connections according to the execution mode.
+     * Virtual threads are looked up reflectively so the server still compiles and
+     * runs on runtimes that predate them.
+     * 
+     * @return the executor that runs {@link #handleRequest(Socket)} for each connection
+     */
+    private ExecutorService createThreadPool() {
+        if (executionMode == ExecutionMode.VIRTUAL_THREADS) {
+            try {
+                return (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                System.out.println("Virtual threads are not available on this runtime; using a cached thread pool");
+                return Executors.newCachedThreadPool();
+            }
+        }
+        return Executors.newFixedThreadPool(numberOfThreads);
+    }
+
+    /**
+     * Returns an in-flight permit taken by the accept loop, if permits are in use.
+     */
+    private void releaseSlot() {
+        if (inFlight != null) {
+            inFlight.release();
+        }
+    }
+
     /**
      * Gracefully shuts down the HTTP server and releases all associated resources.
      * This method performs the following cleanup operations:
@@ -202,81 +380,78 @@ public class MyHTTPServer extends Thread implements HTTPServer{
                     threadPool.shutdownNow();
                 }
             }
-            closeServlets();
+            routes.closeAll();
         } catch (IOException e) {
             e.printStackTrace();
         }
     }
     
     /**
-     * Closes all registered servlets to release their resources.
-     * This method iterates through all servlet maps (GET, POST, DELETE) and calls
-     * the close() method on each registered servlet.
-     * 
-     * @throws IOException if an error occurs while closing any servlet
-     */
-    private void closeServlets() throws IOException {
-        // Close get http servlets
-        for(Servlet servlet : getHttpCommandMap.values()) {
-            servlet.close();
-        }
-        // Close post http servlets
-        for(Servlet servlet : postHttpCommandMap.values()) {
-            servlet.close();
-        }
-        // Close delete http servlets
-        for(Servlet servlet : deleteHttpCommandMap.values()) {
-            servlet.close();
-        }
-    }
-
-    /**
-     * Handles an individual client request in a separate thread.
-     * This method performs the following operations:
+     * Handles a client connection in a separate thread.
+     * This method performs the following operations for each request on the connection:
      * <ul>
-     * <li>Parses the HTTP request using RequestParser</li>
+     * <li>Parses the HTTP request using ByteRequestParser</li>
      * <li>Matches the request URI to a registered servlet using longest-prefix matching</li>
-     * <li>Delegates request processing to the matched servlet</li>
+     * <li>Delegates request processing to the matched servlet, or hands the whole
+     * connection to it when the request asks to switch protocols and the servlet is an
+     * {@link UpgradeServlet}</li>
      * <li>Sends appropriate error responses for malformed requests or unmatched URIs</li>
-     * <li>Ensures proper cleanup of client socket resources</li>
+     * <li>Keeps the connection open for the next request when keep-alive applies
+     * (see {@link #setKeepAlive(int, int)}), otherwise closes it</li>
      * </ul>
      * 
      * @param clientSocket the client socket connection to handle
      */
     private void handleRequest(Socket clientSocket) {
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
+        try (InputStream in = clientSocket.getInputStream();
              OutputStream out = clientSocket.getOutputStream()) {
             
-            // Parse request
-            RequestInfo requestInfo = null;
-            try {
-                requestInfo = RequestParser.parseRequest(reader);
-            } catch (IOException e) {
-                System.err.println("[ERROR] Failed to parse request: " + e.getMessage());
-                // Send a proper HTTP error response
-                out.write("HTTP/1.1 400 Bad Request\r\n\r\nBad Request".getBytes());
-                return;
-            }
-            
-            Servlet servlet = null;
-            
-            // Match the URI to the servlet with the longest prefix
-            switch(requestInfo.getHttpCommand().toUpperCase()) {
-                case "GET":
-                    servlet = matchUriToServlet(getHttpCommandMap, requestInfo.getUri());
-                    break;
-                case "POST":
-                    servlet = matchUriToServlet(postHttpCommandMap, requestInfo.getUri());
-                    break;
-                case "DELETE":
-                    servlet = matchUriToServlet(deleteHttpCommandMap, requestInfo.getUri());
-                    break;
-            }
+            ByteRequestParser parser = new ByteRequestParser();
+            int served = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                // Parse request
+                RequestInfo requestInfo = null;
+                try {
+                    requestInfo = readRequest(parser, clientSocket, in, served > 0);
+                    if (requestInfo == null) {
+                        break; // client closed the connection
+                    }
+                } catch (SocketTimeoutException e) {
+                    break; // idle past the keep-alive timeout, or a request stalled
+                } catch (ByteRequestParser.RequestTooLargeException e) {
+                    System.err.println("[ERROR] Request too large: " + e.getMessage());
+                    out.write("HTTP/1.1 413 Payload Too Large\r\nContent-Length: 17\r\nConnection: close\r\n\r\nPayload Too Large".getBytes());
+                    return;
+                } catch (IOException e) {
+                    System.err.println("[ERROR] Failed to parse request: " + e.getMessage());
+                    // Send a proper HTTP error response
+                    out.write("HTTP/1.1 400 Bad Request\r\nContent-Length: 11\r\nConnection: close\r\n\r\nBad Request".getBytes());
+                    return;
+                }
+                served++;
+                keepAlive = served < maxRequestsPerConnection
+                        && keepAliveTimeoutMillis > 0
+                        && clientWantsKeepAlive(requestInfo);
+                
+                // Match the URI to the servlet with the longest prefix
+                Servlet servlet = routes.match(requestInfo.getHttpCommand(), requestInfo.getUri());
 
-            if (servlet != null) {
-                servlet.handle(requestInfo, out);
-            } else {
-                out.write("HTTP/1.1 404 Not Found\r\n\r\n".getBytes());
+                if (servlet instanceof UpgradeServlet && clientWantsUpgrade(requestInfo)) {
+                    // The servlet owns the connection from here on, including any bytes
+                    // the parser already read past this request
+                    clientSocket.setSoTimeout(0);
+                    InputStream rest = new SequenceInputStream(
+                            new ByteArrayInputStream(parser.takeBufferedBytes()), in);
+                    ((UpgradeServlet) servlet).upgrade(requestInfo, rest, out);
+                    break;
+                } else if (servlet != null) {
+                    servlet.handle(requestInfo, out);
+                    keepAlive &= servlet.supportsKeepAlive();
+                } else {
+                    out.write("HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes());
+                }
+                out.flush();
             }
         } catch (IOException e) {
             e.printStackTrace();
@@ -292,28 +467,67 @@ public class MyHTTPServer extends Thread implements HTTPServer{
     }
 
     /**
-     * Matches a request URI to a servlet using longest-prefix matching algorithm.
-     * This method iterates through all registered URI patterns in the specified command map
-     * and returns the servlet with the longest matching prefix.
+     * Reads the next request. Only the wait for the first byte of a request that
+     * follows another on the connection is bounded by the keep-alive idle timeout;
+     * the rest of every request, and all of the first one, by the request timeout.
      * 
-     * <p>For example, if servlets are registered for "/api" and "/api/users", 
-     * a request to "/api/users/123" would match the "/api/users" servlet.</p>
+     * @param parser the connection's parser
+     * @param clientSocket the connection, whose read timeout is adjusted
+     * @param in the connection's input stream
+     * @param idle true if the connection already served a request and now waits for the next
+     * @return the next request, or null if the client closed the connection between requests
+     * @throws IOException if the request is malformed or too large, or a read times out
+     */
+    private RequestInfo readRequest(ByteRequestParser parser, Socket clientSocket, InputStream in, boolean idle)
+            throws IOException {
+        int timeout = -1;
+        RequestInfo requestInfo;
+        while ((requestInfo = parser.tryParse()) == null) {
+            int wanted = idle && parser.isBetweenRequests() ? keepAliveTimeoutMillis : requestTimeoutMillis;
+            if (wanted != timeout) {
+                clientSocket.setSoTimeout(wanted);
+                timeout = wanted;
+            }
+            if (parser.fill(in) == -1) {
+                if (!parser.isBetweenRequests()) {
+                    throw new IOException("Connection closed in the middle of a request");
+                }
+                return null;
+            }
+        }
+        return requestInfo;
+    }
+
+    /**
+     * Returns true if the client asked for a persistent connection, which for
+     * HTTP/1.1 is the default unless it sent "Connection: close".
      * 
-     * @param commandMap the map of URI patterns to servlets for a specific HTTP method
-     * @param uri the request URI to match against registered patterns
-     * @return the servlet with the longest matching URI prefix, or null if no match is found
+     * @param requestInfo the parsed request
+     * @return true if the connection may be reused after this request
      */
-    private Servlet matchUriToServlet(ConcurrentHashMap<String, Servlet> commandMap, String uri) {
-        Servlet matchedServlet = null;
-        int longestMatchLength = -1;
+    static boolean clientWantsKeepAlive(RequestInfo requestInfo) {
+        String connection = requestInfo.getHeader("connection");
+        return "HTTP/1.1".equalsIgnoreCase(requestInfo.getHttpVersion())
+                && (connection == null || !connection.equalsIgnoreCase("close"));
+    }
 
-        for (String key : commandMap.keySet()) {
-            if (uri.startsWith(key) && key.length() > longestMatchLength) {
-                matchedServlet = commandMap.get(key);
-                longestMatchLength = key.length();
+    /**
+     * Returns true if the request asks to switch protocols, i.e. it has an Upgrade
+     * header and lists "upgrade" in its Connection header.
+     * 
+     * @param requestInfo the parsed request
+     * @return true if the client wants to upgrade the connection
+     */
+    static boolean clientWantsUpgrade(RequestInfo requestInfo) {
+        String connection = requestInfo.getHeader("connection");
+        if (requestInfo.getHeader("upgrade") == null || connection == null) {
+            return false;
+        }
+        for (String token : connection.split(",")) {
+            if (token.trim().equalsIgnoreCase("upgrade")) {
+                return true;
             }
         }
-
-        return matchedServlet;
+        return false;
     }
 }
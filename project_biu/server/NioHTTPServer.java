@@ -0,0 +1,748 @@
+package server;
+
+import server.RequestParser.RequestInfo;
+import servlets.Servlet;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * NioHTTPServer is a non-blocking implementation of the HTTPServer interface.
+ * Connections are multiplexed over a small number of event-loop threads, each owning
+ * a {@link Selector}, so idle or slow clients do not hold a thread. Servlets still run
+ * on a separate pool of worker threads, since they may block on I/O or on the graph.
+ *
+ * <p>Each connection moves through the following steps:</p>
+ * <ul>
+ * <li>The acceptor (this thread) accepts it and hands it to an event loop, round-robin</li>
+ * <li>The event loop reads bytes into the connection's {@link ByteRequestParser} until a
+ * complete request is buffered</li>
+ * <li>The matched servlet runs on a worker thread; its output is handed to the event
+ * loop in chunks, which writes them without blocking</li>
+ * <li>When the servlet returns, the event loop either closes the connection or continues
+ * with the next (possibly pipelined) request</li>
+ * </ul>
+ *
+ * <p>Routing, keep-alive and error responses behave as in {@link MyHTTPServer}. A servlet
+ * that writes faster than the client reads is held back once a few chunks are pending,
+ * so long or never-ending responses such as server-sent events use bounded memory and
+ * stop when the client goes away.</p>
+ *
+ * <p>Servlets that report {@link Servlet#isStreaming()} do not run on the worker pool,
+ * since each would hold a worker for as long as its client stays connected. They get a
+ * thread of their own from a separate stream executor: a virtual thread where the
+ * runtime has them, otherwise a pooled platform thread. At most
+ * {@link #setMaxStreams(int)} streams are open at once; further stream requests are
+ * answered with 503 Service Unavailable.</p>
+ *
+ * <p>Example usage:</p>
+ * <pre>
+ * {@code
+ * NioHTTPServer server = new NioHTTPServer(8080, 2, 8);
+ * server.addServlet("GET", "/api", new ApiServlet());
+ * server.start();
+ * }
+ * </pre>
+ *
+ * @author Almog Sharoni Yuval Harary
+ * @version 1.0
+ * @since 1.0
+ */
+public class NioHTTPServer extends Thread implements HTTPServer {
+
+    /** How often each event loop checks for idle connections, in milliseconds */
+    private static final long IDLE_SWEEP_INTERVAL_MILLIS = 1000;
+
+    /** Response sent when no servlet matches the request */
+    private static final byte[] NOT_FOUND = "HTTP/1.1 404 Not Found\r\nContent-Length: 0\r\n\r\n".getBytes();
+
+    /** Size of the chunks servlet output is handed to the event loop in */
+    private static final int RESPONSE_CHUNK_BYTES = 8 * 1024;
+
+    /** Chunks a servlet may have waiting to be written before its writes block */
+    private static final int MAX_PENDING_CHUNKS = 4;
+
+    /** Response sent when a request exceeds the parser's size limits */
+    private static final byte[] PAYLOAD_TOO_LARGE =
+            "HTTP/1.1 413 Payload Too Large\r\nContent-Length: 17\r\nConnection: close\r\n\r\nPayload Too Large".getBytes();
+
+    /** Response sent when the stream limit is reached */
+    private static final byte[] SERVICE_UNAVAILABLE =
+            "HTTP/1.1 503 Service Unavailable\r\nContent-Length: 19\r\nConnection: close\r\n\r\nService Unavailable".getBytes();
+
+    /** Response sent when a request cannot be parsed */
+    private static final byte[] BAD_REQUEST =
+            "HTTP/1.1 400 Bad Request\r\nContent-Length: 11\r\nConnection: close\r\n\r\nBad Request".getBytes();
+
+    /** The port number on which the server listens for incoming connections */
+    private final int port;
+
+    /** The number of event-loop threads */
+    private final int nEventLoops;
+
+    /** The number of worker threads that run servlets */
+    private final int nWorkers;
+
+    /** Servlets registered per HTTP method, keyed by URI pattern */
+    private final ServletRoutes routes = new ServletRoutes();
+
+    /** Number of connections accepted since the server started */
+    private final AtomicLong acceptedConnections = new AtomicLong();
+
+    /** Requested length of the kernel's pending-connection queue (0 uses the platform default) */
+    private volatile int backlog = 0;
+
+    /** How long a connection may stay idle between requests, in milliseconds */
+    private volatile int keepAliveTimeoutMillis = 5000;
+
+    /** Maximum number of requests served on one connection before it is closed */
+    private volatile int maxRequestsPerConnection = 100;
+
+    /** The channel that accepts incoming client connections */
+    private volatile ServerSocketChannel serverChannel;
+
+    /** The event loops connections are distributed over */
+    private EventLoop[] eventLoops;
+
+    /** The pool that runs servlets */
+    private ExecutorService workers;
+
+    /** Maximum number of streaming responses open at once */
+    private volatile int maxStreams = 10000;
+
+    /** The executor that runs streaming servlets, one thread per stream */
+    private ExecutorService streams;
+
+    /** Permits for open streams, one per running streaming servlet */
+    private Semaphore streamPermits;
+
+    /** Cleared by close() to stop the event loops */
+    private volatile boolean running = true;
+
+    /**
+     * Constructs a new NioHTTPServer.
+     *
+     * @param port the port number on which the server should listen (1-65535)
+     * @param nEventLoops the number of selector threads (must be positive)
+     * @param nWorkers the number of threads that run servlets (must be positive)
+     * @throws IllegalArgumentException if nEventLoops or nWorkers is not positive
+     */
+    public NioHTTPServer(int port, int nEventLoops, int nWorkers) {
+        if (nEventLoops <= 0) {
+            throw new IllegalArgumentException("nEventLoops must be positive: " + nEventLoops);
+        }
+        if (nWorkers <= 0) {
+            throw new IllegalArgumentException("nWorkers must be positive: " + nWorkers);
+        }
+        this.port = port;
+        this.nEventLoops = nEventLoops;
+        this.nWorkers = nWorkers;
+    }
+
+    /**
+     * Sets the length of the queue of pending connections passed to the server channel.
+     * Must be called before the server is started; values of 0 or less use the
+     * platform default.
+     *
+     * @param backlog the requested maximum number of pending connections
+     * @throws IllegalStateException if the server has already been started
+     */
+    public void setBacklog(int backlog) {
+        if (serverChannel != null) {
+            throw new IllegalStateException("Backlog must be set before the server is started");
+        }
+        this.backlog = backlog;
+    }
+
+    /**
+     * Sets how many responses of streaming servlets (see {@link Servlet#isStreaming()})
+     * may be open at once. Must be called before the server is started.
+     *
+     * @param maxStreams the maximum number of open streams (must be positive)
+     * @throws IllegalArgumentException if maxStreams is not positive
+     * @throws IllegalStateException if the server has already been started
+     */
+    public void setMaxStreams(int maxStreams) {
+        if (maxStreams <= 0) {
+            throw new IllegalArgumentException("maxStreams must be positive: " + maxStreams);
+        }
+        if (serverChannel != null) {
+            throw new IllegalStateException("The stream limit must be set before the server is started");
+        }
+        this.maxStreams = maxStreams;
+    }
+
+    /**
+     * Configures HTTP/1.1 persistent connections, with the same rules as
+     * {@link MyHTTPServer#setKeepAlive(int, int)}. Idle connections only cost a
+     * selector key here, but are still closed after {@code idleTimeoutMillis}.
+     *
+     * @param idleTimeoutMillis idle time allowed between requests; 0 or less disables keep-alive
+     * @param maxRequestsPerConnection requests served per connection; 1 or less disables keep-alive
+     */
+    public void setKeepAlive(int idleTimeoutMillis, int maxRequestsPerConnection) {
+        this.keepAliveTimeoutMillis = idleTimeoutMillis;
+        this.maxRequestsPerConnection = maxRequestsPerConnection;
+    }
+
+    /**
+     * Returns the number of connections accepted since the server started.
+     *
+     * @return the total accepted connection count
+     */
+    public long getAcceptedConnections() {
+        return acceptedConnections.get();
+    }
+
+    @Override
+    public void addServlet(String httpCommand, String uri, Servlet s) {
+        routes.add(httpCommand, uri, s);
+    }
+
+    @Override
+    public void removeServlet(String httpCommand, String uri) {
+        routes.remove(httpCommand, uri);
+    }
+
+    /**
+     * Opens the server channel, starts the event loops and the worker pool, and
+     * accepts connections until the server is closed.
+     */
+    @Override
+    public void run() {
+        try {
+            ServerSocketChannel channel = ServerSocketChannel.open();
+            channel.bind(new InetSocketAddress(port), backlog);
+            workers = Executors.newFixedThreadPool(nWorkers);
+            streams = createStreamExecutor();
+            streamPermits = new Semaphore(maxStreams);
+            eventLoops = new EventLoop[nEventLoops];
+            for (int i = 0; i < nEventLoops; i++) {
+                eventLoops[i] = new EventLoop(Selector.open());
+                eventLoops[i].setName("nio-http-loop-" + i);
+                eventLoops[i].start();
+            }
+            // Publishing the channel last lets close() see the loops and the pool
+            serverChannel = channel;
+            if (!running) {
+                channel.close();
+            }
+            System.out.println("NIO HTTP server started on port " + port);
+
+            // Blocking accept is fine here: this thread does nothing else
+            int next = 0;
+            while (running) {
+                SocketChannel client;
+                try {
+                    client = channel.accept();
+                } catch (ClosedChannelException e) {
+                    System.out.println("Server channel closed.");
+                    break;
+                } catch (IOException e) {
+                    if (!channel.isOpen()) {
+                        break;
+                    }
+                    e.printStackTrace();
+                    continue;
+                }
+                acceptedConnections.incrementAndGet();
+                eventLoops[next].register(client);
+                next = (next + 1) % nEventLoops;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Creates the executor for streaming servlets. Virtual threads are looked up
+     * reflectively, as in MyHTTPServer, so the server still runs on older runtimes.
+     */
+    private static ExecutorService createStreamExecutor() {
+        try {
+            return (ExecutorService) Executors.class
+                    .getMethod("newVirtualThreadPerTaskExecutor")
+                    .invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    /**
+     * Stops accepting connections, closes all open connections, waits up to 5 seconds
+     * for running servlets to finish, and closes all registered servlets. Streaming
+     * servlets never finish on their own, so they are interrupted right away.
+     */
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (serverChannel != null) {
+                serverChannel.close();
+            }
+            if (eventLoops != null) {
+                for (EventLoop loop : eventLoops) {
+                    loop.selector.wakeup();
+                }
+                for (EventLoop loop : eventLoops) {
+                    try {
+                        loop.join(5000);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+            if (streams != null) {
+                streams.shutdownNow();
+            }
+            if (workers != null) {
+                workers.shutdown();
+                try {
+                    if (!workers.awaitTermination(5, TimeUnit.SECONDS)) {
+                        workers.shutdownNow();
+                    }
+                } catch (InterruptedException e) {
+                    workers.shutdownNow();
+                }
+            }
+            routes.closeAll();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * A selector thread that owns a set of connections. All connection state is
+     * touched only by this thread; other threads hand it work through {@link #execute}.
+     */
+    private class EventLoop extends Thread {
+
+        /** The selector watching this loop's connections */
+        private final Selector selector;
+
+        /** Work posted by the acceptor and by worker threads */
+        private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+        }
+
+        /**
+         * Runs a task on this loop's thread and wakes the selector.
+         */
+        void execute(Runnable task) {
+            tasks.add(task);
+            selector.wakeup();
+        }
+
+        /**
+         * Takes ownership of a newly accepted connection.
+         */
+        void register(SocketChannel client) {
+            execute(() -> {
+                try {
+                    client.configureBlocking(false);
+                    SelectionKey key = client.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(this, client, key));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    closeQuietly(client);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            long nextSweep = System.currentTimeMillis() + IDLE_SWEEP_INTERVAL_MILLIS;
+            try {
+                while (running) {
+                    selector.select(IDLE_SWEEP_INTERVAL_MILLIS);
+
+                    Runnable task;
+                    while ((task = tasks.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (connection == null || !key.isValid()) {
+                            continue;
+                        }
+                        if (key.isWritable()) {
+                            connection.onWritable();
+                        }
+                        if (key.isValid() && key.isReadable()) {
+                            connection.onReadable();
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextSweep) {
+                        closeIdleConnections(now);
+                        nextSweep = now + IDLE_SWEEP_INTERVAL_MILLIS;
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.channel());
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        /**
+         * Closes connections that have waited longer than the keep-alive timeout
+         * for their next request.
+         */
+        private void closeIdleConnections(long now) {
+            int timeout = keepAliveTimeoutMillis;
+            if (timeout <= 0) {
+                return;
+            }
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && connection.isIdle() && now - connection.lastActive > timeout) {
+                    connection.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * The state of one client connection. Owned by its event loop's thread.
+     */
+    private class Connection {
+
+        private final EventLoop loop;
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteRequestParser parser = new ByteRequestParser();
+
+        /** Response bytes not yet written to the channel */
+        private final ArrayDeque<ByteBuffer> pendingWrites = new ArrayDeque<ByteBuffer>();
+
+        /** True while a servlet is handling a request from this connection */
+        private boolean busy;
+
+        /** Released as the chunks of the running servlet's output are written */
+        private Semaphore writeCredits;
+
+        /** True once the connection must be closed after the pending writes */
+        private boolean closeAfterWrite;
+
+        /** Number of requests handed to servlets so far */
+        private int served;
+
+        /** Time of the last read or completed write, in milliseconds */
+        private long lastActive = System.currentTimeMillis();
+
+        Connection(EventLoop loop, SocketChannel channel, SelectionKey key) {
+            this.loop = loop;
+            this.channel = channel;
+            this.key = key;
+        }
+
+        /** True if the connection is waiting for the client and has nothing to send */
+        boolean isIdle() {
+            return !busy && pendingWrites.isEmpty();
+        }
+
+        void onReadable() {
+            int read;
+            try {
+                read = parser.fill(channel);
+            } catch (ByteRequestParser.RequestTooLargeException e) {
+                badRequest(e);
+                return;
+            } catch (IOException e) {
+                // Connection reset
+                close();
+                return;
+            }
+            if (read == -1) {
+                // The client finished sending; answer what was already received, then close
+                closeAfterWrite = true;
+                if (busy || !pendingWrites.isEmpty()) {
+                    key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+                } else if (!dispatchNext()) {
+                    close();
+                }
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            dispatchNext();
+        }
+
+        void onWritable() {
+            flush();
+        }
+
+        /**
+         * Hands the next buffered request to a worker, if one is complete and no other
+         * request from this connection is in progress. Reading is paused meanwhile, so
+         * responses go out in request order.
+         *
+         * @return true if a request was dispatched or the connection is busy
+         */
+        private boolean dispatchNext() {
+            if (busy || !pendingWrites.isEmpty()) {
+                return true;
+            }
+            RequestInfo requestInfo;
+            try {
+                requestInfo = parser.tryParse();
+            } catch (IOException e) {
+                badRequest(e);
+                return true;
+            }
+            if (requestInfo == null) {
+                if (!closeAfterWrite) {
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+                return false;
+            }
+            served++;
+            boolean keepAlive = !closeAfterWrite
+                    && served < maxRequestsPerConnection
+                    && keepAliveTimeoutMillis > 0
+                    && MyHTTPServer.clientWantsKeepAlive(requestInfo);
+            // Match the URI to the servlet with the longest prefix
+            Servlet servlet = routes.match(requestInfo.getHttpCommand(), requestInfo.getUri());
+            boolean streaming = servlet != null && servlet.isStreaming();
+            if (streaming && !streamPermits.tryAcquire()) {
+                closeAfterWrite = true;
+                pendingWrites.add(ByteBuffer.wrap(SERVICE_UNAVAILABLE));
+                flush();
+                return true;
+            }
+            busy = true;
+            key.interestOps(0);
+            Semaphore credits = new Semaphore(MAX_PENDING_CHUNKS);
+            writeCredits = credits;
+            try {
+                (streaming ? streams : workers).execute(() -> serve(requestInfo, servlet, keepAlive, credits, streaming));
+            } catch (RejectedExecutionException e) {
+                // The server is closing and its executors take no more requests
+                if (streaming) {
+                    streamPermits.release();
+                }
+                busy = false;
+                writeCredits = null;
+                close();
+            }
+            return true;
+        }
+
+        /**
+         * Runs on a worker thread, or a stream thread for streaming servlets: invokes
+         * the matched servlet, streaming its output to the event loop, and tells the
+         * loop when it is done.
+         */
+        private void serve(RequestInfo requestInfo, Servlet servlet, boolean keepAlive, Semaphore credits,
+                           boolean streaming) {
+            ResponseStream out = new ResponseStream(credits);
+            boolean reuse = keepAlive;
+            try {
+                if (servlet != null) {
+                    servlet.handle(requestInfo, out);
+                    reuse &= servlet.supportsKeepAlive();
+                } else {
+                    out.write(NOT_FOUND);
+                }
+                out.flush();
+            } catch (Exception e) {
+                // A client that went away is the normal end of a streaming response
+                if (channel.isOpen()) {
+                    e.printStackTrace();
+                }
+                reuse = false;
+            } finally {
+                if (streaming) {
+                    streamPermits.release();
+                }
+            }
+            boolean keepOpen = reuse;
+            loop.execute(() -> complete(keepOpen));
+        }
+
+        /**
+         * Runs on the event loop: queues a chunk of servlet output for writing.
+         */
+        private void send(ByteBuffer chunk) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            pendingWrites.add(chunk);
+            flush();
+        }
+
+        /**
+         * Runs on the event loop once a servlet has finished and all of its
+         * output has been passed to {@link #send}.
+         */
+        private void complete(boolean keepAlive) {
+            busy = false;
+            writeCredits = null;
+            if (!keepAlive) {
+                closeAfterWrite = true;
+            }
+            if (!channel.isOpen()) {
+                return;
+            }
+            flush();
+        }
+
+        private void badRequest(IOException e) {
+            System.err.println("[ERROR] Failed to parse request: " + e.getMessage());
+            closeAfterWrite = true;
+            pendingWrites.add(ByteBuffer.wrap(e instanceof ByteRequestParser.RequestTooLargeException
+                    ? PAYLOAD_TOO_LARGE : BAD_REQUEST));
+            flush();
+        }
+
+        /**
+         * Writes as much pending output as the socket accepts. When everything is
+         * written, closes the connection or moves on to the next request.
+         */
+        private void flush() {
+            try {
+                while (!pendingWrites.isEmpty()) {
+                    ByteBuffer head = pendingWrites.peek();
+                    channel.write(head);
+                    if (head.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    pendingWrites.poll();
+                    if (writeCredits != null) {
+                        writeCredits.release();
+                    }
+                }
+            } catch (IOException e) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            if (busy) {
+                // The servlet is still producing output; wait for its next chunk
+                key.interestOps(0);
+            } else if (closeAfterWrite) {
+                close();
+            } else {
+                dispatchNext();
+            }
+        }
+
+        void close() {
+            key.cancel();
+            pendingWrites.clear();
+            closeQuietly(channel);
+            if (writeCredits != null) {
+                // Wake a servlet waiting to write, so it sees the closed channel
+                writeCredits.release(MAX_PENDING_CHUNKS);
+            }
+        }
+
+        /**
+         * The stream a servlet writes to. Output is collected into chunks that are
+         * handed to the event loop; once {@link #MAX_PENDING_CHUNKS} of them wait to
+         * be written, further writes block until the client catches up.
+         */
+        private class ResponseStream extends OutputStream {
+
+            private final Semaphore credits;
+            private byte[] chunk = new byte[RESPONSE_CHUNK_BYTES];
+            private int count;
+
+            ResponseStream(Semaphore credits) {
+                this.credits = credits;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                if (count == chunk.length) {
+                    sendChunk();
+                }
+                chunk[count++] = (byte) b;
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                while (len > 0) {
+                    if (count == chunk.length) {
+                        sendChunk();
+                    }
+                    int n = Math.min(len, chunk.length - count);
+                    System.arraycopy(b, off, chunk, count, n);
+                    count += n;
+                    off += n;
+                    len -= n;
+                }
+            }
+
+            @Override
+            public void flush() throws IOException {
+                if (count > 0) {
+                    sendChunk();
+                }
+            }
+
+            private void sendChunk() throws IOException {
+                if (!channel.isOpen()) {
+                    throw new IOException("Connection closed by the client");
+                }
+                try {
+                    credits.acquire();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while writing the response");
+                }
+                if (!channel.isOpen()) {
+                    throw new IOException("Connection closed by the client");
+                }
+                ByteBuffer data = ByteBuffer.wrap(chunk, 0, count);
+                chunk = new byte[RESPONSE_CHUNK_BYTES];
+                count = 0;
+                loop.execute(() -> send(data));
+            }
+        }
+    }
+
+    /**
+     * Closes a channel, logging rather than propagating any error.
+     */
+    private static void closeQuietly(Channel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
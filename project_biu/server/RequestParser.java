@@ -17,6 +17,9 @@ import java.util.*;
  * <li>URI segmentation for path-based routing</li>
  * </ul>
  * 
+ * <p>MyHTTPServer reads requests straight from the socket with {@link ByteRequestParser};
+ * this reader-based parser remains for callers that already hold a BufferedReader.</p>
+ * 
  * <p>Example usage:</p>
  * <pre>
  * {@code
@@ -74,6 +77,8 @@ public class RequestParser {
         String httpCommand = requestParts[0];
         // Initialize URI 
         String uri = requestParts[1];
+        // Initialize protocol version (e.g HTTP/1.1)
+        String httpVersion = requestParts[2];
         // Initialize URI segments
         String[] uriSegments = uri.split("/");
         // Initialize parameters
@@ -194,7 +199,7 @@ public class RequestParser {
                 System.err.println("[DEBUG] secondReader: '" + secondReader.toString() + "'");
                 System.err.println("[DEBUG] Possible connection issue or malformed request - ignoring");
                 // Instead of throwing an exception, return a minimal valid request
-                return new RequestInfo(httpCommand, uri, uriSegments, parameters, content);
+                return new RequestInfo(httpCommand, uri, uriSegments, parameters, content, httpVersion, headers);
             }
             
             else if(secondReader.length() == 0) {
@@ -213,7 +218,7 @@ public class RequestParser {
         // Convert content to bytes
         content = contentReader.toString().getBytes();
         
-        return new RequestInfo(httpCommand, uri, uriSegments, parameters, content);
+        return new RequestInfo(httpCommand, uri, uriSegments, parameters, content, httpVersion, headers);
     }
 
     /**
@@ -311,6 +316,12 @@ public class RequestParser {
         
         /** The request body content as raw bytes */
         private final byte[] content;
+        
+        /** The protocol version from the request line (e.g. "HTTP/1.1") */
+        private final String httpVersion;
+        
+        /** Request headers keyed by lower-case header name */
+        private final Map<String, String> headers;
 
         /**
          * Constructs a new RequestInfo with the specified request components.
@@ -324,11 +335,29 @@ public class RequestParser {
          * @param content the request body content as a byte array
          */
         public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content) {
+            this(httpCommand, uri, uriSegments, parameters, content, "HTTP/1.0", Collections.emptyMap());
+        }
+
+        /**
+         * Constructs a new RequestInfo that also records the protocol version and headers.
+         * 
+         * @param httpCommand the HTTP method (e.g., "GET", "POST", "DELETE")
+         * @param uri the complete URI including any query parameters
+         * @param uriSegments the URI path split into individual segments
+         * @param parameters a map of parsed query parameters and form data
+         * @param content the request body content as a byte array
+         * @param httpVersion the protocol version from the request line (e.g., "HTTP/1.1")
+         * @param headers the request headers keyed by lower-case header name
+         */
+        public RequestInfo(String httpCommand, String uri, String[] uriSegments, Map<String, String> parameters, byte[] content,
+                           String httpVersion, Map<String, String> headers) {
             this.httpCommand = httpCommand;
             this.uri = uri;
             this.uriSegments = uriSegments;
             this.parameters = parameters;
             this.content = content;
+            this.httpVersion = httpVersion;
+            this.headers = headers;
         }
 
         /**
@@ -380,5 +409,33 @@ public class RequestParser {
         public byte[] getContent() {
             return content;
         }
+
+        /**
+         * Returns the protocol version from the request line.
+         * 
+         * @return the protocol version (e.g., "HTTP/1.1")
+         */
+        public String getHttpVersion() {
+            return httpVersion;
+        }
+
+        /**
+         * Returns the request headers.
+         * 
+         * @return a Map of lower-case header names to their values
+         */
+        public Map<String, String> getHeaders() {
+            return headers;
+        }
+
+        /**
+         * Returns the value of a single request header.
+         * 
+         * @param name the header name (case-insensitive)
+         * @return the header value, or null if the header was not sent
+         */
+        public String getHeader(String name) {
+            return headers.get(name.toLowerCase());
+        }
     }
 }
@@ -0,0 +1,223 @@
+package server;
+
+import servlets.Servlet;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * ServletRoutes holds the servlets registered with an HTTP server, per HTTP method,
+ * and matches request URIs to them by longest prefix. It is shared by the
+ * {@link HTTPServer} implementations so they route requests identically.
+ *
+ * <p>For each method the URI patterns are compiled into a character trie. A lookup
+ * walks the request URI once, remembering the deepest node that has a servlet, so
+ * it costs O(URI length) no matter how many routes are registered, and allocates
+ * nothing. Registration is rare, so {@link #add} and {@link #remove} rebuild the trie
+ * of the affected method and publish it with a single volatile write; lookups never
+ * lock and always see either the old or the new table.</p>
+ *
+ * @author Almog Sharoni Yuval Harary
+ * @version 1.0
+ * @since 1.0
+ */
+class ServletRoutes {
+
+    /** Servlets registered for GET requests, keyed by URI pattern; guarded by this */
+    private final Map<String, Servlet> getHttpCommandMap = new HashMap<String, Servlet>();
+
+    /** Servlets registered for POST requests, keyed by URI pattern; guarded by this */
+    private final Map<String, Servlet> postHttpCommandMap = new HashMap<String, Servlet>();
+
+    /** Servlets registered for DELETE requests, keyed by URI pattern; guarded by this */
+    private final Map<String, Servlet> deleteHttpCommandMap = new HashMap<String, Servlet>();
+
+    /** Compiled route tables, replaced whenever the matching map changes */
+    private volatile TrieNode getRoutes = TrieNode.EMPTY;
+    private volatile TrieNode postRoutes = TrieNode.EMPTY;
+    private volatile TrieNode deleteRoutes = TrieNode.EMPTY;
+
+    /**
+     * Registers a servlet for an HTTP command and URI pattern, replacing any
+     * servlet previously registered for the same pair.
+     *
+     * @param httpCommand the HTTP method ("GET", "POST", or "DELETE")
+     * @param uri the URI prefix the servlet handles
+     * @param s the servlet instance
+     * @throws IllegalArgumentException if httpCommand is not "GET", "POST", or "DELETE"
+     */
+    synchronized void add(String httpCommand, String uri, Servlet s) {
+        Map<String, Servlet> commandMap = commandMap(httpCommand);
+        commandMap.put(uri, s);
+        publish(commandMap);
+    }
+
+    /**
+     * Removes the servlet registered for an HTTP command and URI pattern, if any.
+     *
+     * @param httpCommand the HTTP method ("GET", "POST", or "DELETE")
+     * @param uri the URI prefix of the servlet to remove
+     * @throws IllegalArgumentException if httpCommand is not "GET", "POST", or "DELETE"
+     */
+    synchronized void remove(String httpCommand, String uri) {
+        Map<String, Servlet> commandMap = commandMap(httpCommand);
+        if (commandMap.remove(uri) != null) {
+            publish(commandMap);
+        }
+    }
+
+    /**
+     * Matches a request URI to a servlet using longest-prefix matching.
+     *
+     * <p>For example, if servlets are registered for "/api" and "/api/users",
+     * a request to "/api/users/123" would match the "/api/users" servlet.</p>
+     *
+     * @param httpCommand the request's HTTP method
+     * @param uri the request URI to match against registered patterns
+     * @return the servlet with the longest matching URI prefix, or null if there is
+     *         no match or the method is not supported
+     */
+    Servlet match(String httpCommand, String uri) {
+        TrieNode node;
+        if ("GET".equalsIgnoreCase(httpCommand)) {
+            node = getRoutes;
+        } else if ("POST".equalsIgnoreCase(httpCommand)) {
+            node = postRoutes;
+        } else if ("DELETE".equalsIgnoreCase(httpCommand)) {
+            node = deleteRoutes;
+        } else {
+            return null;
+        }
+
+        Servlet matchedServlet = node.servlet;
+        for (int i = 0, n = uri.length(); i < n; i++) {
+            node = node.child(uri.charAt(i));
+            if (node == null) {
+                break;
+            }
+            if (node.servlet != null) {
+                matchedServlet = node.servlet;
+            }
+        }
+        return matchedServlet;
+    }
+
+    /**
+     * Closes all registered servlets to release their resources.
+     *
+     * @throws IOException if an error occurs while closing any servlet
+     */
+    synchronized void closeAll() throws IOException {
+        for (Servlet servlet : getHttpCommandMap.values()) {
+            servlet.close();
+        }
+        for (Servlet servlet : postHttpCommandMap.values()) {
+            servlet.close();
+        }
+        for (Servlet servlet : deleteHttpCommandMap.values()) {
+            servlet.close();
+        }
+    }
+
+    /**
+     * Returns the servlet map for an HTTP command.
+     *
+     * @throws IllegalArgumentException if httpCommand is not "GET", "POST", or "DELETE"
+     */
+    private Map<String, Servlet> commandMap(String httpCommand) {
+        switch (httpCommand.toUpperCase()) {
+            case "GET":
+                return getHttpCommandMap;
+            case "POST":
+                return postHttpCommandMap;
+            case "DELETE":
+                return deleteHttpCommandMap;
+            default:
+                throw new IllegalArgumentException("Unsupported HTTP command: " + httpCommand);
+        }
+    }
+
+    /**
+     * Compiles a servlet map into a new trie and installs it for the map's method.
+     */
+    private void publish(Map<String, Servlet> commandMap) {
+        TrieNode compiled = TrieNode.build(commandMap);
+        if (commandMap == getHttpCommandMap) {
+            getRoutes = compiled;
+        } else if (commandMap == postHttpCommandMap) {
+            postRoutes = compiled;
+        } else {
+            deleteRoutes = compiled;
+        }
+    }
+
+    /**
+     * An immutable trie node. Children are kept in arrays sorted by character and
+     * found by binary search, which keeps nodes small for the sparse alphabets of URIs.
+     */
+    private static final class TrieNode {
+
+        /** The table with no routes */
+        static final TrieNode EMPTY = new TrieNode(null, new char[0], new TrieNode[0]);
+
+        /** The servlet registered for the path ending at this node, or null */
+        final Servlet servlet;
+
+        /** Edge characters in ascending order */
+        private final char[] keys;
+
+        /** Child nodes, parallel to keys */
+        private final TrieNode[] children;
+
+        private TrieNode(Servlet servlet, char[] keys, TrieNode[] children) {
+            this.servlet = servlet;
+            this.keys = keys;
+            this.children = children;
+        }
+
+        /**
+         * Returns the child reached by the given character, or null.
+         */
+        TrieNode child(char c) {
+            int i = Arrays.binarySearch(keys, c);
+            return i >= 0 ? children[i] : null;
+        }
+
+        /**
+         * Builds a trie holding every pattern of the map.
+         */
+        static TrieNode build(Map<String, Servlet> routes) {
+            Builder root = new Builder();
+            for (Map.Entry<String, Servlet> route : routes.entrySet()) {
+                Builder node = root;
+                String uri = route.getKey();
+                for (int i = 0; i < uri.length(); i++) {
+                    node = node.children.computeIfAbsent(uri.charAt(i), c -> new Builder());
+                }
+                node.servlet = route.getValue();
+            }
+            return root.freeze();
+        }
+
+        /** Mutable node used only while building */
+        private static final class Builder {
+            Servlet servlet;
+            final TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+
+            TrieNode freeze() {
+                char[] keys = new char[children.size()];
+                TrieNode[] nodes = new TrieNode[children.size()];
+                int i = 0;
+                for (Map.Entry<Character, Builder> child : children.entrySet()) {
+                    keys[i] = child.getKey();
+                    nodes[i] = child.getValue().freeze();
+                    i++;
+                }
+                return new TrieNode(servlet, keys, nodes);
+            }
+        }
+    }
+}
@@ -2,7 +2,10 @@ package servlets;
 
 import configs.GenericConfig;
 import graph.Graph;
+import graph.ParallelAgent;
 import graph.TopicManagerSingleton;
+import views.GraphLayout;
+import views.GraphViewport;
 import views.HtmlGraphWriter;
 import server.RequestParser.RequestInfo;
 
@@ -20,11 +23,14 @@ public class ConfLoader implements Servlet {
         System.err.println("[DEBUG] Content preview: " + new String(fileContent, 0, Math.min(200, fileContent.length)));
         
         // Check if this is multipart form data
-        String contentTypeHeader = null;
-        for (String key : ri.getParameters().keySet()) {
-            if (key.toLowerCase().equals("content-type")) {
-                contentTypeHeader = ri.getParameters().get(key);
-                break;
+        String contentTypeHeader = ri.getHeader("content-type");
+        if (contentTypeHeader == null) {
+            // Fall back to a content-type passed as a parameter
+            for (String key : ri.getParameters().keySet()) {
+                if (key.toLowerCase().equals("content-type")) {
+                    contentTypeHeader = ri.getParameters().get(key);
+                    break;
+                }
             }
         }
         
@@ -91,6 +97,9 @@ public class ConfLoader implements Servlet {
         
         GenericConfig config = new GenericConfig();
         config.setConfFile(tempFile.getAbsolutePath());
+        // The agents subscribe themselves and run on the publishing thread; with a
+        // scheduler their ParallelAgent wrappers start no threads at all
+        config.setScheduler(ParallelAgent.sharedScheduler());
         System.err.println("[DEBUG] About to create config from file: " + tempFile.getAbsolutePath());
         config.create();
         System.err.println("[DEBUG] Config created successfully");
@@ -102,8 +111,9 @@ public class ConfLoader implements Servlet {
         System.err.println("[DEBUG] Graph created with " + graph.size() + " nodes");
         System.err.println("[DEBUG] Topics in TopicManager: " + TopicManagerSingleton.get().getTopics().size());
 
-        // 3. Generate graphical HTML view of the computation graph
-        StringBuilder html = new StringBuilder();
+        // 3. Stream a graphical HTML view of the computation graph, compressed when the client accepts it
+        ResponseWriter response = new ResponseWriter(ri, toClient, "text/html; charset=UTF-8");
+        PrintWriter html = response.getWriter();
         html.append("<html><head><title>Computation Graph</title>");
         html.append("<style>");
         html.append("body{font-family:Arial,sans-serif;background:#f5f5f5;margin:0;padding:20px;}");
@@ -121,32 +131,36 @@ public class ConfLoader implements Servlet {
         html.append(".value-text{fill:#0066CC;font-weight:bold;font-size:10px;}");
         html.append(".result-text{fill:#CC6600;font-weight:bold;font-size:10px;}");
         html.append(".message-text{fill:#333;font-size:10px;font-weight:normal;}");
+        html.append(".cluster-node{fill:#9575CD;stroke:#7E57C2;stroke-width:1;vector-effect:non-scaling-stroke;}");
+        html.append(".cluster-text{fill:white;font-weight:bold;}");
         html.append("a{display:inline-block;margin-top:15px;padding:10px 20px;background:#007bff;color:white;text-decoration:none;border-radius:4px;}");
         html.append("a:hover{background:#0056b3;}");
         html.append("</style>");
         html.append("</head><body>");
         html.append("<div class='graph-container'>");
         html.append("<h2>🔗 Computation Graph for: ").append(fileName).append("</h2>");
-        html.append("<div class='graph-canvas'><svg viewBox='0 0 800 600' width='800' height='600'>");
-        for (String svgLine : HtmlGraphWriter.getGraphSVG(graph)) {
-            html.append(svgLine);
-        }
+        GraphLayout layout = GraphLayout.of(graph);
+        // The whole graph, clustered where it is too dense to draw node by node
+        GraphViewport view = GraphViewport.whole(layout, 800, 600);
+        html.append("<div class='graph-canvas'><svg viewBox='0 0 ")
+                .append(Integer.toString(view.getWidth())).append(" ")
+                .append(Integer.toString(view.getHeight())).append("' width='800' height='600'>");
+        HtmlGraphWriter.writeGraphSVG(graph, layout, null, view, html, "", "");
         html.append("</svg></div>");
 
 
-        // 4. Send HTTP response
-        String response = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: text/html; charset=UTF-8\r\n" +
-                "Content-Length: " + html.length() + "\r\n" +
-                "\r\n" +
-                html.toString();
-        toClient.write(response.getBytes("UTF-8"));
-        toClient.flush();
+        // 4. Complete the HTTP response
+        response.finish();
 
         // Clean up temp file
         tempFile.delete();
     }
 
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
+    }
+
     @Override
     public void close() throws IOException {
         // Nothing to close
@@ -1,96 +1,161 @@
 package servlets;
 
 import graph.*;
+import views.GraphLayout;
+import views.GraphViewport;
 import views.HtmlGraphWriter;
 import server.RequestParser.RequestInfo;
 
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * GraphUpdateServlet generates real-time visual graph updates that reflect current topic values and agent states.
  * 
  * This servlet:
- * 1. Creates a graph from current topics and agents
- * 2. Updates graph nodes with current topic values and agent results
+ * 1. Creates a graph from current topics and agents, and lays it out, cached
+ *    until the TopicManager's structure version changes
+ * 2. Overlays the current topic values on the cached graph
  * 3. Returns an HTML page with SVG visualization showing real-time data
  * 4. Makes the graph nodes visually update when topic messages are published
+ *
+ * Without parameters the whole graph is shown. ?x=&y=&width=&height= (layout
+ * coordinates) select the part to draw; the page sends them itself as the user
+ * zooms with the mouse wheel and pans by dragging. Only what is visible is drawn,
+ * and dense regions are collapsed into cluster glyphs (see HtmlGraphWriter), so the
+ * response size is bounded however large the graph is.
  */
 public class GraphUpdateServlet implements Servlet {
 
+    /** Size in pixels of the drawing on the page, which sets the level of detail */
+    static final int SCREEN_WIDTH = 800;
+    static final int SCREEN_HEIGHT = 600;
+
+    /** Smallest viewport side accepted, in layout units */
+    private static final int MIN_VIEW_SIZE = 100;
+
+    /** Graph built at the last structure version seen; replaced when the wiring changes */
+    private volatile GraphSnapshot snapshot;
+
     @Override
     public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
-        // Create graph from current topics
-        Graph graph = new Graph();
-        graph.createFromTopics();
+        // Reuse the graph unless topics or agents were rewired since it was built
+        GraphSnapshot current = currentSnapshot();
         
-        // Update nodes with current topic values and agent states
-        updateNodesWithCurrentValues(graph);
+        // Overlay current topic values without modifying the shared graph; the value
+        // sequence is read first so the page's poller cannot miss a later change
+        long valueVersion = TopicManagerSingleton.get().getValueSequence();
+        String[] values = current.currentValues();
         
         // Generate HTML response with updated graph visualization
-        generateGraphHtmlResponse(toClient, graph);
+        GraphViewport view = requestedViewport(ri, current.layout);
+        generateGraphHtmlResponse(ri, toClient, current, view, values, valueVersion);
     }
 
     /**
-     * Updates graph nodes with current topic values and calculated agent results.
-     * This ensures the visual graph reflects the real-time state of the system.
+     * Reads the viewport from the x, y, width and height parameters. Missing or
+     * malformed parameters fall back to the whole drawing; sizes are kept between
+     * MIN_VIEW_SIZE and a few times the drawing.
      */
-    private void updateNodesWithCurrentValues(Graph graph) {
-        for (Node node : graph) {
-            String nodeName = node.getName();
-            
-            if (nodeName.startsWith("T")) {
-                // Topic node - update with current topic value
-                String topicName = nodeName.substring(1); // Remove "T" prefix
-                Topic topic = TopicManagerSingleton.get().getTopic(topicName);
-                if (topic != null && topic.getResult() != null && !topic.getResult().isEmpty()) {
-                    // Create a simple message that displays the actual value
-                    Message valueMessage = new Message(topic.getResult());
-                    node.setMsg(valueMessage);
-                }
-            } else if (nodeName.startsWith("A")) {
-                // Agent node - update with calculated result if available
-                String agentName = nodeName.substring(1); // Remove "A" prefix
-                updateAgentNodeWithResult(node, agentName);
-            }
+    static GraphViewport requestedViewport(RequestInfo ri, GraphLayout layout) {
+        GraphViewport whole = GraphViewport.whole(layout, SCREEN_WIDTH, SCREEN_HEIGHT);
+        Map<String, String> parameters = ri.getParameters();
+        String width = parameters.get("width");
+        String height = parameters.get("height");
+        if (width == null || height == null) {
+            return whole;
+        }
+        try {
+            int maxSize = 4 * Math.max(whole.getWidth(), whole.getHeight());
+            String x = parameters.get("x");
+            String y = parameters.get("y");
+            return new GraphViewport(
+                    x == null ? 0 : Integer.parseInt(x.trim()),
+                    y == null ? 0 : Integer.parseInt(y.trim()),
+                    Math.max(MIN_VIEW_SIZE, Math.min(maxSize, Integer.parseInt(width.trim()))),
+                    Math.max(MIN_VIEW_SIZE, Math.min(maxSize, Integer.parseInt(height.trim()))),
+                    SCREEN_WIDTH, SCREEN_HEIGHT);
+        } catch (NumberFormatException e) {
+            return whole;
         }
     }
 
     /**
-     * Updates an agent node with its calculated result by checking output topics.
-     * This allows the graph to show agent computation results visually.
+     * Returns the graph snapshot for the current structure version of the TopicManager,
+     * building a new one only if the topic/agent wiring changed since the last request.
      */
-    private void updateAgentNodeWithResult(Node node, String agentName) {
-        // Find agents with this name and check their output topics
-        for (Topic topic : TopicManagerSingleton.get().getTopics()) {
-            for (Agent publisher : topic.getPublishers()) {
-                if (publisher.getName().equals(agentName)) {
-                    // This agent publishes to this topic - use topic's result as agent's output
+    private GraphSnapshot currentSnapshot() {
+        long version = TopicManagerSingleton.get().getStructureVersion();
+        GraphSnapshot current = snapshot;
+        if (current == null || current.version != version) {
+            // The version is read before building, so a change made meanwhile triggers another rebuild
+            current = new GraphSnapshot(version);
+            snapshot = current;
+        }
+        return current;
+    }
+
+    /**
+     * A graph created from the topics at one structure version, together with its
+     * layout and the topic whose value each topic node displays. The graph is never
+     * modified after construction, so concurrent requests can render it at the same time.
+     */
+    private static final class GraphSnapshot {
+        final long version;
+        final Graph graph = new Graph();
+        final GraphLayout layout;
+        /** The topic shown by each node, parallel to graph; null for agent nodes */
+        final Topic[] topics;
+
+        GraphSnapshot(long version) {
+            this.version = version;
+            Map<String, Topic> topicsByName = new HashMap<>();
+            for (Topic topic : TopicManagerSingleton.get().getTopics()) {
+                topicsByName.put(topic.name, topic);
+            }
+            graph.createFromTopics();
+            layout = GraphLayout.of(graph);
+            topics = new Topic[graph.size()];
+            for (int i = 0; i < topics.length; i++) {
+                String nodeName = graph.get(i).getName();
+                if (nodeName.startsWith("T")) {
+                    topics[i] = topicsByName.get(nodeName.substring(1)); // Remove "T" prefix
+                }
+            }
+        }
+
+        /**
+         * Reads the current value of every topic node. Agent nodes are drawn without
+         * a value, so they are left null.
+         */
+        String[] currentValues() {
+            String[] values = new String[topics.length];
+            for (int i = 0; i < topics.length; i++) {
+                Topic topic = topics[i];
+                if (topic != null) {
                     String result = topic.getResult();
                     if (result != null && !result.isEmpty()) {
-                        // Create a message that shows the result value properly
-                        Message resultMessage = new Message("→ " + result);
-                        node.setMsg(resultMessage);
-                        return;
+                        values[i] = result;
                     }
                 }
             }
+            return values;
         }
     }
 
     /**
      * Generates an HTML response containing the updated graph visualization.
-     * The response includes SVG graphics showing current topic values and agent results.
+     * The response includes SVG graphics showing current topic values, and a script that
+     * keeps the values current by polling /values (see TopicValuesServlet).
      */
-    private void generateGraphHtmlResponse(OutputStream toClient, Graph graph) throws IOException {
-        PrintWriter writer = new PrintWriter(toClient);
-        
-        // Send HTTP headers
-        writer.println("HTTP/1.1 200 OK");
-        writer.println("Content-Type: text/html; charset=UTF-8");
-        writer.println("Connection: close");
-        writer.println(); // Empty line to separate headers from body
+    private void generateGraphHtmlResponse(RequestInfo ri, OutputStream toClient, GraphSnapshot snapshot,
+                                           GraphViewport view, String[] values, long valueVersion) throws IOException {
+        // Stream the page, compressed when the client accepts it
+        ResponseWriter response = new ResponseWriter(ri, toClient, "text/html; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
         
         // Start HTML document
         writer.println("<!DOCTYPE html>");
@@ -117,6 +182,11 @@ public class GraphUpdateServlet implements Servlet {
         writer.println("        .value-text { fill: #0066CC; font-weight: bold; font-size: 16px; }");
         writer.println("        .result-text { fill: #CC6600; font-weight: bold; font-size: 16px; }");
         writer.println("        .message-text { fill: #333; font-size: 16px; font-weight: normal; }");
+        
+        // Cluster glyphs, drawn for dense regions
+        writer.println("        .cluster-node { fill: #9575CD; stroke: #7E57C2; stroke-width: 1; vector-effect: non-scaling-stroke; }");
+        writer.println("        .cluster-text { fill: white; font-weight: bold; }");
+        writer.println("        svg.panning { cursor: grabbing; }");
         writer.println("    </style>");
         writer.println("</head>");
         writer.println("<body>");
@@ -127,27 +197,98 @@ public class GraphUpdateServlet implements Servlet {
         
         // Graph canvas with SVG
         writer.println("        <div class='graph-canvas'>");
-        writer.println("            <svg viewBox='0 0 800 600' width='800' height='600'>");
+        // The viewBox is the requested viewport; by default it grows with the layout,
+        // so large graphs are scaled down instead of cut off
+        writer.println("            <svg id='graph-svg' viewBox='" + view.getX() + " " + view.getY() + " "
+                + view.getWidth() + " " + view.getHeight() + "' width='" + SCREEN_WIDTH
+                + "' height='" + SCREEN_HEIGHT + "'>");
         
-        // Generate SVG content for the graph
-        for (String svgLine : HtmlGraphWriter.getGraphSVG(graph)) {
-            writer.println("                " + svgLine);
-        }
+        // Stream the visible part of the graph straight into the response
+        HtmlGraphWriter.writeGraphSVG(snapshot.graph, snapshot.layout, values, view, writer,
+                "                ", System.lineSeparator());
         
         writer.println("            </svg>");
         writer.println("        </div>");
         writer.println("    </div>");
         
-        // JavaScript - no auto-refresh, graph updates only when needed
+        // JavaScript - patch value labels in place; fetch the whole graph again only when the wiring changes
         writer.println("    <script>");
-        writer.println("        // Graph is updated only when configuration is uploaded or messages are sent");
         writer.println("        console.log('Real-time computation graph loaded');");
+        writer.println("        (function() {");
+        writer.println("            var version = " + valueVersion + ", structure = " + snapshot.version + ";");
+        writer.println("            var view = [" + view.getX() + ", " + view.getY() + ", " + view.getWidth() + ", " + view.getHeight() + "];");
+        writer.println("            var svg = document.getElementById('graph-svg'), redraw = null, drawn = 0;");
+        writer.println("            function viewQuery() {");
+        writer.println("                return '?x=' + Math.round(view[0]) + '&y=' + Math.round(view[1]) + '&width=' + Math.round(view[2]) + '&height=' + Math.round(view[3]);");
+        writer.println("            }");
+        writer.println("            // Show the new viewport at once by scaling what is drawn, then fetch its detail");
+        writer.println("            function setView(v) {");
+        writer.println("                view = v;");
+        writer.println("                svg.setAttribute('viewBox', v.join(' '));");
+        writer.println("                clearTimeout(redraw);");
+        writer.println("                redraw = setTimeout(function() {");
+        writer.println("                    var request = ++drawn;");
+        writer.println("                    fetch('/graph' + viewQuery()).then(function(r) { return r.text(); }).then(function(html) {");
+        writer.println("                        if (request !== drawn || window.graphPoller !== id) return;");
+        writer.println("                        var next = new DOMParser().parseFromString(html, 'text/html').getElementById('graph-svg');");
+        writer.println("                        if (next) { svg.innerHTML = next.innerHTML; svg.setAttribute('viewBox', next.getAttribute('viewBox')); }");
+        writer.println("                    });");
+        writer.println("                }, 250);");
+        writer.println("            }");
+        writer.println("            // Layout units per screen pixel, as the viewBox is fitted into the element");
+        writer.println("            function unitsPerPixel() {");
+        writer.println("                var box = svg.getBoundingClientRect();");
+        writer.println("                return Math.max(view[2] / box.width, view[3] / box.height);");
+        writer.println("            }");
+        writer.println("            svg.addEventListener('wheel', function(ev) {");
+        writer.println("                ev.preventDefault();");
+        writer.println("                var box = svg.getBoundingClientRect(), u = unitsPerPixel();");
+        writer.println("                var cx = view[0] + view[2] / 2 + (ev.clientX - box.left - box.width / 2) * u;");
+        writer.println("                var cy = view[1] + view[3] / 2 + (ev.clientY - box.top - box.height / 2) * u;");
+        writer.println("                var f = ev.deltaY > 0 ? 1.25 : 0.8;");
+        writer.println("                setView([cx - (cx - view[0]) * f, cy - (cy - view[1]) * f, view[2] * f, view[3] * f]);");
+        writer.println("            }, { passive: false });");
+        writer.println("            var drag = null;");
+        writer.println("            svg.addEventListener('mousedown', function(ev) { drag = [ev.clientX, ev.clientY, view[0], view[1], unitsPerPixel()]; svg.classList.add('panning'); });");
+        writer.println("            window.addEventListener('mousemove', function(ev) {");
+        writer.println("                if (!drag) return;");
+        writer.println("                view = [drag[2] - (ev.clientX - drag[0]) * drag[4], drag[3] - (ev.clientY - drag[1]) * drag[4], view[2], view[3]];");
+        writer.println("                svg.setAttribute('viewBox', view.join(' '));");
+        writer.println("            });");
+        writer.println("            window.addEventListener('mouseup', function() { if (drag) { drag = null; svg.classList.remove('panning'); setView(view); } });");
+        writer.println("            // The page may be rewritten in place; only the newest poller keeps running");
+        writer.println("            var id = window.graphPoller = (window.graphPoller || 0) + 1;");
+        writer.println("            function poll() {");
+        writer.println("                if (window.graphPoller !== id) return;");
+        writer.println("                fetch('/values?since=' + version).then(function(r) { return r.json(); }).then(function(d) {");
+        writer.println("                    if (window.graphPoller !== id) return;");
+        writer.println("                    if (d.structure !== structure) {");
+        writer.println("                        window.graphPoller++;");
+        writer.println("                        fetch('/graph' + viewQuery()).then(function(r) { return r.text(); }).then(function(html) {");
+        writer.println("                            document.open(); document.write(html); document.close();");
+        writer.println("                        });");
+        writer.println("                        return;");
+        writer.println("                    }");
+        writer.println("                    version = d.version;");
+        writer.println("                    document.querySelectorAll('text[data-topic]').forEach(function(t) {");
+        writer.println("                        var name = t.getAttribute('data-topic');");
+        writer.println("                        if (Object.prototype.hasOwnProperty.call(d.values, name) && d.values[name] !== '') t.textContent = d.values[name];");
+        writer.println("                    });");
+        writer.println("                    setTimeout(poll, 1000);");
+        writer.println("                }).catch(function() { setTimeout(poll, 5000); });");
+        writer.println("            }");
+        writer.println("            setTimeout(poll, 1000);");
+        writer.println("        })();");
         writer.println("    </script>");
         
         writer.println("</body>");
         writer.println("</html>");
-        
-        writer.flush();
+        response.finish();
+    }
+
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
     }
 
     @Override
@@ -1,10 +1,45 @@
 package servlets;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import server.RequestParser.RequestInfo;
 
+/**
+ * Serves the static files of the web UI from a directory.
+ *
+ * Files up to MAX_CACHED_FILE_BYTES are kept in memory together with their
+ * response headers, keyed by name and revalidated against the file's size and
+ * modification time, so repeated requests cost one stat and a write. Larger
+ * files are copied to the client in 64 KB pieces. Every response carries an
+ * ETag and Last-Modified, and conditional requests that still match get a
+ * 304 Not Modified without a body.
+ *
+ * Cached text files are also compressed once with gzip, on the first request
+ * that accepts it, and that copy is sent to every gzip-capable client after.
+ */
 public class HtmlLoader implements Servlet {
+    // Largest file kept in the in-memory cache
+    static final int MAX_CACHED_FILE_BYTES = 256 * 1024;
+
+    // Size of the buffer used to copy files that are not cached
+    private static final int COPY_BUFFER_BYTES = 64 * 1024;
+
+    private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.RFC_1123_DATE_TIME;
+
     private final String htmlDir;
+    private final ConcurrentHashMap<String, StaticFile> cache = new ConcurrentHashMap<>();
 
     public HtmlLoader(String htmlDir) {
         this.htmlDir = htmlDir;
@@ -19,31 +54,89 @@ public class HtmlLoader implements Servlet {
         int qIdx = fileName.indexOf('?');
         if (qIdx != -1) fileName = fileName.substring(0, qIdx);
         if (fileName.isEmpty() || fileName.equals("app")) fileName = "index.html";
-        File file = new File(htmlDir, fileName);
-        if (!file.exists() || file.isDirectory()) {
+        Path path = new File(htmlDir, fileName).toPath();
+
+        StaticFile file = lookup(fileName, path);
+        if (file == null) {
             // Not found
-            String notFound = "<html><body><h2>404 Not Found</h2><p>The requested file '" + fileName + "' was not found.</p></body></html>";
-            String response = "HTTP/1.1 404 Not Found\r\n" +
+            byte[] notFound = ("<html><body><h2>404 Not Found</h2><p>The requested file '" + fileName + "' was not found.</p></body></html>").getBytes("UTF-8");
+            String header = "HTTP/1.1 404 Not Found\r\n" +
                     "Content-Type: text/html; charset=UTF-8\r\n" +
-                    "Content-Length: " + notFound.length() + "\r\n" +
-                    "\r\n" +
-                    notFound;
-            toClient.write(response.getBytes("UTF-8"));
+                    "Content-Length: " + notFound.length + "\r\n" +
+                    "\r\n";
+            toClient.write(header.getBytes("UTF-8"));
+            toClient.write(notFound);
             toClient.flush();
             return;
         }
-        // Serve file
-        String contentType = getContentType(fileName);
-        byte[] content = readFileBytes(file);
-        String header = "HTTP/1.1 200 OK\r\n" +
-                "Content-Type: " + contentType + "\r\n" +
-                "Content-Length: " + content.length + "\r\n" +
-                "\r\n";
-        toClient.write(header.getBytes("UTF-8"));
-        toClient.write(content);
+
+        Representation representation = file.select(ResponseWriter.negotiate(ri.getHeader("accept-encoding")));
+        if (representation.isNotModified(ri, file.lastModified)) {
+            toClient.write(representation.notModifiedHeader);
+        } else if (representation.body != null) {
+            toClient.write(representation.okHeader);
+            toClient.write(representation.body);
+        } else {
+            toClient.write(representation.okHeader);
+            sendFile(path, file.size, toClient);
+        }
         toClient.flush();
     }
 
+    // Returns the cached entry for the file if it is still current, otherwise
+    // stats (and for small files reads) it again; null if there is no such file
+    private StaticFile lookup(String fileName, Path path) throws IOException {
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
+            cache.remove(fileName);
+            return null;
+        }
+        if (attrs.isDirectory()) {
+            return null;
+        }
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().toMillis();
+        StaticFile cached = cache.get(fileName);
+        if (cached != null && cached.size == size && cached.lastModified == modified) {
+            return cached;
+        }
+
+        byte[] content = null;
+        if (size <= MAX_CACHED_FILE_BYTES) {
+            content = Files.readAllBytes(path);
+            if (content.length != size) {
+                // Changed while reading; serve what we read but do not cache it
+                return new StaticFile(getContentType(fileName), content, content.length, modified);
+            }
+        }
+        StaticFile file = new StaticFile(getContentType(fileName), content, size, modified);
+        if (content != null) {
+            cache.put(fileName, file);
+        } else {
+            cache.remove(fileName);
+        }
+        return file;
+    }
+
+    // Copies a large file to the client in pieces instead of reading it into one array.
+    // Exactly size bytes are sent, matching the Content-Length already written.
+    private void sendFile(Path path, long size, OutputStream toClient) throws IOException {
+        byte[] buffer = new byte[COPY_BUFFER_BYTES];
+        try (InputStream in = Files.newInputStream(path)) {
+            long remaining = size;
+            while (remaining > 0) {
+                int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read == -1) {
+                    throw new EOFException("File shrank while it was being sent: " + path);
+                }
+                toClient.write(buffer, 0, read);
+                remaining -= read;
+            }
+        }
+    }
+
     private String getContentType(String fileName) {
         if (fileName.endsWith(".html")) return "text/html";
         if (fileName.endsWith(".css")) return "text/css";
@@ -53,20 +146,123 @@ public class HtmlLoader implements Servlet {
         return "application/octet-stream";
     }
 
-    private byte[] readFileBytes(File file) throws IOException {
-        try (FileInputStream fis = new FileInputStream(file)) {
-            ByteArrayOutputStream bos = new ByteArrayOutputStream();
-            byte[] buffer = new byte[4096];
-            int read;
-            while ((read = fis.read(buffer)) != -1) {
-                bos.write(buffer, 0, read);
-            }
-            return bos.toByteArray();
-        }
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
     }
 
     @Override
     public void close() throws IOException {
-        // Nothing to close
+        cache.clear();
+    }
+
+    // Text formats worth compressing; images and archives usually are compressed already
+    private static boolean isCompressible(String contentType) {
+        return contentType.startsWith("text/")
+                || contentType.equals("application/javascript")
+                || contentType.equals("application/json")
+                || contentType.equals("image/svg+xml");
+    }
+
+    // One version of a served file, with its response headers encoded once
+    private static final class StaticFile {
+        final String contentType;
+        final byte[] content;        // null when the file is too large to cache
+        final long size;
+        final long lastModified;     // in milliseconds
+        final Representation identity;
+        private volatile Representation gzip;  // built on the first gzip request
+
+        StaticFile(String contentType, byte[] content, long size, long lastModified) {
+            this.contentType = contentType;
+            this.content = content;
+            this.size = size;
+            this.lastModified = lastModified;
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "\"";
+            this.identity = new Representation(this, content, size, null, etag);
+        }
+
+        // Picks the body to send for the negotiated encoding; only gzip is precompressed
+        Representation select(ResponseWriter.Encoding encoding) {
+            if (encoding != ResponseWriter.Encoding.GZIP || content == null || !isCompressible(contentType)) {
+                return identity;
+            }
+            Representation r = gzip;
+            if (r == null) {
+                // Two racing requests may both compress; either result is correct
+                byte[] compressed = compress(content);
+                if (compressed.length < content.length) {
+                    String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(lastModified) + "-gz\"";
+                    r = new Representation(this, compressed, compressed.length, "gzip", etag);
+                } else {
+                    r = identity;
+                }
+                gzip = r;
+            }
+            return r;
+        }
+
+        private static byte[] compress(byte[] content) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(content.length / 3 + 64);
+            try (GZIPOutputStream gz = new GZIPOutputStream(out) {
+                { def.setLevel(Deflater.BEST_COMPRESSION); }
+            }) {
+                gz.write(content);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    // The bytes and headers sent for one content coding of a file
+    private static final class Representation {
+        final byte[] body;           // null when the file is streamed from disk
+        final String etag;
+        final byte[] okHeader;
+        final byte[] notModifiedHeader;
+
+        Representation(StaticFile file, byte[] body, long length, String contentEncoding, String etag) {
+            this.body = body;
+            this.etag = etag;
+            String lastModifiedDate = HTTP_DATE.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(file.lastModified), ZoneOffset.UTC));
+            String validators = "ETag: " + etag + "\r\n" +
+                    "Last-Modified: " + lastModifiedDate + "\r\n" +
+                    (isCompressible(file.contentType) ? "Vary: Accept-Encoding\r\n" : "");
+            this.okHeader = ("HTTP/1.1 200 OK\r\n" +
+                    "Content-Type: " + file.contentType + "\r\n" +
+                    (contentEncoding != null ? "Content-Encoding: " + contentEncoding + "\r\n" : "") +
+                    "Content-Length: " + length + "\r\n" +
+                    validators +
+                    "\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.notModifiedHeader = ("HTTP/1.1 304 Not Modified\r\n" +
+                    validators +
+                    "\r\n").getBytes(StandardCharsets.US_ASCII);
+        }
+
+        // If-None-Match takes precedence over If-Modified-Since (RFC 9110, section 13.2.2)
+        boolean isNotModified(RequestInfo ri, long lastModified) {
+            String ifNoneMatch = ri.getHeader("if-none-match");
+            if (ifNoneMatch != null) {
+                for (String tag : ifNoneMatch.split(",")) {
+                    tag = tag.trim();
+                    if (tag.startsWith("W/")) tag = tag.substring(2);
+                    if (tag.equals("*") || tag.equals(etag)) return true;
+                }
+                return false;
+            }
+            String ifModifiedSince = ri.getHeader("if-modified-since");
+            if (ifModifiedSince != null) {
+                try {
+                    long since = ZonedDateTime.parse(ifModifiedSince.trim(), HTTP_DATE).toInstant().toEpochMilli();
+                    // HTTP dates have one-second resolution
+                    return lastModified / 1000 <= since / 1000;
+                } catch (DateTimeParseException e) {
+                    return false;
+                }
+            }
+            return false;
+        }
     }
 }
@@ -0,0 +1,98 @@
+package servlets;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Minimal helpers for writing JSON by hand, shared by the servlets that
+ * answer with JSON. Only what those responses need is supported.
+ */
+final class Json {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private Json() {
+    }
+
+    /**
+     * Writes a string as a quoted JSON string literal, escaping quotes,
+     * backslashes and control characters.
+     *
+     * @param out where the literal is written
+     * @param value the string to write; null is written as the JSON literal null
+     * @throws IOException if writing fails
+     */
+    static void writeString(Appendable out, String value) throws IOException {
+        if (value == null) {
+            out.append("null");
+            return;
+        }
+        out.append('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.append(value, start, i);
+            switch (c) {
+                case '"':
+                    out.append("\\\"");
+                    break;
+                case '\\':
+                    out.append("\\\\");
+                    break;
+                case '\n':
+                    out.append("\\n");
+                    break;
+                case '\r':
+                    out.append("\\r");
+                    break;
+                case '\t':
+                    out.append("\\t");
+                    break;
+                default:
+                    out.append("\\u00").append(HEX[c >> 4]).append(HEX[c & 0xF]);
+            }
+            start = i + 1;
+        }
+        out.append(value, start, value.length());
+        out.append('"');
+    }
+
+    /**
+     * Sends a complete response with a short JSON body and a Content-Length,
+     * for replies too small to be worth compressing or streaming.
+     *
+     * @param toClient the connection's output stream
+     * @param status the status code and reason phrase, e.g. "200 OK"
+     * @param json the body
+     * @throws IOException if writing fails
+     */
+    static void respond(OutputStream toClient, String status, CharSequence json) throws IOException {
+        byte[] content = json.toString().getBytes(StandardCharsets.UTF_8);
+        String headers = "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                "\r\n";
+        toClient.write(headers.getBytes(StandardCharsets.US_ASCII));
+        toClient.write(content);
+        toClient.flush();
+    }
+
+    /**
+     * Same as {@link #writeString(Appendable, String)}, for a StringBuilder,
+     * which cannot fail.
+     *
+     * @param out where the literal is written
+     * @param value the string to write; null is written as the JSON literal null
+     */
+    static void writeString(StringBuilder out, String value) {
+        try {
+            writeString((Appendable) out, value);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
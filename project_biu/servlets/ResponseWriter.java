@@ -0,0 +1,293 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes a servlet's HTTP response, compressing the body with gzip or deflate
+ * when the request's Accept-Encoding allows it.
+ *
+ * For HTTP/1.1 requests the headers go out immediately and the body is streamed
+ * with chunked transfer encoding, so it is never held in memory. HTTP/1.0
+ * requests cannot take chunked bodies; there the (compressed) body is buffered
+ * and sent with a Content-Length. Either way the response is framed, so a
+ * servlet that writes through this class can report supportsKeepAlive().
+ *
+ * Example usage:
+ * <pre>
+ * {@code
+ * ResponseWriter response = new ResponseWriter(ri, toClient, "text/html; charset=UTF-8");
+ * PrintWriter writer = response.getWriter();
+ * writer.println("<html>...</html>");
+ * response.finish();
+ * }
+ * </pre>
+ */
+public class ResponseWriter {
+
+    /**
+     * The content codings this class can produce, in order of preference.
+     */
+    public enum Encoding {
+        GZIP("gzip"),
+        DEFLATE("deflate"),
+        IDENTITY(null);
+
+        /** The Content-Encoding token, or null for an uncompressed body */
+        public final String token;
+
+        Encoding(String token) {
+            this.token = token;
+        }
+    }
+
+    // Size of the compressor buffers and of each chunk on the wire
+    private static final int BUFFER_SIZE = 8192;
+
+    private final OutputStream toClient;
+    private final String status;
+    private final String contentType;
+    private final Encoding encoding;
+    private final boolean chunked;
+    private final ByteArrayOutputStream buffered; // null when chunked
+    private final OutputStream body;
+    private PrintWriter writer;
+    private boolean finished;
+
+    /**
+     * Starts a "200 OK" response.
+     *
+     * @param ri the request being answered; its Accept-Encoding and HTTP version are used
+     * @param toClient the connection's output stream
+     * @param contentType the Content-Type of the body
+     * @throws IOException if the headers cannot be written
+     */
+    public ResponseWriter(RequestInfo ri, OutputStream toClient, String contentType) throws IOException {
+        this(ri, toClient, "200 OK", contentType);
+    }
+
+    /**
+     * Starts a response with the given status.
+     *
+     * @param ri the request being answered; its Accept-Encoding and HTTP version are used
+     * @param toClient the connection's output stream
+     * @param status the status code and reason phrase, e.g. "404 Not Found"
+     * @param contentType the Content-Type of the body
+     * @throws IOException if the headers cannot be written
+     */
+    public ResponseWriter(RequestInfo ri, OutputStream toClient, String status, String contentType) throws IOException {
+        this.toClient = toClient;
+        this.status = status;
+        this.contentType = contentType;
+        this.encoding = negotiate(ri.getHeader("accept-encoding"));
+        this.chunked = "HTTP/1.1".equalsIgnoreCase(ri.getHttpVersion());
+
+        OutputStream sink;
+        if (chunked) {
+            buffered = null;
+            writeHeaders("Transfer-Encoding: chunked\r\n");
+            sink = new ChunkedOutputStream(toClient);
+        } else {
+            buffered = new ByteArrayOutputStream(BUFFER_SIZE);
+            sink = buffered;
+        }
+        switch (encoding) {
+            case GZIP:
+                body = new GZIPOutputStream(sink, BUFFER_SIZE);
+                break;
+            case DEFLATE:
+                body = new DeflaterOutputStream(sink);
+                break;
+            default:
+                body = sink;
+        }
+    }
+
+    /**
+     * Chooses the preferred coding the client accepts. Codings with q=0 are
+     * refused, and "*" stands for any coding not listed explicitly.
+     *
+     * @param acceptEncoding the Accept-Encoding header value, or null if absent
+     * @return the encoding to use for the response body
+     */
+    public static Encoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null || acceptEncoding.isEmpty()) {
+            return Encoding.IDENTITY;
+        }
+        float gzip = -1;
+        float deflate = -1;
+        float any = -1;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parts = element.split(";");
+            String coding = parts[0].trim().toLowerCase();
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (coding.equals("gzip") || coding.equals("x-gzip")) {
+                gzip = q;
+            } else if (coding.equals("deflate")) {
+                deflate = q;
+            } else if (coding.equals("*")) {
+                any = q;
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+        if (gzip > 0 && gzip >= deflate) {
+            return Encoding.GZIP;
+        }
+        if (deflate > 0) {
+            return Encoding.DEFLATE;
+        }
+        return Encoding.IDENTITY;
+    }
+
+    /**
+     * Returns the encoding chosen for the body.
+     *
+     * @return the negotiated encoding
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the stream the body is written to. Bytes written here are
+     * compressed and framed before they reach the client.
+     *
+     * @return the body stream
+     */
+    public OutputStream getOutputStream() {
+        return body;
+    }
+
+    /**
+     * Returns a UTF-8 writer over {@link #getOutputStream()}.
+     *
+     * @return the body writer
+     */
+    public PrintWriter getWriter() {
+        if (writer == null) {
+            writer = new PrintWriter(new OutputStreamWriter(body, StandardCharsets.UTF_8));
+        }
+        return writer;
+    }
+
+    /**
+     * Completes the body and sends whatever is still buffered. The connection's
+     * stream is flushed but not closed. Calling this more than once has no effect.
+     *
+     * @throws IOException if writing to the client fails
+     */
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        if (writer != null) {
+            writer.flush();
+        }
+        // Ends the compressor and, when chunked, writes the last chunk
+        body.close();
+        if (!chunked) {
+            writeHeaders("Content-Length: " + buffered.size() + "\r\n");
+            buffered.writeTo(toClient);
+        }
+        toClient.flush();
+    }
+
+    private void writeHeaders(String framing) throws IOException {
+        StringBuilder headers = new StringBuilder(128);
+        headers.append("HTTP/1.1 ").append(status).append("\r\n");
+        headers.append("Content-Type: ").append(contentType).append("\r\n");
+        if (encoding.token != null) {
+            headers.append("Content-Encoding: ").append(encoding.token).append("\r\n");
+        }
+        headers.append("Vary: Accept-Encoding\r\n");
+        headers.append(framing);
+        headers.append("\r\n");
+        toClient.write(headers.toString().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    // Frames everything written to it as HTTP chunks of up to BUFFER_SIZE bytes;
+    // close() writes the last chunk but leaves the underlying stream open
+    private static final class ChunkedOutputStream extends OutputStream {
+        private static final byte[] CRLF = {'\r', '\n'};
+        private static final byte[] LAST_CHUNK = {'0', '\r', '\n', '\r', '\n'};
+
+        private final OutputStream out;
+        private final byte[] buffer = new byte[BUFFER_SIZE];
+        private int count;
+        private boolean closed;
+
+        ChunkedOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            if (count == buffer.length) {
+                writeChunk();
+            }
+            buffer[count++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                if (count == buffer.length) {
+                    writeChunk();
+                }
+                int n = Math.min(len, buffer.length - count);
+                System.arraycopy(b, off, buffer, count, n);
+                count += n;
+                off += n;
+                len -= n;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            writeChunk();
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            writeChunk();
+            out.write(LAST_CHUNK);
+            out.flush();
+        }
+
+        private void writeChunk() throws IOException {
+            if (count == 0) {
+                return;
+            }
+            out.write(Integer.toHexString(count).getBytes(StandardCharsets.US_ASCII));
+            out.write(CRLF);
+            out.write(buffer, 0, count);
+            out.write(CRLF);
+            count = 0;
+        }
+    }
+}
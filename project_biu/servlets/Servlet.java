@@ -8,4 +8,25 @@ import server.RequestParser.RequestInfo;
 public interface Servlet {
     void handle(RequestInfo ri, OutputStream toClient) throws Exception;
     void close() throws IOException;
+
+    /**
+     * Returns true if every response written by handle() carries a Content-Length
+     * or uses chunked transfer encoding (so the client can tell where it ends; see
+     * {@link ResponseWriter}) and no "Connection: close" header.
+     * The server then keeps HTTP/1.1 connections open for further requests;
+     * otherwise it closes the connection after the response.
+     */
+    default boolean supportsKeepAlive() {
+        return false;
+    }
+
+    /**
+     * Returns true if handle() keeps writing for as long as the client stays
+     * connected, as a server-sent event stream does. NioHTTPServer runs such
+     * servlets apart from its worker pool, so open streams never delay ordinary
+     * requests.
+     */
+    default boolean isStreaming() {
+        return false;
+    }
 }
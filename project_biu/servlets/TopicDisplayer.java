@@ -1,5 +1,6 @@
 package servlets;
 
+import graph.ExecutionPlan;
 import graph.Message;
 import graph.Topic;
 import graph.TopicManagerSingleton;
@@ -10,7 +11,10 @@ import server.RequestParser.RequestInfo;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -21,9 +25,25 @@ import java.util.Map;
  * 1. Extracts topic and message parameters from the HTTP request
  * 2. Uses TopicManager to publish the message to the specified topic
  * 3. Returns a 2-column HTML table showing all topics and their last values
+ * 
+ * Scripts can ask for JSON instead, with format=json or an Accept header that
+ * prefers application/json. A publish then gets only a status, {"ok":true} or
+ * {"ok":false,"error":"..."} with a 4xx code, and a request without topic and
+ * message gets one page of the topics sorted by name:
+ * GET /publish?format=json&amp;offset=0&amp;limit=100 returns
+ * {"total":2,"offset":0,"limit":100,"topics":[{"name":"A","value":"1.0"},...]}
  */
 public class TopicDisplayer implements Servlet {
 
+    /** Topics per JSON page when the request gives no limit */
+    static final int DEFAULT_PAGE_SIZE = 100;
+
+    /** Largest page a client may ask for */
+    static final int MAX_PAGE_SIZE = 1000;
+
+    /** Topics sorted by name, rebuilt when the TopicManager structure version changes */
+    private volatile SortedTopics sortedTopics;
+
     @Override
     public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
         // Extract topic and message from HTTP request parameters
@@ -31,31 +51,166 @@ public class TopicDisplayer implements Servlet {
         String topicName = parameters.get("topic");
         String messageContent = parameters.get("message");
         
+        boolean json = wantsJson(ri);
+        
         String errorMessage = null;
+        String errorStatus = null;
         String successMessage = null;
         
         // If both topic and message are provided, validate and publish the message
         if (topicName != null && messageContent != null) {
-            // Validate topic name
-            if (!isValidTopicName(topicName)) {
+            // Validate topic name, then look the topic up without creating it
+            boolean validName = isValidTopicName(topicName);
+            Topic topic = validName ? TopicManagerSingleton.get().findTopic(topicName) : null;
+            if (!validName) {
                 errorMessage = "Invalid topic name: " + topicName + ". Topic name must be alphanumeric and cannot be empty.";
-            } else if (!topicExists(topicName)) {
+                errorStatus = "400 Bad Request";
+            } else if (topic == null) {
                 errorMessage = "Topic " + topicName + " does not exist. Please check available topics at the system status frame at the right frame.";
+                errorStatus = "404 Not Found";
             } else {
-                // Get the existing topic using TopicManager
-                Topic topic = TopicManagerSingleton.get().getTopic(topicName);
-                
-                // Create a new message and publish it to the topic
+                // Create a new message and publish it to the topic as one wave of the execution plan
                 Message message = new Message(messageContent);
-                topic.publish(message);
+                ExecutionPlan.publishWave(List.of(topic), List.of(message));
                 
                 // Set success message
                 successMessage = "Message " + messageContent + " successfully published to topic " + topicName + ".";
             }
         }
         
+        if (json) {
+            // Machine clients get a short status, or a page of topics when nothing was published
+            if (errorMessage != null) {
+                StringBuilder error = new StringBuilder("{\"ok\":false,\"error\":");
+                Json.writeString(error, errorMessage);
+                error.append('}');
+                Json.respond(toClient, errorStatus, error);
+            } else if (successMessage != null) {
+                Json.respond(toClient, "200 OK", "{\"ok\":true}");
+            } else {
+                generateJsonListing(ri, toClient);
+            }
+            return;
+        }
+        
         // Generate HTML response with a table of all topics and their last values
-        generateHtmlResponse(toClient, errorMessage, successMessage);
+        generateHtmlResponse(ri, toClient, errorMessage, successMessage);
+    }
+
+    /**
+     * Returns true if the client asked for JSON, either with the format parameter
+     * or with an Accept header that ranks application/json above text/html.
+     * Browsers list text/html explicitly, so they keep getting the HTML page.
+     */
+    static boolean wantsJson(RequestInfo ri) {
+        String format = ri.getParameters().get("format");
+        if (format != null) {
+            return format.equalsIgnoreCase("json");
+        }
+        String accept = ri.getHeader("accept");
+        if (accept == null) {
+            return false;
+        }
+        float jsonQuality = 0;
+        float htmlQuality = 0;
+        for (String range : accept.split(",")) {
+            String[] parts = range.split(";");
+            String type = parts[0].trim().toLowerCase();
+            float q = 1;
+            for (int i = 1; i < parts.length; i++) {
+                String param = parts[i].trim();
+                if (param.startsWith("q=") || param.startsWith("Q=")) {
+                    try {
+                        q = Float.parseFloat(param.substring(2));
+                    } catch (NumberFormatException e) {
+                        q = 0;
+                    }
+                }
+            }
+            if (type.equals("application/json")) {
+                jsonQuality = q;
+            } else if (type.equals("text/html")) {
+                htmlQuality = q;
+            }
+        }
+        return jsonQuality > 0 && jsonQuality > htmlQuality;
+    }
+
+    /**
+     * Writes one page of topics, sorted by name, as JSON. The page is chosen with
+     * the offset and limit parameters.
+     */
+    private void generateJsonListing(RequestInfo ri, OutputStream toClient) throws IOException {
+        int offset;
+        int limit;
+        try {
+            offset = Math.max(0, intParameter(ri, "offset", 0));
+            limit = Math.max(1, Math.min(MAX_PAGE_SIZE, intParameter(ri, "limit", DEFAULT_PAGE_SIZE)));
+        } catch (NumberFormatException e) {
+            Json.respond(toClient, "400 Bad Request", "{\"ok\":false,\"error\":\"offset and limit must be numbers\"}");
+            return;
+        }
+        
+        Topic[] topics = getSortedTopics();
+        int end = (int) Math.min(topics.length, (long) offset + limit);
+        
+        ResponseWriter response = new ResponseWriter(ri, toClient, "application/json");
+        PrintWriter writer = response.getWriter();
+        writer.write("{\"total\":");
+        writer.print(topics.length);
+        writer.write(",\"offset\":");
+        writer.print(offset);
+        writer.write(",\"limit\":");
+        writer.print(limit);
+        writer.write(",\"topics\":[");
+        for (int i = offset; i < end; i++) {
+            if (i > offset) {
+                writer.write(',');
+            }
+            writer.write("{\"name\":");
+            Json.writeString(writer, topics[i].name);
+            writer.write(",\"value\":");
+            Json.writeString(writer, topics[i].getResult());
+            writer.write('}');
+        }
+        writer.write("]}");
+        response.finish();
+    }
+
+    private static int intParameter(RequestInfo ri, String name, int defaultValue) {
+        String value = ri.getParameters().get(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns the topics sorted by name, sorting again only after topics were
+     * added or removed.
+     */
+    private Topic[] getSortedTopics() {
+        TopicManagerSingleton.TopicManager manager = TopicManagerSingleton.get();
+        long version = manager.getStructureVersion();
+        SortedTopics current = sortedTopics;
+        if (current == null || current.version != version) {
+            Topic[] topics = manager.getTopics().toArray(new Topic[0]);
+            Arrays.sort(topics, Comparator.comparing((Topic topic) -> topic.name));
+            current = new SortedTopics(version, topics);
+            sortedTopics = current;
+        }
+        return current.topics;
+    }
+
+    // A sorted copy of the topics and the structure version it was taken at
+    private static final class SortedTopics {
+        final long version;
+        final Topic[] topics;
+
+        SortedTopics(long version, Topic[] topics) {
+            this.version = version;
+            this.topics = topics;
+        }
     }
 
     /**
@@ -66,20 +221,13 @@ public class TopicDisplayer implements Servlet {
             return false;
         }
         // Check if topic name contains only alphanumeric characters and underscores
-        return topicName.matches("^[a-zA-Z0-9_]+$");
-    }
-    
-    /**
-     * Checks if a topic exists in the TopicManager.
-     */
-    private boolean topicExists(String topicName) {
-        Collection<Topic> topics = TopicManagerSingleton.get().getTopics();
-        for (Topic topic : topics) {
-            if (topic.name.equals(topicName)) {
-                return true;
+        for (int i = 0; i < topicName.length(); i++) {
+            char c = topicName.charAt(i);
+            if (!((c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '_')) {
+                return false;
             }
         }
-        return false;
+        return true;
     }
 
     /**
@@ -102,9 +250,10 @@ public class TopicDisplayer implements Servlet {
         }
         int totalNodes = topicNodes + agentNodes;
         
-        // Check for cycles
-        boolean hasCycles = graph.hasCycles();
-        String cycleStatus = hasCycles ? "⚠️ Detected" : "✅ None";
+        // Check for cycles, naming the nodes of one if there is any
+        List<Node> cycle = graph.findCycle();
+        boolean hasCycles = !cycle.isEmpty();
+        String cycleStatus = hasCycles ? "⚠️ Detected: " + escapeHtml(describeCycle(cycle)) : "✅ None";
         String cycleClass = hasCycles ? "cycle-warning" : "cycle-ok";
         
         // Generate the graph info section
@@ -130,18 +279,25 @@ public class TopicDisplayer implements Servlet {
         writer.println("    <hr style=\"margin: 15px 0; border: none; border-top: 1px solid #ddd;\">");
     }
 
+    /**
+     * Describes a cycle by its node names, returning to the first, e.g. "A → B → A".
+     */
+    private static String describeCycle(List<Node> cycle) {
+        StringBuilder description = new StringBuilder();
+        for (Node node : cycle) {
+            description.append(node.getName()).append(" → ");
+        }
+        return description.append(cycle.get(0).getName()).toString();
+    }
+
     /**
      * Generates an HTML response containing a table with all topics and their last values.
      * The table has two columns: Topic Name and Last Value.
      */
-    private void generateHtmlResponse(OutputStream toClient, String errorMessage, String successMessage) throws IOException {
-        PrintWriter writer = new PrintWriter(toClient);
-        
-        // Send HTTP headers
-        writer.println("HTTP/1.1 200 OK");
-        writer.println("Content-Type: text/html; charset=UTF-8");
-        writer.println("Connection: close");
-        writer.println(); // Empty line to separate headers from body
+    private void generateHtmlResponse(RequestInfo ri, OutputStream toClient, String errorMessage, String successMessage) throws IOException {
+        // Stream the page, compressed when the client accepts it
+        ResponseWriter response = new ResponseWriter(ri, toClient, "text/html; charset=UTF-8");
+        PrintWriter writer = response.getWriter();
         
         // Start HTML document
         writer.println("<!DOCTYPE html>");
@@ -272,8 +428,7 @@ public class TopicDisplayer implements Servlet {
         
         writer.println("</body>");
         writer.println("</html>");
-        
-        writer.flush();
+        response.finish();
     }
     
     /**
@@ -290,6 +445,11 @@ public class TopicDisplayer implements Servlet {
                    .replace("'", "&#x27;");
     }
 
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
+    }
+
     @Override
     public void close() throws IOException {
         // No resources to clean up for this servlet
@@ -0,0 +1,215 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TopicEventsServlet pushes topic value changes to the browser as Server-Sent Events,
+ * so pages can show live values without polling.
+ *
+ * Request: GET /events?topics=A,B&amp;rate=5. Both parameters are optional:
+ * "topics" limits the stream to the listed topics, and "rate" caps how many
+ * events per second this client receives (default 10). Changes are coalesced per
+ * client: however often a topic is published, each event carries only the latest
+ * value of every topic that changed since the previous event.
+ *
+ * Each event looks like:
+ * <pre>
+ * event: values
+ * id: 812
+ * data: {"version":812,"values":{"A":"3.0","sum":"10.0"}}
+ * </pre>
+ * The first event lists every (matching) topic. A client that reconnects with a
+ * Last-Event-ID header (browsers do this automatically) only gets what changed
+ * since. When topics or agents are rewired a "structure" event is sent, carrying
+ * the new TopicManager structure version. A comment line is sent every 15 seconds
+ * while nothing changes, so dead connections are noticed.
+ *
+ * The stream holds one server thread per client for as long as it is open. Both
+ * servers deliver each event when it is flushed: MyHTTPServer writes servlet output
+ * straight to the socket, and NioHTTPServer streams it in chunks. Since this servlet
+ * reports isStreaming(), NioHTTPServer runs it on its stream executor (a virtual
+ * thread per stream where available) instead of a worker thread, up to its
+ * setMaxStreams limit, so open streams do not hold up other requests. With
+ * MyHTTPServer in VIRTUAL_THREADS mode an open stream also holds one of the
+ * server's maxInFlight permits, which ordinary requests and WebSocket sessions
+ * share, so when that many clients are connected new connections wait in the
+ * accept backlog until one closes.
+ */
+public class TopicEventsServlet implements Servlet {
+
+    /** Events per second sent to a client that does not ask for a rate */
+    static final int DEFAULT_RATE = 10;
+
+    /** Highest rate a client may ask for */
+    static final int MAX_RATE = 100;
+
+    /** Idle time after which a comment is sent to check the connection */
+    private static final long HEARTBEAT_MILLIS = 15_000;
+
+    private volatile boolean closed;
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
+        int rate = DEFAULT_RATE;
+        String rateParam = ri.getParameters().get("rate");
+        if (rateParam != null) {
+            try {
+                rate = Math.max(1, Math.min(MAX_RATE, Integer.parseInt(rateParam.trim())));
+            } catch (NumberFormatException e) {
+                // keep the default
+            }
+        }
+        long minIntervalNanos = TimeUnit.SECONDS.toNanos(1) / rate;
+
+        Set<String> filter = null;
+        String topicsParam = ri.getParameters().get("topics");
+        if (topicsParam != null && !topicsParam.trim().isEmpty()) {
+            filter = new HashSet<>();
+            for (String name : topicsParam.split(",")) {
+                if (!name.trim().isEmpty()) {
+                    filter.add(name.trim());
+                }
+            }
+        }
+
+        // Resume after the last event the browser saw, if it tells us
+        long sent = 0;
+        String lastEventId = ri.getHeader("last-event-id");
+        if (lastEventId != null) {
+            try {
+                sent = Long.parseLong(lastEventId.trim());
+            } catch (NumberFormatException e) {
+                sent = 0;
+            }
+        }
+
+        String headers = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: text/event-stream; charset=UTF-8\r\n" +
+                "Cache-Control: no-cache\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        toClient.write(headers.getBytes(StandardCharsets.US_ASCII));
+        Writer writer = new OutputStreamWriter(toClient, StandardCharsets.UTF_8);
+        // Tell the browser how long to wait before reconnecting
+        writer.write("retry: 2000\n\n");
+        writer.flush();
+
+        TopicManager manager = TopicManagerSingleton.get();
+        long structure = manager.getStructureVersion();
+        Collection<Topic> watched = resolve(manager, filter);
+        long version = manager.getValueSequence();
+        if (sent > version) {
+            sent = 0; // the id is from before a server restart
+        }
+        sendValues(writer, watched, sent, version);
+        sent = version;
+        long nextSendAt = System.nanoTime() + minIntervalNanos;
+
+        try {
+            while (!closed) {
+                // Coalesce: do not send again before this client's interval has passed
+                long wait = nextSendAt - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                version = manager.awaitValueChange(sent, HEARTBEAT_MILLIS);
+
+                long currentStructure = manager.getStructureVersion();
+                if (currentStructure != structure) {
+                    structure = currentStructure;
+                    watched = resolve(manager, filter);
+                    writer.write("event: structure\ndata: {\"structure\":" + structure + "}\n\n");
+                    writer.flush();
+                }
+                if (version == sent) {
+                    writer.write(": keep-alive\n\n");
+                    writer.flush();
+                    continue;
+                }
+                sendValues(writer, watched, sent, version);
+                sent = version;
+                nextSendAt = System.nanoTime() + minIntervalNanos;
+            }
+        } catch (IOException e) {
+            // The client went away
+        } catch (InterruptedException e) {
+            // The server is shutting down
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Returns the topics this client watches: all of them, or the named ones that
+     * currently exist. Called again whenever the structure version changes.
+     */
+    private Collection<Topic> resolve(TopicManager manager, Set<String> filter) {
+        if (filter == null) {
+            return manager.getTopics();
+        }
+        List<Topic> topics = new ArrayList<>(filter.size());
+        for (String name : filter) {
+            Topic topic = manager.findTopic(name);
+            if (topic != null) {
+                topics.add(topic);
+            }
+        }
+        return topics;
+    }
+
+    /**
+     * Sends one event with the watched topics that changed after {@code since}, if any.
+     */
+    private void sendValues(Writer writer, Collection<Topic> watched, long since, long version) throws IOException {
+        StringBuilder data = new StringBuilder(256);
+        data.append("{\"version\":").append(version).append(",\"values\":{");
+        boolean any = false;
+        for (Topic topic : watched) {
+            if (topic.getChangeSequence() <= since && since > 0) {
+                continue;
+            }
+            if (any) {
+                data.append(',');
+            }
+            any = true;
+            Json.writeString(data, topic.name);
+            data.append(':');
+            Json.writeString(data, topic.getResult());
+        }
+        data.append("}}");
+        // Always send the first event, so the client has a starting point
+        if (!any && since > 0) {
+            return;
+        }
+        writer.write("event: values\nid: ");
+        writer.write(Long.toString(version));
+        writer.write("\ndata: ");
+        writer.append(data);
+        writer.write("\n\n");
+        writer.flush();
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+    }
+}
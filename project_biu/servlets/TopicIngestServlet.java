@@ -0,0 +1,180 @@
+package servlets;
+
+import graph.ExecutionPlan;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * TopicIngestServlet publishes many values in one request, so producers can
+ * spread the cost of a request over thousands of updates.
+ *
+ * Request: POST /ingest with one of these bodies. The values are published in
+ * waves of the ExecutionPlan: each agent that depends on a wave runs once, after
+ * all of its inputs are updated. A topic that appears again starts a new wave, so
+ * the subscribers of a topic see every record for it, in the order of the body.
+ * <ul>
+ * <li>Text (the default): one "&lt;topic&gt; &lt;value&gt;" pair per line; the value is the
+ * rest of the line after the first space. Empty lines are skipped.</li>
+ * <li>Content-Type: application/octet-stream: a sequence of records, each a
+ * big-endian 2-byte topic name length, the UTF-8 name, a big-endian 4-byte
+ * value length and the value bytes.</li>
+ * </ul>
+ * Only existing topics are published to. The response is a short JSON ack:
+ * <pre>
+ * {"published":4998,"failed":2,"errors":[{"record":17,"message":"Topic X does not exist"}]}
+ * </pre>
+ * A binary body that is cut short is rejected with 400 and nothing is published.
+ */
+public class TopicIngestServlet implements Servlet {
+
+    /** Most errors listed in one ack */
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
+        byte[] body = ri.getContent();
+        if (body == null) {
+            body = new byte[0];
+        }
+        String contentType = ri.getHeader("content-type");
+        boolean binary = contentType != null
+                && contentType.toLowerCase().startsWith("application/octet-stream");
+
+        Batch batch = new Batch();
+        if (binary) {
+            String problem = batch.parseBinary(body);
+            if (problem != null) {
+                StringBuilder error = new StringBuilder("{\"error\":");
+                Json.writeString(error, problem);
+                error.append('}');
+                Json.respond(toClient, "400 Bad Request", error);
+                return;
+            }
+        } else {
+            batch.parseText(new String(body, StandardCharsets.UTF_8));
+        }
+
+        // Records for different topics share a wave, so each downstream agent runs once for them
+        int published = batch.topics.size();
+        ExecutionPlan.publishInOrder(batch.topics, batch.messages);
+
+        StringBuilder ack = new StringBuilder(64);
+        ack.append("{\"published\":").append(published)
+                .append(",\"failed\":").append(batch.failed);
+        if (batch.errors != null) {
+            ack.append(",\"errors\":[").append(batch.errors).append(']');
+        }
+        ack.append('}');
+        Json.respond(toClient, "200 OK", ack);
+    }
+
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to clean up for this servlet
+    }
+
+    /**
+     * The records of one request, resolved to topics before anything is published.
+     */
+    private static final class Batch {
+        final List<Topic> topics = new ArrayList<>();
+        final List<Message> messages = new ArrayList<>();
+        final TopicManager manager = TopicManagerSingleton.get();
+        int failed;
+        StringBuilder errors;
+
+        void parseText(String text) {
+            int record = 0;
+            int start = 0;
+            int length = text.length();
+            while (start < length) {
+                int end = text.indexOf('\n', start);
+                if (end < 0) {
+                    end = length;
+                }
+                int next = end + 1;
+                if (end > start && text.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                if (end > start) {
+                    record++;
+                    int space = text.indexOf(' ', start);
+                    if (space <= start || space >= end) {
+                        fail(record, "Expected \"<topic> <value>\"");
+                    } else {
+                        add(record, text.substring(start, space), new Message(text.substring(space + 1, end)));
+                    }
+                }
+                start = next;
+            }
+        }
+
+        // Returns a description of the problem if the body is malformed
+        String parseBinary(byte[] body) {
+            int record = 0;
+            int pos = 0;
+            while (pos < body.length) {
+                record++;
+                if (body.length - pos < 2) {
+                    return "Record " + record + " is cut short";
+                }
+                int nameLength = ((body[pos] & 0xFF) << 8) | (body[pos + 1] & 0xFF);
+                pos += 2;
+                if (body.length - pos < nameLength + 4) {
+                    return "Record " + record + " is cut short";
+                }
+                String name = new String(body, pos, nameLength, StandardCharsets.UTF_8);
+                pos += nameLength;
+                long valueLength = ((long) (body[pos] & 0xFF) << 24) | ((body[pos + 1] & 0xFF) << 16)
+                        | ((body[pos + 2] & 0xFF) << 8) | (body[pos + 3] & 0xFF);
+                pos += 4;
+                if (body.length - pos < valueLength) {
+                    return "Record " + record + " is cut short";
+                }
+                byte[] value = new byte[(int) valueLength];
+                System.arraycopy(body, pos, value, 0, value.length);
+                pos += value.length;
+                add(record, name, new Message(value));
+            }
+            return null;
+        }
+
+        private void add(int record, String name, Message message) {
+            Topic topic = manager.findTopic(name);
+            if (topic == null) {
+                fail(record, "Topic " + name + " does not exist");
+                return;
+            }
+            topics.add(topic);
+            messages.add(message);
+        }
+
+        private void fail(int record, String message) {
+            if (++failed > MAX_REPORTED_ERRORS) {
+                return;
+            }
+            if (errors == null) {
+                errors = new StringBuilder();
+            } else {
+                errors.append(',');
+            }
+            errors.append("{\"record\":").append(record).append(",\"message\":");
+            Json.writeString(errors, message);
+            errors.append('}');
+        }
+    }
+}
@@ -0,0 +1,370 @@
+package servlets;
+
+import graph.ExecutionPlan;
+import graph.Message;
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TopicSocketServlet lets clients publish to and subscribe to topics over one
+ * WebSocket connection, for gateways that push many values per second and
+ * dashboards that follow them.
+ *
+ * Connect with GET /ws (optionally /ws?rate=N, see below). Each text message the
+ * client sends holds one or more lines, so a whole batch travels in one frame:
+ * <pre>
+ * p &lt;topic&gt; &lt;value&gt;   publish a value (the rest of the line) to an existing topic
+ * s &lt;topic&gt;           subscribe to a topic, or "s *" for all topics
+ * u &lt;topic&gt;           unsubscribe, or "u *" to drop every subscription
+ * </pre>
+ * The values published by one message form one wave of the ExecutionPlan, so
+ * agents downstream of several of them run once. A topic published twice in one
+ * message starts a new wave, so subscribers see each of its values in order.
+ * Publishing is not acknowledged. Lines that cannot be applied are reported in
+ * one message per batch, the rest of the batch still applies:
+ * <pre>
+ * {"errors":[{"line":3,"message":"Topic X does not exist"}]}
+ * </pre>
+ * Subscribers get the current value of each topic they subscribe to, then updates
+ * in the same form as the /events stream, coalesced to at most "rate" messages
+ * per second (default 10):
+ * <pre>
+ * {"version":812,"values":{"A":"3.0","sum":"10.0"}}
+ * </pre>
+ *
+ * Each connection holds one server thread. While it has subscriptions, its updates
+ * are sent from a virtual thread, or from a pooled daemon thread on runtimes
+ * without them. With MyHTTPServer in VIRTUAL_THREADS mode a connection also holds
+ * one of the server's maxInFlight permits until it closes, like an /events stream.
+ * Servers that cannot hand over a connection (NioHTTPServer) answer 426 Upgrade
+ * Required.
+ */
+public class TopicSocketServlet implements UpgradeServlet {
+
+    /** Largest message accepted from a client */
+    static final int MAX_MESSAGE_BYTES = 1024 * 1024;
+
+    /** Most errors listed in one reply */
+    private static final int MAX_REPORTED_ERRORS = 20;
+
+    /** Idle time after which a ping is sent to subscribers */
+    private static final long HEARTBEAT_MILLIS = 30_000;
+
+    // Runs the update loops of subscribed sessions; created on first use
+    private static ExecutorService senders;
+
+    private final Set<Session> sessions = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Returns the executor the sessions' update loops run on: one virtual thread per
+     * loop, looked up reflectively as MyHTTPServer does, or else a cached pool of
+     * daemon threads that are reused between sessions.
+     */
+    private static synchronized ExecutorService senders() {
+        if (senders == null) {
+            try {
+                senders = (ExecutorService) Executors.class
+                        .getMethod("newVirtualThreadPerTaskExecutor")
+                        .invoke(null);
+            } catch (ReflectiveOperationException e) {
+                senders = Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "topic-socket-sender");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        return senders;
+    }
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
+        WebSocket.rejectPlainRequest(toClient);
+    }
+
+    @Override
+    public void upgrade(RequestInfo ri, InputStream fromClient, OutputStream toClient) throws Exception {
+        WebSocket socket = WebSocket.accept(ri, fromClient, toClient, MAX_MESSAGE_BYTES);
+        if (socket == null) {
+            return;
+        }
+        int rate = TopicEventsServlet.DEFAULT_RATE;
+        String rateParam = ri.getParameters().get("rate");
+        if (rateParam != null) {
+            try {
+                rate = Math.max(1, Math.min(TopicEventsServlet.MAX_RATE, Integer.parseInt(rateParam.trim())));
+            } catch (NumberFormatException e) {
+                // keep the default
+            }
+        }
+        Session session = new Session(socket, TimeUnit.SECONDS.toNanos(1) / rate);
+        sessions.add(session);
+        try {
+            session.run();
+        } catch (IOException e) {
+            // The client went away or broke the protocol
+        } finally {
+            sessions.remove(session);
+            session.stop();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Session session : sessions) {
+            try {
+                session.socket.close(WebSocket.CLOSE_GOING_AWAY, "Server shutting down");
+            } catch (IOException e) {
+                // closing anyway
+            }
+            session.stop();
+            session.socket.disconnect();
+        }
+    }
+
+    /**
+     * One client connection: the reading side runs on the server's thread, and
+     * subscription updates are sent from a task on the senders() executor.
+     */
+    private static final class Session {
+        final WebSocket socket;
+        private final long minIntervalNanos;
+        private final TopicManager manager = TopicManagerSingleton.get();
+
+        // Names this client follows; "*" stands for every topic
+        private final Set<String> subscribed = ConcurrentHashMap.newKeySet();
+        // Incremented whenever subscribed changes, so the sender resolves the names again
+        private volatile int subscriptionVersion;
+        // Sender thread only: the topics named in subscribed, and the subscription
+        // and structure versions they were looked up at
+        private final List<Topic> subscribedTopics = new ArrayList<>();
+        private int resolvedSubscriptions = -1;
+        private long resolvedStructure = -1;
+        // Held while collecting and sending values, so sends are in the order they were read
+        private final Object sendLock = new Object();
+        private volatile Future<?> sender;
+        private volatile boolean stopped;
+
+        Session(WebSocket socket, long minIntervalNanos) {
+            this.socket = socket;
+            this.minIntervalNanos = minIntervalNanos;
+        }
+
+        void run() throws IOException {
+            String batch;
+            while ((batch = socket.readText()) != null) {
+                apply(batch);
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            Future<?> task = sender;
+            if (task != null) {
+                task.cancel(true);
+            }
+        }
+
+        // Applies every line of one message, then reports the lines that failed
+        private void apply(String batch) throws IOException {
+            StringBuilder errors = null;
+            int errorCount = 0;
+            Map<String, Topic> added = null;
+            List<Topic> publishTopics = new ArrayList<>();
+            List<Message> publishMessages = new ArrayList<>();
+            int lineNumber = 0;
+            int start = 0;
+            int length = batch.length();
+            while (start < length) {
+                int end = batch.indexOf('\n', start);
+                if (end < 0) {
+                    end = length;
+                }
+                int next = end + 1;
+                if (end > start && batch.charAt(end - 1) == '\r') {
+                    end--;
+                }
+                lineNumber++;
+                String error = null;
+                if (end > start) {
+                    char command = batch.charAt(start);
+                    if (end - start < 3 || batch.charAt(start + 1) != ' ') {
+                        error = "Expected \"p <topic> <value>\", \"s <topic>\" or \"u <topic>\"";
+                    } else if (command == 'p') {
+                        error = parsePublish(batch, start + 2, end, publishTopics, publishMessages);
+                    } else if (command == 's') {
+                        String name = batch.substring(start + 2, end);
+                        boolean all = name.equals("*");
+                        Topic topic = all ? null : manager.findTopic(name);
+                        if (!all && topic == null) {
+                            error = "Topic " + name + " does not exist";
+                        } else if (subscribed.add(name)) {
+                            subscriptionVersion++;
+                            if (added == null) {
+                                added = new HashMap<>();
+                            }
+                            added.put(name, topic);
+                        }
+                    } else if (command == 'u') {
+                        String name = batch.substring(start + 2, end);
+                        if (name.equals("*")) {
+                            subscribed.clear();
+                        } else {
+                            subscribed.remove(name);
+                        }
+                        subscriptionVersion++;
+                    } else {
+                        error = "Unknown command '" + command + "'";
+                    }
+                }
+                if (error != null && ++errorCount <= MAX_REPORTED_ERRORS) {
+                    if (errors == null) {
+                        errors = new StringBuilder("{\"errors\":[");
+                    } else {
+                        errors.append(',');
+                    }
+                    errors.append("{\"line\":").append(lineNumber).append(",\"message\":");
+                    Json.writeString(errors, error);
+                    errors.append('}');
+                }
+                start = next;
+            }
+            if (!publishTopics.isEmpty()) {
+                ExecutionPlan.publishInOrder(publishTopics, publishMessages);
+            }
+            if (errors != null) {
+                errors.append("]}");
+                socket.sendText(errors.toString());
+            }
+            if (added != null) {
+                sendCurrentValues(added);
+            }
+        }
+
+        // Resolves a publish line into the message's topic; returns an error or null
+        private String parsePublish(String batch, int from, int end, List<Topic> topics, List<Message> messages) {
+            int space = batch.indexOf(' ', from);
+            if (space < 0 || space >= end || space == from) {
+                return "Expected \"p <topic> <value>\"";
+            }
+            String name = batch.substring(from, space);
+            Topic topic = manager.findTopic(name);
+            if (topic == null) {
+                return "Topic " + name + " does not exist";
+            }
+            topics.add(topic);
+            messages.add(new Message(batch.substring(space + 1, end)));
+            return null;
+        }
+
+        // Sends the values of newly subscribed topics, and starts the update loop
+        private void sendCurrentValues(Map<String, Topic> added) throws IOException {
+            synchronized (sendLock) {
+                long version = manager.getValueSequence();
+                StringBuilder message = new StringBuilder(128);
+                message.append("{\"version\":").append(version).append(",\"values\":{");
+                boolean first = true;
+                for (Topic topic : added.containsKey("*") ? manager.getTopics() : added.values()) {
+                    if (!first) {
+                        message.append(',');
+                    }
+                    first = false;
+                    Json.writeString(message, topic.name);
+                    message.append(':');
+                    Json.writeString(message, topic.getResult());
+                }
+                message.append("}}");
+                socket.sendText(message.toString());
+                if (sender == null) {
+                    sender = senders().submit(() -> sendUpdates(version));
+                }
+            }
+        }
+
+        // Runs on a senders() thread until the session stops
+        private void sendUpdates(long sent) {
+            long nextSendAt = System.nanoTime();
+            try {
+                while (!stopped) {
+                    // Coalesce: do not send again before this client's interval has passed
+                    long wait = nextSendAt - System.nanoTime();
+                    if (wait > 0) {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    }
+                    long version = manager.awaitValueChange(sent, HEARTBEAT_MILLIS);
+                    if (version == sent) {
+                        socket.sendPing();
+                        continue;
+                    }
+                    synchronized (sendLock) {
+                        sendChanges(sent, version);
+                    }
+                    sent = version;
+                    nextSendAt = System.nanoTime() + minIntervalNanos;
+                }
+            } catch (IOException e) {
+                // The connection is closing; the reading side cleans up
+            } catch (InterruptedException e) {
+                // The session stopped
+            }
+        }
+
+        private void sendChanges(long since, long version) throws IOException {
+            Iterable<Topic> candidates = subscribed.contains("*") ? manager.getTopics() : subscribedTopics();
+            StringBuilder message = null;
+            for (Topic topic : candidates) {
+                if (topic.getChangeSequence() <= since) {
+                    continue;
+                }
+                if (message == null) {
+                    message = new StringBuilder(128);
+                    message.append("{\"version\":").append(version).append(",\"values\":{");
+                } else {
+                    message.append(',');
+                }
+                Json.writeString(message, topic.name);
+                message.append(':');
+                Json.writeString(message, topic.getResult());
+            }
+            if (message != null) {
+                message.append("}}");
+                socket.sendText(message.toString());
+            }
+        }
+
+        // Returns the subscribed topics, looking the names up again only after the
+        // subscriptions or the topics changed; names without a topic are skipped
+        private List<Topic> subscribedTopics() {
+            int subscriptions = subscriptionVersion;
+            long structure = manager.getStructureVersion();
+            if (subscriptions != resolvedSubscriptions || structure != resolvedStructure) {
+                subscribedTopics.clear();
+                for (String name : subscribed) {
+                    Topic topic = manager.findTopic(name);
+                    if (topic != null) {
+                        subscribedTopics.add(topic);
+                    }
+                }
+                resolvedSubscriptions = subscriptions;
+                resolvedStructure = structure;
+            }
+            return subscribedTopics;
+        }
+    }
+}
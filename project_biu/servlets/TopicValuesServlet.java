@@ -0,0 +1,90 @@
+package servlets;
+
+import graph.Topic;
+import graph.TopicManagerSingleton;
+import graph.TopicManagerSingleton.TopicManager;
+import server.RequestParser.RequestInfo;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+
+/**
+ * TopicValuesServlet answers with the topic values that changed since a
+ * version the client saw earlier, as compact JSON, so a page that already
+ * shows the graph can update its value labels in place instead of reloading.
+ *
+ * Request: GET /values?since=N, where N is the "version" of the previous
+ * response (omit it, or pass 0, to get every topic). Response:
+ * <pre>
+ * {"version":812,"structure":37,"full":false,"values":{"A":"3.0","sum":"10.0"}}
+ * </pre>
+ * "version" is the TopicManager value sequence to send as since next time.
+ * "structure" is the TopicManager structure version; when it differs from the
+ * one the page was rendered with, topics or agents were rewired and the page
+ * should be reloaded. "full" is true when all topics are listed, which also
+ * happens when since is ahead of the server (for example after a restart).
+ */
+public class TopicValuesServlet implements Servlet {
+
+    @Override
+    public void handle(RequestInfo ri, OutputStream toClient) throws Exception {
+        long since = 0;
+        String sinceParam = ri.getParameters().get("since");
+        if (sinceParam != null && !sinceParam.isEmpty()) {
+            try {
+                since = Long.parseLong(sinceParam.trim());
+            } catch (NumberFormatException e) {
+                ResponseWriter response = new ResponseWriter(ri, toClient, "400 Bad Request", "application/json");
+                PrintWriter writer = response.getWriter();
+                writer.write("{\"error\":");
+                Json.writeString(writer, "since must be a number: " + sinceParam);
+                writer.write("}");
+                response.finish();
+                return;
+            }
+        }
+
+        TopicManager manager = TopicManagerSingleton.get();
+        // Read the sequence before the values, so a change racing with this request
+        // is either included now or reported again on the next request
+        long structure = manager.getStructureVersion();
+        long version = manager.getValueSequence();
+        boolean full = since <= 0 || since > version;
+
+        ResponseWriter response = new ResponseWriter(ri, toClient, "application/json");
+        PrintWriter writer = response.getWriter();
+        writer.write("{\"version\":");
+        writer.print(version);
+        writer.write(",\"structure\":");
+        writer.print(structure);
+        writer.write(",\"full\":");
+        writer.print(full);
+        writer.write(",\"values\":{");
+        boolean first = true;
+        for (Topic topic : manager.getTopics()) {
+            if (!full && topic.getChangeSequence() <= since) {
+                continue;
+            }
+            if (!first) {
+                writer.write(',');
+            }
+            first = false;
+            Json.writeString(writer, topic.name);
+            writer.write(':');
+            Json.writeString(writer, topic.getResult());
+        }
+        writer.write("}}");
+        response.finish();
+    }
+
+    @Override
+    public boolean supportsKeepAlive() {
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        // No resources to clean up for this servlet
+    }
+}
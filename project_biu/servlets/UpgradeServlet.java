@@ -0,0 +1,29 @@
+package servlets;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import server.RequestParser.RequestInfo;
+
+/**
+ * A servlet that can take over its connection when a request asks to switch
+ * protocols (Connection: Upgrade), as a WebSocket handshake does.
+ *
+ * MyHTTPServer calls upgrade() instead of handle() for such requests and closes
+ * the connection when it returns. Requests without an Upgrade header, and servers
+ * that cannot hand over a connection, still go through handle().
+ */
+public interface UpgradeServlet extends Servlet {
+
+    /**
+     * Serves the connection after an upgrade request. The servlet writes the
+     * response to the request itself (e.g. 101 Switching Protocols) and may then
+     * read and write the streams until it is done.
+     *
+     * @param ri the upgrade request
+     * @param fromClient the rest of the client's bytes, starting right after the request
+     * @param toClient the connection's output stream
+     * @throws Exception if serving the connection fails
+     */
+    void upgrade(RequestInfo ri, InputStream fromClient, OutputStream toClient) throws Exception;
+}
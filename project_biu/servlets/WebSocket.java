@@ -0,0 +1,366 @@
+package servlets;
+
+import server.RequestParser.RequestInfo;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+
+/**
+ * The server side of a WebSocket connection (RFC 6455) over the streams of an
+ * upgraded HTTP connection.
+ *
+ * Only text messages are delivered to the caller. Fragmented messages are
+ * reassembled, pings are answered from inside {@link #readText()}, and a close
+ * from the client is echoed. Sending is thread-safe, so one thread can read
+ * while others write.
+ */
+final class WebSocket {
+
+    static final int CLOSE_NORMAL = 1000;
+    static final int CLOSE_GOING_AWAY = 1001;
+    static final int CLOSE_PROTOCOL_ERROR = 1002;
+    static final int CLOSE_UNSUPPORTED_DATA = 1003;
+    static final int CLOSE_INVALID_DATA = 1007;
+    static final int CLOSE_TOO_BIG = 1009;
+
+    private static final int OP_CONTINUATION = 0x0;
+    private static final int OP_TEXT = 0x1;
+    private static final int OP_BINARY = 0x2;
+    private static final int OP_CLOSE = 0x8;
+    private static final int OP_PING = 0x9;
+    private static final int OP_PONG = 0xA;
+
+    // Appended to the client's key to prove the server speaks WebSocket
+    private static final String ACCEPT_GUID = "258EAFA5-E914-47DA-95CA-C5AB0DC85B11";
+
+    private final InputStream in;
+    private final OutputStream out;
+    private final int maxMessageBytes;
+    private final byte[] mask = new byte[4];
+    private final byte[] frameHeader = new byte[10];  // guarded by out
+    private boolean closeSent;                         // guarded by out
+
+    private WebSocket(InputStream in, OutputStream out, int maxMessageBytes) {
+        this.in = new BufferedInputStream(in);
+        this.out = out;
+        this.maxMessageBytes = maxMessageBytes;
+    }
+
+    /**
+     * Completes the opening handshake for an upgrade request. On success the
+     * 101 response is written and the connection is returned; otherwise an
+     * error response is written and null is returned.
+     *
+     * @param ri the upgrade request
+     * @param fromClient the client's bytes following the request
+     * @param toClient the connection's output stream
+     * @param maxMessageBytes the largest message accepted from the client
+     * @return the open connection, or null if the request was not a valid handshake
+     * @throws IOException if writing the response fails
+     */
+    static WebSocket accept(RequestInfo ri, InputStream fromClient, OutputStream toClient, int maxMessageBytes)
+            throws IOException {
+        String upgrade = ri.getHeader("upgrade");
+        String key = ri.getHeader("sec-websocket-key");
+        if (upgrade == null || !upgrade.trim().equalsIgnoreCase("websocket") || key == null || !isValidKey(key.trim())) {
+            writeResponse(toClient, "400 Bad Request", "", "Not a valid WebSocket handshake");
+            return null;
+        }
+        String version = ri.getHeader("sec-websocket-version");
+        if (version == null || !version.trim().equals("13")) {
+            writeResponse(toClient, "426 Upgrade Required", "Sec-WebSocket-Version: 13\r\n",
+                    "Unsupported WebSocket version");
+            return null;
+        }
+        String response = "HTTP/1.1 101 Switching Protocols\r\n" +
+                "Upgrade: websocket\r\n" +
+                "Connection: Upgrade\r\n" +
+                "Sec-WebSocket-Accept: " + acceptKey(key.trim()) + "\r\n" +
+                "\r\n";
+        toClient.write(response.getBytes(StandardCharsets.US_ASCII));
+        toClient.flush();
+        return new WebSocket(fromClient, toClient, maxMessageBytes);
+    }
+
+    /**
+     * Answers a plain request to a WebSocket-only endpoint.
+     *
+     * @param toClient the connection's output stream
+     * @throws IOException if writing the response fails
+     */
+    static void rejectPlainRequest(OutputStream toClient) throws IOException {
+        writeResponse(toClient, "426 Upgrade Required", "Upgrade: websocket\r\nConnection: Upgrade\r\n",
+                "This endpoint only speaks WebSocket");
+    }
+
+    /**
+     * Computes the Sec-WebSocket-Accept value for a client key.
+     *
+     * @param key the Sec-WebSocket-Key header of the request
+     * @return the base64 SHA-1 of the key and the protocol GUID
+     */
+    static String acceptKey(String key) {
+        try {
+            MessageDigest sha1 = MessageDigest.getInstance("SHA-1");
+            byte[] digest = sha1.digest((key + ACCEPT_GUID).getBytes(StandardCharsets.US_ASCII));
+            return Base64.getEncoder().encodeToString(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is not available", e);
+        }
+    }
+
+    // A key is 16 random bytes, base64 encoded
+    private static boolean isValidKey(String key) {
+        try {
+            return Base64.getDecoder().decode(key).length == 16;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private static void writeResponse(OutputStream toClient, String status, String extraHeaders, String message)
+            throws IOException {
+        byte[] body = message.getBytes(StandardCharsets.UTF_8);
+        String headers = "HTTP/1.1 " + status + "\r\n" +
+                extraHeaders +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: close\r\n" +
+                "\r\n";
+        toClient.write(headers.getBytes(StandardCharsets.US_ASCII));
+        toClient.write(body);
+        toClient.flush();
+    }
+
+    /**
+     * Reads the next text message, answering control frames on the way.
+     *
+     * @return the message, or null once the client has closed the connection
+     * @throws IOException if the connection fails or the client breaks the protocol;
+     *         in the latter case a close frame with the reason has been sent
+     */
+    String readText() throws IOException {
+        ByteArrayOutputStream fragments = null;
+        int messageOpcode = -1;
+        while (true) {
+            int b0 = in.read();
+            if (b0 == -1) {
+                return null;
+            }
+            int b1 = readByte();
+            boolean fin = (b0 & 0x80) != 0;
+            int opcode = b0 & 0x0F;
+            if ((b0 & 0x70) != 0) {
+                throw fail(CLOSE_PROTOCOL_ERROR, "Reserved bits must be zero");
+            }
+            if ((b1 & 0x80) == 0) {
+                throw fail(CLOSE_PROTOCOL_ERROR, "Client frames must be masked");
+            }
+            long length = b1 & 0x7F;
+            if (length == 126) {
+                length = (readByte() << 8) | readByte();
+            } else if (length == 127) {
+                length = 0;
+                for (int i = 0; i < 8; i++) {
+                    length = (length << 8) | readByte();
+                }
+                if (length < 0) {
+                    throw fail(CLOSE_PROTOCOL_ERROR, "Invalid frame length");
+                }
+            }
+            readFully(mask, 0, 4);
+
+            if (opcode >= OP_CLOSE) {
+                if (!fin || length > 125) {
+                    throw fail(CLOSE_PROTOCOL_ERROR, "Invalid control frame");
+                }
+                byte[] payload = readPayload((int) length);
+                if (opcode == OP_PING) {
+                    sendFrame(OP_PONG, payload, payload.length);
+                } else if (opcode == OP_CLOSE) {
+                    int code = payload.length >= 2 ? ((payload[0] & 0xFF) << 8) | (payload[1] & 0xFF) : CLOSE_NORMAL;
+                    close(code, "");
+                    return null;
+                } else if (opcode != OP_PONG) {
+                    throw fail(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+                }
+                continue;
+            }
+
+            if (opcode == OP_CONTINUATION) {
+                if (messageOpcode < 0) {
+                    throw fail(CLOSE_PROTOCOL_ERROR, "Continuation without a message");
+                }
+            } else if (opcode == OP_TEXT || opcode == OP_BINARY) {
+                if (messageOpcode >= 0) {
+                    throw fail(CLOSE_PROTOCOL_ERROR, "Expected a continuation frame");
+                }
+                messageOpcode = opcode;
+            } else {
+                throw fail(CLOSE_PROTOCOL_ERROR, "Unknown opcode " + opcode);
+            }
+            long total = length + (fragments == null ? 0 : fragments.size());
+            if (total > maxMessageBytes) {
+                throw fail(CLOSE_TOO_BIG, "Messages are limited to " + maxMessageBytes + " bytes");
+            }
+            byte[] payload = readPayload((int) length);
+            if (!fin) {
+                if (fragments == null) {
+                    fragments = new ByteArrayOutputStream(Math.max(256, payload.length * 2));
+                }
+                fragments.write(payload, 0, payload.length);
+                continue;
+            }
+            if (fragments != null) {
+                fragments.write(payload, 0, payload.length);
+                payload = fragments.toByteArray();
+            }
+            if (messageOpcode == OP_BINARY) {
+                throw fail(CLOSE_UNSUPPORTED_DATA, "Only text messages are supported");
+            }
+            try {
+                return StandardCharsets.UTF_8.newDecoder()
+                        .onMalformedInput(CodingErrorAction.REPORT)
+                        .onUnmappableCharacter(CodingErrorAction.REPORT)
+                        .decode(ByteBuffer.wrap(payload))
+                        .toString();
+            } catch (CharacterCodingException e) {
+                throw fail(CLOSE_INVALID_DATA, "Text messages must be UTF-8");
+            }
+        }
+    }
+
+    /**
+     * Sends a text message as a single frame.
+     *
+     * @param text the message
+     * @throws IOException if the connection fails or is already closing
+     */
+    void sendText(String text) throws IOException {
+        byte[] payload = text.getBytes(StandardCharsets.UTF_8);
+        sendFrame(OP_TEXT, payload, payload.length);
+    }
+
+    /**
+     * Sends an empty ping, so the client (and any proxy) sees the connection is alive.
+     *
+     * @throws IOException if the connection fails or is already closing
+     */
+    void sendPing() throws IOException {
+        sendFrame(OP_PING, new byte[0], 0);
+    }
+
+    /**
+     * Sends a close frame, once; later calls do nothing. Nothing else can be sent after it.
+     *
+     * @param code the close status code
+     * @param reason a short explanation, may be empty
+     * @throws IOException if writing fails
+     */
+    void close(int code, String reason) throws IOException {
+        byte[] text = reason.getBytes(StandardCharsets.UTF_8);
+        // Control frames carry at most 125 bytes, two of which are the code
+        int reasonLength = Math.min(text.length, 123);
+        byte[] payload = new byte[2 + reasonLength];
+        payload[0] = (byte) (code >> 8);
+        payload[1] = (byte) code;
+        System.arraycopy(text, 0, payload, 2, reasonLength);
+        synchronized (out) {
+            if (closeSent) {
+                return;
+            }
+            writeFrame(OP_CLOSE, payload, payload.length);
+            closeSent = true;
+        }
+    }
+
+    /**
+     * Closes the underlying connection, which also wakes a thread blocked in readText().
+     */
+    void disconnect() {
+        try {
+            out.close();
+        } catch (IOException e) {
+            // already gone
+        }
+    }
+
+    private void sendFrame(int opcode, byte[] payload, int length) throws IOException {
+        synchronized (out) {
+            if (closeSent) {
+                throw new IOException("WebSocket is closing");
+            }
+            writeFrame(opcode, payload, length);
+        }
+    }
+
+    // Server frames are never masked or fragmented; caller holds the lock on out
+    private void writeFrame(int opcode, byte[] payload, int length) throws IOException {
+        int n = 0;
+        frameHeader[n++] = (byte) (0x80 | opcode);
+        if (length < 126) {
+            frameHeader[n++] = (byte) length;
+        } else if (length <= 0xFFFF) {
+            frameHeader[n++] = 126;
+            frameHeader[n++] = (byte) (length >> 8);
+            frameHeader[n++] = (byte) length;
+        } else {
+            frameHeader[n++] = 127;
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                frameHeader[n++] = (byte) ((long) length >> shift);
+            }
+        }
+        out.write(frameHeader, 0, n);
+        out.write(payload, 0, length);
+        out.flush();
+    }
+
+    private IOException fail(int code, String reason) {
+        try {
+            close(code, reason);
+        } catch (IOException e) {
+            // the connection is being dropped anyway
+        }
+        return new ProtocolException(reason);
+    }
+
+    private byte[] readPayload(int length) throws IOException {
+        byte[] payload = new byte[length];
+        readFully(payload, 0, length);
+        for (int i = 0; i < length; i++) {
+            payload[i] ^= mask[i & 3];
+        }
+        return payload;
+    }
+
+    private int readByte() throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("Connection closed in the middle of a frame");
+        }
+        return b;
+    }
+
+    private void readFully(byte[] buffer, int offset, int length) throws IOException {
+        while (length > 0) {
+            int read = in.read(buffer, offset, length);
+            if (read == -1) {
+                throw new EOFException("Connection closed in the middle of a frame");
+            }
+            offset += read;
+            length -= read;
+        }
+    }
+}
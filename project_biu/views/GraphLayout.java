@@ -0,0 +1,538 @@
+package views;
+
+import graph.Graph;
+import graph.Node;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A layered (Sugiyama-style) drawing of a graph: data flows from left to right,
+ * each node sits in the column of its longest path from a source, and the order
+ * within each column is chosen to keep edge crossings down.
+ *
+ * The steps are the classic ones: edges that close a cycle are reversed, nodes
+ * are assigned to layers by longest path, edges spanning several layers get a
+ * bend point in every layer they pass, the nodes of each layer are reordered by
+ * the barycenter of their neighbours in alternating sweeps (keeping the order
+ * with the fewest crossings), and finally coordinates are assigned.
+ *
+ * Everything is kept in primitive arrays indexed like the graph, so a layout is
+ * cheap to hold on to. It depends only on the graph's structure, so callers that
+ * draw the same graph repeatedly should compute it once and reuse it.
+ */
+public final class GraphLayout {
+
+    /** Empty space around the drawing */
+    static final int MARGIN = 50;
+
+    /** Horizontal gap between the widest nodes of neighbouring layers */
+    static final int LAYER_GAP = 110;
+
+    /** Vertical distance between node centers within a layer */
+    static final int ROW_SPACING = 110;
+
+    /** Radius of agent circles */
+    static final int AGENT_RADIUS = 40;
+
+    // Barycenter sweeps tried when ordering layers
+    private static final int ORDERING_SWEEPS = 24;
+
+    private final int[] x;
+    private final int[] y;
+    private final int[] nodeRadius;
+    private final int[] edgeFrom;
+    private final int[] edgeTo;
+    private final int[] bendStart;   // bends of edge e are [bendStart[e], bendStart[e + 1])
+    private final int[] bendX;
+    private final int[] bendY;
+    private final int width;
+    private final int height;
+
+    private GraphLayout(int[] x, int[] y, int[] nodeRadius, int[] edgeFrom, int[] edgeTo,
+                        int[] bendStart, int[] bendX, int[] bendY, int width, int height) {
+        this.x = x;
+        this.y = y;
+        this.nodeRadius = nodeRadius;
+        this.edgeFrom = edgeFrom;
+        this.edgeTo = edgeTo;
+        this.bendStart = bendStart;
+        this.bendX = bendX;
+        this.bendY = bendY;
+        this.width = width;
+        this.height = height;
+    }
+
+    /** Returns the x coordinate of the center of node i. */
+    public int getX(int i) {
+        return x[i];
+    }
+
+    /** Returns the y coordinate of the center of node i. */
+    public int getY(int i) {
+        return y[i];
+    }
+
+    /** Returns the size of node i: the circle radius for agents, half the minimum width for topics. */
+    public int getNodeRadius(int i) {
+        return nodeRadius[i];
+    }
+
+    /** Returns the number of edges to draw. */
+    public int getEdgeCount() {
+        return edgeFrom.length;
+    }
+
+    /** Returns the index of the node edge e starts at. */
+    public int getEdgeFrom(int e) {
+        return edgeFrom[e];
+    }
+
+    /** Returns the index of the node edge e points to. */
+    public int getEdgeTo(int e) {
+        return edgeTo[e];
+    }
+
+    /** Returns the number of bend points of edge e; 0 for a straight edge. */
+    public int getBendCount(int e) {
+        return bendStart[e + 1] - bendStart[e];
+    }
+
+    /** Returns the x coordinate of bend point k of edge e, counted from the edge's start. */
+    public int getBendX(int e, int k) {
+        return bendX[bendStart[e] + k];
+    }
+
+    /** Returns the y coordinate of bend point k of edge e, counted from the edge's start. */
+    public int getBendY(int e, int k) {
+        return bendY[bendStart[e] + k];
+    }
+
+    /** Returns the width needed to show the whole drawing, margins included. */
+    public int getWidth() {
+        return width;
+    }
+
+    /** Returns the height needed to show the whole drawing, margins included. */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Computes the layout of a graph. The graph is only read.
+     *
+     * @param g the graph to lay out
+     * @return the layout, with nodes indexed as in {@code g}
+     */
+    public static GraphLayout of(Graph g) {
+        int n = g.size();
+        Map<Node, Integer> index = new IdentityHashMap<>(2 * n);
+        for (int i = 0; i < n; i++) {
+            index.put(g.get(i), i);
+        }
+
+        // Edges in graph order, skipping self loops and nodes outside the graph
+        int m = 0;
+        for (Node node : g) {
+            m += node.getEdges().size();
+        }
+        int[] from = new int[m];
+        int[] to = new int[m];
+        m = 0;
+        for (int i = 0; i < n; i++) {
+            List<Node> edges = g.get(i).getEdges();
+            for (int k = 0; k < edges.size(); k++) {
+                Integer j = index.get(edges.get(k));
+                if (j != null && j != i) {
+                    from[m] = i;
+                    to[m] = j;
+                    m++;
+                }
+            }
+        }
+        from = Arrays.copyOf(from, m);
+        to = Arrays.copyOf(to, m);
+
+        int[] radius = new int[n];
+        int[] nodeWidth = new int[n];
+        for (int i = 0; i < n; i++) {
+            String name = g.get(i).getName();
+            if (name.startsWith("A")) {
+                radius[i] = AGENT_RADIUS;
+                nodeWidth[i] = 2 * AGENT_RADIUS;
+            } else {
+                String displayName = name.startsWith("T") ? name.substring(1) : name;
+                radius[i] = Math.max(25, displayName.length() * 8 / 2 + 10);
+                // Same minimum width the writer uses for topic boxes
+                nodeWidth[i] = Math.max(Math.max(radius[i] * 2, 80), displayName.length() * 10 + 20);
+            }
+        }
+
+        boolean[] reversed = findBackEdges(n, from, to);
+        int[] layer = assignLayers(n, from, to, reversed);
+        return new Builder(n, from, to, reversed, layer, radius, nodeWidth).build();
+    }
+
+    /**
+     * Marks the edges that close a cycle, found by an iterative depth-first search.
+     * Reversing them leaves an acyclic graph.
+     */
+    private static boolean[] findBackEdges(int n, int[] from, int[] to) {
+        int m = from.length;
+        int[] outStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            outStart[from[e] + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+        }
+        int[] outEdge = new int[m];
+        int[] fill = Arrays.copyOf(outStart, n);
+        for (int e = 0; e < m; e++) {
+            outEdge[fill[from[e]]++] = e;
+        }
+
+        boolean[] reversed = new boolean[m];
+        byte[] state = new byte[n];     // 0 unvisited, 1 on the stack, 2 done
+        int[] stack = new int[n];
+        int[] next = new int[n];        // next out-edge slot to look at, per node
+        for (int root = 0; root < n; root++) {
+            if (state[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            stack[0] = root;
+            next[root] = outStart[root];
+            state[root] = 1;
+            while (depth >= 0) {
+                int v = stack[depth];
+                if (next[v] == outStart[v + 1]) {
+                    state[v] = 2;
+                    depth--;
+                    continue;
+                }
+                int e = outEdge[next[v]++];
+                int w = to[e];
+                if (state[w] == 1) {
+                    reversed[e] = true;
+                } else if (state[w] == 0) {
+                    state[w] = 1;
+                    next[w] = outStart[w];
+                    stack[++depth] = w;
+                }
+            }
+        }
+        return reversed;
+    }
+
+    /**
+     * Puts every node one layer after its furthest predecessor (longest path
+     * layering), treating reversed edges as pointing the other way.
+     */
+    private static int[] assignLayers(int n, int[] from, int[] to, boolean[] reversed) {
+        int m = from.length;
+        int[] inDegree = new int[n];
+        int[] outStart = new int[n + 1];
+        for (int e = 0; e < m; e++) {
+            int a = reversed[e] ? to[e] : from[e];
+            int b = reversed[e] ? from[e] : to[e];
+            inDegree[b]++;
+            outStart[a + 1]++;
+        }
+        for (int i = 0; i < n; i++) {
+            outStart[i + 1] += outStart[i];
+        }
+        int[] outTarget = new int[m];
+        int[] fill = Arrays.copyOf(outStart, n);
+        for (int e = 0; e < m; e++) {
+            int a = reversed[e] ? to[e] : from[e];
+            int b = reversed[e] ? from[e] : to[e];
+            outTarget[fill[a]++] = b;
+        }
+
+        int[] layer = new int[n];
+        int[] queue = new int[n];
+        int head = 0;
+        int tail = 0;
+        for (int i = 0; i < n; i++) {
+            if (inDegree[i] == 0) {
+                queue[tail++] = i;
+            }
+        }
+        while (head < tail) {
+            int v = queue[head++];
+            for (int k = outStart[v]; k < outStart[v + 1]; k++) {
+                int w = outTarget[k];
+                layer[w] = Math.max(layer[w], layer[v] + 1);
+                if (--inDegree[w] == 0) {
+                    queue[tail++] = w;
+                }
+            }
+        }
+        return layer;
+    }
+
+    /**
+     * Holds the working arrays for ordering and placing the layered graph, which
+     * has the real nodes [0, n) followed by one dummy node per bend point.
+     */
+    private static final class Builder {
+        final int n;
+        final int[] from;
+        final int[] to;
+        final boolean[] reversed;
+        final int[] radius;
+        final int[] nodeWidth;
+
+        final int total;            // real plus dummy nodes
+        final int[] layerOf;        // per node
+        final int[] dummyStart;     // dummies of edge e are [dummyStart[e], dummyStart[e + 1]), top layer first
+        final int[][] layers;       // node ids per layer, in drawing order
+        final int[] position;       // index of each node within its layer
+
+        // Layered edges between neighbouring layers, as upper and lower node
+        final int[] upper;
+        final int[] lower;
+        final int[] upStart;        // CSR of upper neighbours per node
+        final int[] upNodes;
+        final int[] downStart;      // CSR of lower neighbours per node
+        final int[] downNodes;
+
+        Builder(int n, int[] from, int[] to, boolean[] reversed, int[] layer, int[] radius, int[] nodeWidth) {
+            this.n = n;
+            this.from = from;
+            this.to = to;
+            this.reversed = reversed;
+            this.radius = radius;
+            this.nodeWidth = nodeWidth;
+            int m = from.length;
+
+            // One dummy per layer an edge passes through
+            dummyStart = new int[m + 1];
+            int dummies = 0;
+            for (int e = 0; e < m; e++) {
+                dummyStart[e] = n + dummies;
+                dummies += Math.max(0, Math.abs(layer[to[e]] - layer[from[e]]) - 1);
+            }
+            dummyStart[m] = n + dummies;
+            total = n + dummies;
+            layerOf = Arrays.copyOf(layer, total);
+
+            int segments = m + dummies;
+            upper = new int[segments];
+            lower = new int[segments];
+            int s = 0;
+            for (int e = 0; e < m; e++) {
+                int top = reversed[e] ? to[e] : from[e];
+                int bottom = reversed[e] ? from[e] : to[e];
+                int previous = top;
+                for (int d = dummyStart[e]; d < dummyStart[e + 1]; d++) {
+                    layerOf[d] = layerOf[previous] + 1;
+                    upper[s] = previous;
+                    lower[s] = d;
+                    s++;
+                    previous = d;
+                }
+                upper[s] = previous;
+                lower[s] = bottom;
+                s++;
+            }
+
+            upStart = new int[total + 1];
+            downStart = new int[total + 1];
+            for (int k = 0; k < segments; k++) {
+                upStart[lower[k] + 1]++;
+                downStart[upper[k] + 1]++;
+            }
+            for (int v = 0; v < total; v++) {
+                upStart[v + 1] += upStart[v];
+                downStart[v + 1] += downStart[v];
+            }
+            upNodes = new int[segments];
+            downNodes = new int[segments];
+            int[] upFill = Arrays.copyOf(upStart, total);
+            int[] downFill = Arrays.copyOf(downStart, total);
+            for (int k = 0; k < segments; k++) {
+                upNodes[upFill[lower[k]]++] = upper[k];
+                downNodes[downFill[upper[k]]++] = lower[k];
+            }
+
+            int layerCount = 0;
+            for (int v = 0; v < total; v++) {
+                layerCount = Math.max(layerCount, layerOf[v] + 1);
+            }
+            int[] layerSize = new int[layerCount];
+            for (int v = 0; v < total; v++) {
+                layerSize[layerOf[v]]++;
+            }
+            layers = new int[layerCount][];
+            for (int l = 0; l < layerCount; l++) {
+                layers[l] = new int[layerSize[l]];
+            }
+            position = new int[total];
+            int[] fill = new int[layerCount];
+            for (int v = 0; v < total; v++) {
+                int l = layerOf[v];
+                position[v] = fill[l];
+                layers[l][fill[l]++] = v;
+            }
+        }
+
+        GraphLayout build() {
+            orderLayers();
+            return place();
+        }
+
+        // Barycenter sweeps, down and up in turn, keeping the order with the fewest crossings
+        private void orderLayers() {
+            if (layers.length < 2) {
+                return;
+            }
+            long best = countCrossings();
+            int[][] bestOrder = copyLayers();
+            long[] keys = new long[0];
+            for (int sweep = 0; sweep < ORDERING_SWEEPS && best > 0; sweep++) {
+                boolean down = sweep % 2 == 0;
+                for (int step = 1; step < layers.length; step++) {
+                    int l = down ? step : layers.length - 1 - step;
+                    int[] nodes = layers[l];
+                    if (keys.length < nodes.length) {
+                        keys = new long[nodes.length];
+                    }
+                    for (int k = 0; k < nodes.length; k++) {
+                        int v = nodes[k];
+                        int start = down ? upStart[v] : downStart[v];
+                        int end = down ? upStart[v + 1] : downStart[v + 1];
+                        int[] neighbours = down ? upNodes : downNodes;
+                        // Scaled barycenter; nodes without neighbours keep their place
+                        long key = (long) k << 10;
+                        if (end > start) {
+                            long sum = 0;
+                            for (int j = start; j < end; j++) {
+                                sum += position[neighbours[j]];
+                            }
+                            key = (sum << 10) / (end - start);
+                        }
+                        // Ties keep the current order
+                        keys[k] = (key << 32) | k;
+                    }
+                    Arrays.sort(keys, 0, nodes.length);
+                    int[] reordered = new int[nodes.length];
+                    for (int k = 0; k < nodes.length; k++) {
+                        reordered[k] = nodes[(int) keys[k]];
+                    }
+                    for (int k = 0; k < reordered.length; k++) {
+                        position[reordered[k]] = k;
+                    }
+                    layers[l] = reordered;
+                }
+                long crossings = countCrossings();
+                if (crossings < best) {
+                    best = crossings;
+                    bestOrder = copyLayers();
+                }
+            }
+            for (int l = 0; l < layers.length; l++) {
+                layers[l] = bestOrder[l];
+                for (int k = 0; k < layers[l].length; k++) {
+                    position[layers[l][k]] = k;
+                }
+            }
+        }
+
+        private int[][] copyLayers() {
+            int[][] copy = new int[layers.length][];
+            for (int l = 0; l < layers.length; l++) {
+                copy[l] = layers[l].clone();
+            }
+            return copy;
+        }
+
+        // Counts crossings between every pair of neighbouring layers, as inversions
+        // of the lower positions when edges are sorted by upper position
+        private long countCrossings() {
+            long crossings = 0;
+            for (int l = 0; l + 1 < layers.length; l++) {
+                int[] nodes = layers[l];
+                int count = 0;
+                for (int v : nodes) {
+                    count += downStart[v + 1] - downStart[v];
+                }
+                long[] pairs = new long[count];
+                int p = 0;
+                for (int v : nodes) {
+                    for (int j = downStart[v]; j < downStart[v + 1]; j++) {
+                        pairs[p++] = ((long) position[v] << 32) | position[downNodes[j]];
+                    }
+                }
+                Arrays.sort(pairs);
+                // Fenwick tree over lower positions
+                int size = layers[l + 1].length;
+                int[] tree = new int[size + 1];
+                for (int k = 0; k < count; k++) {
+                    int lowerPosition = (int) pairs[k];
+                    int atOrBelow = 0;
+                    for (int i = lowerPosition + 1; i > 0; i -= i & -i) {
+                        atOrBelow += tree[i];
+                    }
+                    crossings += k - atOrBelow;
+                    for (int i = lowerPosition + 1; i <= size; i += i & -i) {
+                        tree[i]++;
+                    }
+                }
+            }
+            return crossings;
+        }
+
+        // Columns left to right, each as wide as its widest node; layers centered vertically
+        private GraphLayout place() {
+            int[] xs = new int[total];
+            int[] ys = new int[total];
+            int tallest = 0;
+            for (int[] nodes : layers) {
+                tallest = Math.max(tallest, nodes.length);
+            }
+            int left = MARGIN;
+            for (int[] nodes : layers) {
+                int columnWidth = 0;
+                for (int v : nodes) {
+                    if (v < n) {
+                        columnWidth = Math.max(columnWidth, nodeWidth[v]);
+                    }
+                }
+                int center = left + Math.max(columnWidth, 2 * AGENT_RADIUS) / 2;
+                int top = MARGIN + ROW_SPACING / 2 + (tallest - nodes.length) * ROW_SPACING / 2;
+                for (int k = 0; k < nodes.length; k++) {
+                    xs[nodes[k]] = center;
+                    ys[nodes[k]] = top + k * ROW_SPACING;
+                }
+                left = center + Math.max(columnWidth, 2 * AGENT_RADIUS) / 2 + LAYER_GAP;
+            }
+            int width = Math.max(2 * MARGIN, left - LAYER_GAP + MARGIN);
+            int height = 2 * MARGIN + tallest * ROW_SPACING;
+
+            // Bend points follow the edge's own direction, so reversed edges list theirs bottom up
+            int m = from.length;
+            int[] bendStart = new int[m + 1];
+            int[] bendX = new int[total - n];
+            int[] bendY = new int[total - n];
+            int b = 0;
+            for (int e = 0; e < m; e++) {
+                bendStart[e] = b;
+                int first = dummyStart[e];
+                int last = dummyStart[e + 1] - 1;
+                for (int k = 0; k <= last - first; k++) {
+                    int d = reversed[e] ? last - k : first + k;
+                    bendX[b] = xs[d];
+                    bendY[b] = ys[d];
+                    b++;
+                }
+            }
+            bendStart[m] = b;
+            return new GraphLayout(Arrays.copyOf(xs, n), Arrays.copyOf(ys, n), radius, from, to,
+                    bendStart, bendX, bendY, width, height);
+        }
+    }
+}
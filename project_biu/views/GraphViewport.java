@@ -0,0 +1,75 @@
+package views;
+
+/**
+ * The part of a {@link GraphLayout} a client is looking at, in layout
+ * coordinates, together with the size of the area it is shown in on screen.
+ * The ratio of the two decides how much detail is worth drawing.
+ */
+public final class GraphViewport {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final double scale;
+
+    /**
+     * @param x left edge of the visible area
+     * @param y top edge of the visible area
+     * @param width width of the visible area, at least 1
+     * @param height height of the visible area, at least 1
+     * @param screenWidth width in pixels of the element the area is shown in
+     * @param screenHeight height in pixels of the element the area is shown in
+     */
+    public GraphViewport(int x, int y, int width, int height, int screenWidth, int screenHeight) {
+        if (width < 1 || height < 1 || screenWidth < 1 || screenHeight < 1) {
+            throw new IllegalArgumentException("Viewport sizes must be positive");
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        // The area is scaled to fit while keeping its aspect ratio, as an SVG viewBox is
+        this.scale = Math.min((double) screenWidth / width, (double) screenHeight / height);
+    }
+
+    /**
+     * Returns a viewport showing a whole layout. Small drawings are not blown up:
+     * the area is at least as large as the screen.
+     *
+     * @param layout the layout to show
+     * @param screenWidth width in pixels of the element the drawing is shown in
+     * @param screenHeight height in pixels of the element the drawing is shown in
+     * @return the viewport
+     */
+    public static GraphViewport whole(GraphLayout layout, int screenWidth, int screenHeight) {
+        return new GraphViewport(0, 0, Math.max(screenWidth, layout.getWidth()),
+                Math.max(screenHeight, layout.getHeight()), screenWidth, screenHeight);
+    }
+
+    public int getX() {
+        return x;
+    }
+
+    public int getY() {
+        return y;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /** Returns the number of screen pixels one layout unit takes up. */
+    public double getScale() {
+        return scale;
+    }
+
+    /** Returns true if the rectangle [left, right] x [top, bottom] overlaps the visible area. */
+    public boolean intersects(int left, int top, int right, int bottom) {
+        return right >= x && left <= x + width && bottom >= y && top <= y + height;
+    }
+}
@@ -3,211 +3,479 @@ package views;
 import graph.Graph;
 import graph.Message;
 import graph.Node;
-import java.util.*;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class HtmlGraphWriter {
+
+    /** Most nodes drawn individually in a viewport before they are clustered */
+    public static final int MAX_DETAILED_NODES = 1500;
+
+    /** Most edges drawn individually in a viewport before the nodes are clustered */
+    public static final int MAX_DETAILED_EDGES = 3000;
+
+    /** Size of the screen cells nodes are grouped into when clustered */
+    public static final int CLUSTER_CELL_PIXELS = 48;
+
+    /** Scale (screen pixels per layout unit) below which labels are not drawn */
+    static final double LABEL_SCALE = 0.35;
+
+    // Most links drawn between clusters
+    private static final int MAX_CLUSTER_LINKS = 2000;
+
     /**
      * Returns SVG lines for the current graph visualization (nodes, edges, labels).
      * This can be injected into the <svg> element in graph.html.
+     *
+     * @deprecated collects the whole drawing in memory; use
+     * {@link #writeGraphSVG(Graph, Writer, String, String)} to stream it instead
      */
+    @Deprecated
     public static List<String> getGraphSVG(Graph g) {
-        List<String> svg = new ArrayList<>();
+        StringWriter buffer = new StringWriter();
+        try {
+            writeGraphSVG(g, buffer, "", "\n");
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringWriter does not throw
+        }
+        List<String> svg = new ArrayList<>(Arrays.asList(buffer.toString().split("\n")));
+        return svg;
+    }
+
+    /**
+     * Writes the SVG elements of the current graph visualization (nodes, edges, labels)
+     * straight to a writer, one element per line, without building intermediate strings
+     * for the whole drawing. The output can be placed inside an &lt;svg&gt; element.
+     *
+     * @param g the graph to draw
+     * @param out where the markup is written; callers should buffer it (a PrintWriter
+     *            over an OutputStreamWriter already does)
+     * @param indent written before every element, e.g. spaces matching the page
+     * @param newline written after every element
+     * @throws IOException if writing fails
+     */
+    public static void writeGraphSVG(Graph g, Writer out, String indent, String newline) throws IOException {
+        writeGraphSVG(g, null, out, indent, newline);
+    }
+
+    /**
+     * Like {@link #writeGraphSVG(Graph, Writer, String, String)}, but takes the text
+     * shown inside topic nodes from {@code values} instead of the nodes' messages.
+     * This lets a cached graph be drawn with current values without modifying it.
+     *
+     * @param g the graph to draw
+     * @param values value text per node, parallel to {@code g}; a null entry (or a
+     *               null array) falls back to the node's message
+     * @param out where the markup is written
+     * @param indent written before every element
+     * @param newline written after every element
+     * @throws IOException if writing fails
+     */
+    public static void writeGraphSVG(Graph g, String[] values, Writer out, String indent, String newline) throws IOException {
+        writeGraphSVG(g, GraphLayout.of(g), values, out, indent, newline);
+    }
+
+    /**
+     * Like {@link #writeGraphSVG(Graph, String[], Writer, String, String)}, with node
+     * positions from a layout computed earlier. The layout depends only on the graph's
+     * structure, so a caller that draws the same graph repeatedly computes it once.
+     * The drawing fits in a viewBox of {@link GraphLayout#getWidth()} by
+     * {@link GraphLayout#getHeight()}.
+     *
+     * @param g the graph to draw
+     * @param layout the layout of {@code g}, from {@link GraphLayout#of(Graph)}
+     * @param values value text per node, parallel to {@code g}, or null
+     * @param out where the markup is written
+     * @param indent written before every element
+     * @param newline written after every element
+     * @throws IOException if writing fails
+     */
+    public static void writeGraphSVG(Graph g, GraphLayout layout, String[] values, Writer out, String indent, String newline) throws IOException {
+        writeGraphSVG(g, layout, values, null, out, indent, newline);
+    }
+
+    /**
+     * Like {@link #writeGraphSVG(Graph, GraphLayout, String[], Writer, String, String)},
+     * but draws only what can be seen through a viewport, so the output stays bounded
+     * however large the graph is. Nodes and edges outside the viewport are left out,
+     * labels are dropped once they would be too small to read, and when more than
+     * {@link #MAX_DETAILED_NODES} nodes or {@link #MAX_DETAILED_EDGES} edges are
+     * visible, the nodes are collapsed into cluster glyphs, one per screen cell of
+     * {@link #CLUSTER_CELL_PIXELS} pixels, showing how many nodes they hold.
+     *
+     * @param g the graph to draw
+     * @param layout the layout of {@code g}
+     * @param values value text per node, parallel to {@code g}, or null
+     * @param view the visible part of the layout; null draws everything
+     * @param out where the markup is written
+     * @param indent written before every element
+     * @param newline written after every element
+     * @throws IOException if writing fails
+     */
+    public static void writeGraphSVG(Graph g, GraphLayout layout, String[] values, GraphViewport view,
+                                     Writer out, String indent, String newline) throws IOException {
+        SvgOut svg = new SvgOut(out, indent, newline);
         // Add SVG viewBox and arrowhead marker definition
-        svg.add("<defs>");
-        svg.add("<marker id=\"arrowhead\" markerWidth=\"12\" markerHeight=\"12\" refX=\"10\" refY=\"3\" orient=\"auto\" markerUnits=\"strokeWidth\">");
-        svg.add("<polygon points=\"0,0 0,6 10,3\" fill=\"#333\" stroke=\"#333\" stroke-width=\"1\"/>");
-        svg.add("</marker>");
-        svg.add("</defs>");
+        svg.line("<defs>");
+        svg.line("<marker id=\"arrowhead\" markerWidth=\"12\" markerHeight=\"12\" refX=\"10\" refY=\"3\" orient=\"auto\" markerUnits=\"strokeWidth\">");
+        svg.line("<polygon points=\"0,0 0,6 10,3\" fill=\"#333\" stroke=\"#333\" stroke-width=\"1\"/>");
+        svg.line("</marker>");
+        svg.line("</defs>");
         
         int n = g.size();
         if (n == 0) {
-            svg.add("<text x='50%' y='50%' text-anchor='middle' alignment-baseline='middle' fill='#999' font-size='16'>No nodes in graph</text>");
-            return svg;
+            svg.line("<text x='50%' y='50%' text-anchor='middle' alignment-baseline='middle' fill='#999' font-size='16'>No nodes in graph</text>");
+            return;
         }
         
-        // Second pass: INCREASED NODE SPACING using expanded grid layout
-        List<Node> nodeList = new ArrayList<>();
-        for (Node node : g) {
-            nodeList.add(node);
-        }
-
-        // INCREASED SPACING - make nodes further apart
-        int cols = (int) Math.ceil(Math.sqrt(n));
-        int rows = (int) Math.ceil((double) n / cols);
-
-        // EXPANDED SPACING - increased from previous values
-        int minSpacing = 150;  // Increased from 80 to 150
-        int horizontalSpacing = Math.max(minSpacing, 180); // More horizontal space
-        int verticalSpacing = Math.max(minSpacing, 160);   // More vertical space
-
-        // LARGER CANVAS with more spacing
-        int canvasWidth = Math.max(800, cols * horizontalSpacing + 200);
-        int canvasHeight = Math.max(600, rows * verticalSpacing + 200);
-
-        // Starting positions with larger margins
-        int startX = 100;  // Increased margin
-        int startY = 50;  // Increased margin
-
-        // Position nodes in expanded grid
-        Map<Node, Integer[]> nodePos = new HashMap<>();
+        // Node centers and sizes come from the layout, indexed by position in the graph
+        int[] posX = new int[n];
+        int[] posY = new int[n];
+        int[] nodeRadii = new int[n];
         for (int i = 0; i < n; i++) {
-            Node node = nodeList.get(i);
-            
-            // Calculate grid position
-            int row = i / cols;
-            int col = i % cols;
-            
-            // Calculate actual pixel position - MORE SPREAD OUT
-            int x = startX + col * horizontalSpacing;
-            int y = startY + row * verticalSpacing;
-            
-            nodePos.put(node, new Integer[]{x, y});
+            posX[i] = layout.getX(i);
+            posY[i] = layout.getY(i);
+            nodeRadii[i] = layout.getNodeRadius(i);
         }
-
-        Map<Node, Integer> nodeRadii = new HashMap<>();
-
-        // First pass: FIXED agent radius
-        int maxAgentRadius = 40; // FIXED SIZE - changed from 35 to 40
-
-        for (Node node : g) {
-            // Assign node radius (keep existing logic)
-            String nodeName = node.getName();
-            String displayName = nodeName;
-            if (displayName.startsWith("T") || displayName.startsWith("A")) {
-                displayName = displayName.substring(1);
+        
+        // Culling: which nodes and how many edges the viewport shows
+        boolean[] visible = null;
+        boolean labels = true;
+        if (view != null) {
+            visible = new boolean[n];
+            int visibleNodes = 0;
+            for (int i = 0; i < n; i++) {
+                int halfWidth = g.get(i).getName().startsWith("T")
+                        ? topicWidth(displayName(g.get(i).getName()), valueText(g, values, i), nodeRadii[i]) / 2
+                        : GraphLayout.AGENT_RADIUS;
+                visible[i] = view.intersects(posX[i] - halfWidth, posY[i] - GraphLayout.AGENT_RADIUS,
+                        posX[i] + halfWidth, posY[i] + GraphLayout.AGENT_RADIUS);
+                if (visible[i]) {
+                    visibleNodes++;
+                }
             }
-            
-            if (nodeName.startsWith("A")) {
-                nodeRadii.put(node, 40); // FIXED SIZE - changed from 35 to 40
-            } else {
-                int textWidth = displayName.length() * 8;
-                int minRadius = Math.max(25, textWidth / 2 + 10);
-                nodeRadii.put(node, minRadius);
+            int visibleEdges = 0;
+            for (int e = 0; e < layout.getEdgeCount(); e++) {
+                if (isEdgeVisible(layout, e, view)) {
+                    visibleEdges++;
+                }
+            }
+            if (visibleNodes > MAX_DETAILED_NODES || visibleEdges > MAX_DETAILED_EDGES) {
+                writeClusters(layout, visible, view, svg);
+                return;
             }
+            labels = view.getScale() >= LABEL_SCALE;
         }
         
-        // Edges with arrowheads - calculate connection points to avoid overlapping with nodes
-        for (Node node : g) {
-            for (Node out : node.getEdges()) {
-                Integer[] from = nodePos.get(node);
-                Integer[] to = nodePos.get(out);
-                if (from != null && to != null) {
-                    // Calculate direction vector
-                    double dx = to[0] - from[0];
-                    double dy = to[1] - from[1];
-                    double length = Math.sqrt(dx * dx + dy * dy);
+        // Edges with arrowheads - calculate connection points to avoid overlapping with nodes.
+        // Edges that skip layers bend at the layout's points and are drawn as polylines.
+        for (int e = 0; e < layout.getEdgeCount(); e++) {
+            int i = layout.getEdgeFrom(e);
+            int j = layout.getEdgeTo(e);
+            if (view != null && !isEdgeVisible(layout, e, view)) {
+                continue;
+            }
+            Node node = g.get(i);
+            Node targetNode = g.get(j);
+            int bends = layout.getBendCount(e);
+            
+            // Direction leaving the source, towards the first bend or the target
+            double dx = (bends > 0 ? layout.getBendX(e, 0) : posX[j]) - posX[i];
+            double dy = (bends > 0 ? layout.getBendY(e, 0) : posY[j]) - posY[i];
+            double length = Math.sqrt(dx * dx + dy * dy);
+            // Direction entering the target, from the last bend or the source
+            double inX = posX[j] - (bends > 0 ? layout.getBendX(e, bends - 1) : posX[i]);
+            double inY = posY[j] - (bends > 0 ? layout.getBendY(e, bends - 1) : posY[i]);
+            double inLength = Math.sqrt(inX * inX + inY * inY);
+            
+            if (length > 0 && inLength > 0) {
+                // Normalize direction vectors
+                dx /= length;
+                dy /= length;
+                inX /= inLength;
+                inY /= inLength;
+                
+                // REDUCED arrow space for shorter arrows
+                int arrowSpace = 5; // Changed from 12 to 5
+                
+                // Calculate connection points based on node types (circle vs rectangle)
+                int fromX, fromY, toX, toY;
+                
+                // From node connection point
+                if (node.getName().startsWith("T")) {
+                    // Topic (rectangle) - REDUCED spacing
+                    int rectWidth = Math.max(nodeRadii[i] * 2, (node.getName().length() - 1) * 10 + 20);
+                    int rectHeight = 60; // Use consistent height
+                    
+                    // Find intersection with rectangle edge - CLOSER to edge
+                    double intersectDist = Math.min(Math.abs((rectWidth/2.0) / Math.abs(dx)), Math.abs((rectHeight/2.0) / Math.abs(dy)));
+                    fromX = (int)(posX[i] + dx * (intersectDist + 2)); // Added small buffer of 2px
+                    fromY = (int)(posY[i] + dy * (intersectDist + 2));
+                } else {
+                    // Agent (circle) - CLOSER to edge
+                    int fromRadius = 38; // Slightly less than 40 to get closer to edge
+                    fromX = (int)(posX[i] + dx * fromRadius);
+                    fromY = (int)(posY[i] + dy * fromRadius);
+                }
+                
+                // To node connection point
+                if (targetNode.getName().startsWith("T")) {
+                    // Topic (rectangle) - SHORTER arrow
+                    int rectWidth = Math.max(nodeRadii[j] * 2, (targetNode.getName().length() - 1) * 10 + 20);
+                    int rectHeight = 60;
                     
-                    if (length > 0) {
-                        // Normalize direction vector
-                        dx /= length;
-                        dy /= length;
-                        
-                        // REDUCED arrow space for shorter arrows
-                        int arrowSpace = 5; // Changed from 12 to 5
-                        
-                        // Calculate connection points based on node types (circle vs rectangle)
-                        int fromX, fromY, toX, toY;
-                        
-                        // From node connection point
-                        if (node.getName().startsWith("T")) {
-                            // Topic (rectangle) - REDUCED spacing
-                            int fromNodeRadius = nodeRadii.get(node);
-                            int rectWidth = Math.max(fromNodeRadius * 2, node.getName().substring(1).length() * 10 + 20);
-                            int rectHeight = 60; // Use consistent height
-                            
-                            // Find intersection with rectangle edge - CLOSER to edge
-                            double intersectDist = Math.min(Math.abs((rectWidth/2.0) / Math.abs(dx)), Math.abs((rectHeight/2.0) / Math.abs(dy)));
-                            fromX = (int)(from[0] + dx * (intersectDist + 2)); // Added small buffer of 2px
-                            fromY = (int)(from[1] + dy * (intersectDist + 2));
-                        } else {
-                            // Agent (circle) - CLOSER to edge
-                            int fromRadius = 38; // Slightly less than 40 to get closer to edge
-                            fromX = (int)(from[0] + dx * fromRadius);
-                            fromY = (int)(from[1] + dy * fromRadius);
-                        }
-                        
-                        // To node connection point
-                        if (out.getName().startsWith("T")) {
-                            // Topic (rectangle) - SHORTER arrow
-                            int toNodeRadius = nodeRadii.get(out);
-                            int rectWidth = Math.max(toNodeRadius * 2, out.getName().substring(1).length() * 10 + 20);
-                            int rectHeight = 60;
-                            
-                            // Find intersection with rectangle edge - CLOSER approach
-                            double intersectDist = Math.min(Math.abs((rectWidth/2.0) / Math.abs(dx)), Math.abs((rectHeight/2.0) / Math.abs(dy)));
-                            toX = (int)(to[0] - dx * (intersectDist + arrowSpace)); // Uses reduced arrowSpace
-                            toY = (int)(to[1] - dy * (intersectDist + arrowSpace));
-                        } else {
-                            // Agent (circle) - SHORTER arrow
-                            int toRadius = 38; // Slightly less than 40
-                            toX = (int)(to[0] - dx * (toRadius + arrowSpace)); // Uses reduced arrowSpace
-                            toY = (int)(to[1] - dy * (toRadius + arrowSpace));
-                        }
-                        
-                        svg.add(String.format("<line x1='%d' y1='%d' x2='%d' y2='%d' stroke='#333' stroke-width='2' marker-end='url(#arrowhead)' />", 
-                            fromX, fromY, toX, toY));
+                    // Find intersection with rectangle edge - CLOSER approach
+                    double intersectDist = Math.min(Math.abs((rectWidth/2.0) / Math.abs(inX)), Math.abs((rectHeight/2.0) / Math.abs(inY)));
+                    toX = (int)(posX[j] - inX * (intersectDist + arrowSpace)); // Uses reduced arrowSpace
+                    toY = (int)(posY[j] - inY * (intersectDist + arrowSpace));
+                } else {
+                    // Agent (circle) - SHORTER arrow
+                    int toRadius = 38; // Slightly less than 40
+                    toX = (int)(posX[j] - inX * (toRadius + arrowSpace)); // Uses reduced arrowSpace
+                    toY = (int)(posY[j] - inY * (toRadius + arrowSpace));
+                }
+                
+                if (bends == 0) {
+                    svg.begin("<line x1='").num(fromX).raw("' y1='").num(fromY)
+                            .raw("' x2='").num(toX).raw("' y2='").num(toY)
+                            .end("' stroke='#333' stroke-width='2' marker-end='url(#arrowhead)' />");
+                } else {
+                    svg.begin("<polyline points='").num(fromX).raw(",").num(fromY);
+                    for (int k = 0; k < bends; k++) {
+                        svg.raw(" ").num(layout.getBendX(e, k)).raw(",").num(layout.getBendY(e, k));
                     }
+                    svg.raw(" ").num(toX).raw(",").num(toY)
+                            .end("' fill='none' stroke='#333' stroke-width='2' marker-end='url(#arrowhead)' />");
                 }
             }
         }
         
         // Nodes and labels
-        for (Node node : g) {
-            Integer[] pos = nodePos.get(node);
+        for (int i = 0; i < n; i++) {
+            if (visible != null && !visible[i]) {
+                continue;
+            }
+            Node node = g.get(i);
             String nodeName = node.getName();
             
             // Remove "T" or "A" prefix from node name for display
-            String displayName = nodeName;
-            if (displayName.startsWith("T") || displayName.startsWith("A")) {
-                displayName = displayName.substring(1);
-            }
+            String displayName = displayName(nodeName);
             
             // Determine if this is a topic (starts with T) or agent (starts with A)
             boolean isTopic = nodeName.startsWith("T");
             
-            // Get adaptive size for this node
-            int nodeRadius = nodeRadii.get(node);
-            
-            // Get message/value for the node
-            Object msg = null;
-            try { msg = node.getMsg(); } catch (Exception e) {}
-            String msgText = "unknown";
-            if (msg != null) {
-                if (msg instanceof Message) {
-                    // Extract the actual text from the Message object
-                    msgText = ((Message) msg).asText;
-                } else {
-                    msgText = msg.toString();
-                }
-            }
-            
             if (isTopic) {
+                // Get message/value for the node
+                String msgText = valueText(g, values, i);
+
                 // Topics as adaptive rectangles with message INSIDE - MAINTAIN MINIMUM SIZE
-                int nameWidth = displayName.length() * 10 + 20;
-                int msgWidth = msgText.length() * 8 + 20;
-                int minWidth = Math.max(nodeRadius * 2, 80); // MINIMUM width of 80px
-                int rectWidth = Math.max(minWidth, Math.max(nameWidth, msgWidth));
+                int rectWidth = topicWidth(displayName, msgText, nodeRadii[i]);
                 int rectHeight = 60; // Fixed height to fit both name and message
                 
-                svg.add(String.format("<rect class='topic-node' x='%d' y='%d' width='%d' height='%d' rx='8' />", 
-                    pos[0] - rectWidth/2, pos[1] - rectHeight/2, rectWidth, rectHeight));
+                svg.begin("<rect class='topic-node' x='").num(posX[i] - rectWidth/2)
+                        .raw("' y='").num(posY[i] - rectHeight/2)
+                        .raw("' width='").num(rectWidth).raw("' height='").num(rectHeight)
+                        .end("' rx='8' />");
+                if (!labels) {
+                    continue;
+                }
                 // Topic name in the upper part of rectangle
-                svg.add(String.format("<text x='%d' y='%d' text-anchor='middle' alignment-baseline='middle' class='topic-text'>%s</text>", 
-                    pos[0], pos[1] - 10, displayName));
+                svg.begin("<text x='").num(posX[i]).raw("' y='").num(posY[i] - 10)
+                        .raw("' text-anchor='middle' alignment-baseline='middle' class='topic-text'>")
+                        .text(displayName).end("</text>");
                 // Message in the lower part of rectangle (INSIDE THE BOX)
-                svg.add(String.format("<text x='%d' y='%d' text-anchor='middle' alignment-baseline='middle' class='value-text' fill='white' font-size='11px'>%s</text>", 
-                    pos[0], pos[1] + 12, msgText));
+                svg.begin("<text x='").num(posX[i]).raw("' y='").num(posY[i] + 12)
+                        .raw("' text-anchor='middle' alignment-baseline='middle' class='value-text' data-topic='")
+                        .raw(escapeAttribute(displayName)).raw("' fill='white' font-size='11px'>")
+                        .text(msgText).end("</text>");
             } else {
                 // Agents as FIXED SIZE circles with ONLY NAME (no message)
                 int fixedRadius = 40; // FIXED SIZE - changed from 35 to 40
                 
-                svg.add(String.format("<circle class='agent-node' cx='%d' cy='%d' r='%d'/>", pos[0], pos[1], fixedRadius));
+                svg.begin("<circle class='agent-node' cx='").num(posX[i]).raw("' cy='").num(posY[i])
+                        .raw("' r='").num(fixedRadius).end("'/>");
+                if (!labels) {
+                    continue;
+                }
                 // Agent name CENTERED in circle (no message)
-                svg.add(String.format("<text x='%d' y='%d' text-anchor='middle' alignment-baseline='middle' class='agent-text' font-size='12px'>%s</text>", 
-                    pos[0], pos[1], displayName)); // Agent name centered
+                svg.begin("<text x='").num(posX[i]).raw("' y='").num(posY[i])
+                        .raw("' text-anchor='middle' alignment-baseline='middle' class='agent-text' font-size='12px'>")
+                        .text(displayName).end("</text>"); // Agent name centered
             }
         }
-        return svg;
+    }
+
+    // Text shown inside a topic node: the given value, else the node's message
+    private static String valueText(Graph g, String[] values, int i) {
+        String msgText = values != null ? values[i] : null;
+        if (msgText == null) {
+            Message msg = null;
+            try { msg = g.get(i).getMsg(); } catch (Exception e) {}
+            msgText = msg != null ? msg.asText : "unknown";
+        }
+        return msgText;
+    }
+
+    // Width of a topic box, wide enough for its name and value
+    private static int topicWidth(String displayName, String msgText, int radius) {
+        int nameWidth = displayName.length() * 10 + 20;
+        int msgWidth = msgText.length() * 8 + 20;
+        int minWidth = Math.max(radius * 2, 80); // MINIMUM width of 80px
+        return Math.max(minWidth, Math.max(nameWidth, msgWidth));
+    }
+
+    // True if the bounding box of edge e, bends included, overlaps the viewport
+    private static boolean isEdgeVisible(GraphLayout layout, int e, GraphViewport view) {
+        int from = layout.getEdgeFrom(e);
+        int to = layout.getEdgeTo(e);
+        int left = Math.min(layout.getX(from), layout.getX(to));
+        int right = Math.max(layout.getX(from), layout.getX(to));
+        int top = Math.min(layout.getY(from), layout.getY(to));
+        int bottom = Math.max(layout.getY(from), layout.getY(to));
+        for (int k = 0; k < layout.getBendCount(e); k++) {
+            left = Math.min(left, layout.getBendX(e, k));
+            right = Math.max(right, layout.getBendX(e, k));
+            top = Math.min(top, layout.getBendY(e, k));
+            bottom = Math.max(bottom, layout.getBendY(e, k));
+        }
+        return view.intersects(left, top, right, bottom);
+    }
+
+    /**
+     * Draws the visible nodes as one glyph per occupied screen cell, placed at the
+     * cell's center of mass and labelled with its node count, with at most one link
+     * between two cells that have edges between them.
+     */
+    private static void writeClusters(GraphLayout layout, boolean[] visible, GraphViewport view, SvgOut svg)
+            throws IOException {
+        double scale = view.getScale();
+        double cellSize = CLUSTER_CELL_PIXELS / scale;
+        int columns = Math.max(1, (int) Math.ceil(view.getWidth() / cellSize));
+        int rows = Math.max(1, (int) Math.ceil(view.getHeight() / cellSize));
+        int cells = columns * rows;
+        int[] count = new int[cells];
+        long[] sumX = new long[cells];
+        long[] sumY = new long[cells];
+        int[] cellOf = new int[visible.length];
+        for (int i = 0; i < visible.length; i++) {
+            cellOf[i] = -1;
+            if (!visible[i]) {
+                continue;
+            }
+            int column = (int) ((layout.getX(i) - view.getX()) / cellSize);
+            int row = (int) ((layout.getY(i) - view.getY()) / cellSize);
+            int cell = Math.max(0, Math.min(rows - 1, row)) * columns + Math.max(0, Math.min(columns - 1, column));
+            cellOf[i] = cell;
+            count[cell]++;
+            sumX[cell] += layout.getX(i);
+            sumY[cell] += layout.getY(i);
+        }
+        int[] centerX = new int[cells];
+        int[] centerY = new int[cells];
+        for (int c = 0; c < cells; c++) {
+            if (count[c] > 0) {
+                centerX[c] = (int) (sumX[c] / count[c]);
+                centerY[c] = (int) (sumY[c] / count[c]);
+            }
+        }
+
+        // Links between cells, each pair once
+        Set<Long> linked = new HashSet<>();
+        for (int e = 0; e < layout.getEdgeCount() && linked.size() < MAX_CLUSTER_LINKS; e++) {
+            int a = cellOf[layout.getEdgeFrom(e)];
+            int b = cellOf[layout.getEdgeTo(e)];
+            if (a < 0 || b < 0 || a == b || !linked.add((long) Math.min(a, b) * cells + Math.max(a, b))) {
+                continue;
+            }
+            svg.begin("<line class='cluster-edge' x1='").num(centerX[a]).raw("' y1='").num(centerY[a])
+                    .raw("' x2='").num(centerX[b]).raw("' y2='").num(centerY[b])
+                    .end("' stroke='#999' stroke-width='1' vector-effect='non-scaling-stroke' />");
+        }
+
+        // Glyph area grows with the logarithm of the count, sized in screen pixels
+        int fontSize = (int) Math.ceil(11 / scale);
+        for (int c = 0; c < cells; c++) {
+            if (count[c] == 0) {
+                continue;
+            }
+            double pixels = Math.min(CLUSTER_CELL_PIXELS * 0.45, 8 + 3 * Math.log(count[c]) / Math.log(2));
+            int radius = (int) Math.ceil(pixels / scale);
+            svg.begin("<circle class='cluster-node' cx='").num(centerX[c]).raw("' cy='").num(centerY[c])
+                    .raw("' r='").num(radius).raw("'><title>").num(count[c]).end(" nodes</title></circle>");
+            svg.begin("<text x='").num(centerX[c]).raw("' y='").num(centerY[c])
+                    .raw("' text-anchor='middle' alignment-baseline='middle' class='cluster-text' font-size='")
+                    .num(fontSize).raw("'>").num(count[c]).end("</text>");
+        }
+    }
+
+    // Escapes a value for use inside a single-quoted attribute
+    private static String escapeAttribute(String value) {
+        return value.replace("&", "&amp;").replace("'", "&#39;").replace("<", "&lt;");
+    }
+
+    // Escapes a value for use as element text; topic names and values come from clients
+    private static String escapeText(String value) {
+        return value.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+
+    // Strips the "T" (topic) or "A" (agent) prefix from a graph node name
+    private static String displayName(String nodeName) {
+        if (nodeName.startsWith("T") || nodeName.startsWith("A")) {
+            return nodeName.substring(1);
+        }
+        return nodeName;
+    }
+
+    // Writes SVG elements piece by piece, framing each with the indent and newline
+    private static final class SvgOut {
+        private final Writer out;
+        private final String indent;
+        private final String newline;
+
+        SvgOut(Writer out, String indent, String newline) {
+            this.out = out;
+            this.indent = indent;
+            this.newline = newline;
+        }
+
+        void line(String element) throws IOException {
+            out.write(indent);
+            out.write(element);
+            out.write(newline);
+        }
+
+        SvgOut begin(String text) throws IOException {
+            out.write(indent);
+            out.write(text);
+            return this;
+        }
+
+        SvgOut raw(String text) throws IOException {
+            out.write(text);
+            return this;
+        }
+
+        SvgOut text(String value) throws IOException {
+            out.write(escapeText(value));
+            return this;
+        }
+
+        SvgOut num(int value) throws IOException {
+            out.write(Integer.toString(value));
+            return this;
+        }
+
+        void end(String text) throws IOException {
+            out.write(text);
+            out.write(newline);
+        }
     }
 
     /**
@@ -224,11 +492,11 @@ public class HtmlGraphWriter {
             displayName = displayName.substring(1);
         }
         
-        sb.append("<p><strong>Selected Node:</strong> ").append(displayName).append("</p>");
+        sb.append("<p><strong>Selected Node:</strong> ").append(escapeText(displayName)).append("</p>");
         Object msg = null;
         try { msg = node.getMsg(); } catch (Exception e) {}
         if (msg != null) {
-            sb.append("<p><strong>Message:</strong> ").append(msg.toString()).append("</p>");
+            sb.append("<p><strong>Message:</strong> ").append(escapeText(msg.toString())).append("</p>");
         }
         return sb.toString();
     }